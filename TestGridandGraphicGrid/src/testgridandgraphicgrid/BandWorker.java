@@ -0,0 +1,399 @@
+package testgridandgraphicgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A BandWorker is the process that steps one band of rows of a
+ * PartitionedWorld. It is started by the coordinator with the port to
+ * connect back to, and exits when told to or when the coordinator goes away.
+ *
+ * Its arrays hold the band with two halo rows above and two below, copies of
+ * the neighbours' edge rows (or blocks, past the edge of the world). Only
+ * movers on the band's own rows are stepped; a mover in a halo row is looked
+ * at only to see whether it moves into the band, or contests an
+ * intersection one of the band's movers is moving into.
+ *
+ * Neighbours swap halo rows in two phases, first across the edges below the
+ * even bands and then across those below the odd ones. In each pair the
+ * upper band sends first, so two neighbours never both wait to send while
+ * the other's rows fill the socket, and a tick costs the same time waiting
+ * however many bands there are.
+ */
+final class BandWorker
+{
+    private final static int HALO = 2;              // halo rows on each side
+    private final static int CELL_BYTES = 6;        // char, id + 1, facing
+
+//--instance variables
+    private int index;
+    private int cols;
+    private int bandRows;
+    private boolean top;            // nothing above: the halo above is outside the world
+    private boolean bottom;
+    private byte[] cell;            // a char per intersection, (bandRows + 4) * cols
+    private int[] occupant;         // id + 1 of the mover there, 0 when empty
+    private byte[] facing;          // the direction of that mover
+    private int[] movers;           // the intersections of the band's movers
+    private int count;
+    private int[] nextMovers;
+    private byte[] outcome;         // per entry of movers, what it does this tick
+    private int[] arrivals;         // halo intersections whose movers enter the band
+    private byte[] buffer;          // two rows on the wire
+    private DataInputStream upIn;
+    private OutputStream upOut;
+    private DataInputStream downIn;
+    private OutputStream downOut;
+
+    private BandWorker(int index, int workers, int cols, int firstRow, int endRow,
+            double moverChance, double thingChance, double blockChance, long seed)
+    {
+        this.index = index;
+        this.cols = cols;
+        bandRows = endRow - firstRow;
+        top = index == 0;
+        bottom = index == workers - 1;
+        int size = (bandRows + 2 * HALO) * cols;
+        cell = new byte[size];
+        occupant = new int[size];
+        facing = new byte[size];
+        for (int r = 0; r < bandRows; r++)
+        {
+            PartitionedWorld.generateRow(firstRow + r, cols, moverChance, thingChance, blockChance, seed,
+                    cell, occupant, facing, (r + HALO) * cols);
+        }
+        // past the edge of the world is as good as blocked
+        if (top)
+        {
+            Arrays.fill(cell, 0, HALO * cols, (byte) Grid.blockChar);
+        }
+        if (bottom)
+        {
+            Arrays.fill(cell, size - HALO * cols, size, (byte) Grid.blockChar);
+        }
+        movers = new int[bandRows * cols];
+        nextMovers = new int[bandRows * cols];
+        outcome = new byte[bandRows * cols];
+        arrivals = new int[2 * cols];
+        for (int i = HALO * cols; i < size - HALO * cols; i++)
+        {
+            if (occupant[i] != 0)
+            {
+                movers[count++] = i;
+            }
+        }
+        buffer = new byte[HALO * cols * CELL_BYTES];
+    }
+
+    /**
+     * Swap halo rows with the neighbours, then step the band's movers once.
+     * Every decision is made from the state at the start of the tick, as in
+     * Swarm, and a mover that loses a contested intersection stays.
+     *
+     * @return the number of the band's movers that moved
+     */
+    int tick(long[] nanos) throws IOException
+    {
+        long start = System.nanoTime();
+        exchange();
+        long exchanged = System.nanoTime();
+        nanos[1] += exchanged - start;
+        int first = HALO * cols;
+        int end = (HALO + bandRows) * cols;
+        for (int k = 0; k < count; k++)
+        {
+            int at = movers[k];
+            int ahead = ahead(at, facing[at]);
+            if (ahead < 0 || !isFree(ahead))
+            {
+                outcome[k] = Swarm.TURN_LEFT;
+            } else if (wins(ahead, occupant[at]))
+            {
+                outcome[k] = Swarm.MOVE;
+            } else
+            {
+                outcome[k] = Swarm.STAY;
+            }
+        }
+        // movers in the halo that step onto the band's edge rows
+        int arrived = 0;
+        if (!top)
+        {
+            arrived = arrive(first - cols, Grid.SOUTH, arrived);
+        }
+        if (!bottom)
+        {
+            arrived = arrive(end, Grid.NORTH, arrived);
+        }
+        int next = 0;
+        int moved = 0;
+        for (int k = 0; k < count; k++)
+        {
+            int at = movers[k];
+            int f = facing[at];
+            if (outcome[k] == Swarm.TURN_LEFT)
+            {
+                f = (f + 3) % 4;
+                facing[at] = (byte) f;
+                enter(at, f);
+                nextMovers[next++] = at;
+            } else if (outcome[k] == Swarm.MOVE)
+            {
+                int to = ahead(at, f);
+                moved++;
+                leave(at);
+                if (to >= first && to < end)
+                {
+                    occupant[to] = occupant[at];
+                    facing[to] = (byte) f;
+                    enter(to, f);
+                    nextMovers[next++] = to;
+                }   // else it is now the neighbour's
+                occupant[at] = 0;
+            } else
+            {
+                nextMovers[next++] = at;
+            }
+        }
+        for (int k = 0; k < arrived; k++)
+        {
+            int from = arrivals[k];
+            int f = facing[from];
+            int to = ahead(from, f);
+            occupant[to] = occupant[from];
+            facing[to] = (byte) f;
+            enter(to, f);
+            nextMovers[next++] = to;
+        }
+        int[] swap = movers;
+        movers = nextMovers;
+        nextMovers = swap;
+        count = next;
+        nanos[0] += System.nanoTime() - exchanged;
+        return moved;
+    }
+
+    // Add to arrivals the movers of the halo row starting at row that face
+    // into the band and win the intersection they move onto
+    private int arrive(int row, int direction, int arrived)
+    {
+        for (int i = row; i < row + cols; i++)
+        {
+            if (occupant[i] != 0 && facing[i] == direction)
+            {
+                int to = ahead(i, direction);
+                if (isFree(to) && wins(to, occupant[i]))
+                {
+                    arrivals[arrived++] = i;
+                }
+            }
+        }
+        return arrived;
+    }
+
+    // The intersection ahead of at, or -1 past the left or right edge. Above
+    // and below the band there are always halo rows.
+    private int ahead(int at, int direction)
+    {
+        int c = at % cols;
+        if (direction == Grid.EAST)
+        {
+            return c == cols - 1 ? -1 : at + 1;
+        } else if (direction == Grid.WEST)
+        {
+            return c == 0 ? -1 : at - 1;
+        }
+        return at + Swarm.rowStep(direction) * cols;
+    }
+
+    private boolean isFree(int at)
+    {
+        return occupant[at] == 0 && cell[at] != Grid.blockChar;
+    }
+
+    // Whether the mover id + 1 moving onto the free intersection at beats
+    // every other mover facing into it; each of those would move too, since
+    // all that stops a FORWARD_OR_TURN mover is the intersection not being
+    // free
+    private boolean wins(int at, int id)
+    {
+        for (int d = Grid.NORTH; d <= Grid.WEST; d++)
+        {
+            int from = ahead(at, (d + 2) % 4);
+            if (from >= 0 && from < cell.length)
+            {
+                int rival = occupant[from];
+                if (rival != 0 && rival < id && facing[from] == d)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Same path rules as Swarm.leave and enter, with the path shown
+    private void leave(int at)
+    {
+        cell[at] = (byte) (cell[at] == Grid.moverOnThingChar ? Grid.thingHereChar : Grid.beenThereChar);
+    }
+
+    private void enter(int at, int direction)
+    {
+        cell[at] = (byte) (cell[at] == Grid.thingHereChar || cell[at] == Grid.moverOnThingChar
+                ? Grid.moverOnThingChar : Grid.iconFor(direction));
+    }
+
+    private void exchange() throws IOException
+    {
+        for (int phase = 0; phase < 2; phase++)
+        {
+            if (index % 2 == phase && !bottom)
+            {   // the upper band of the pair
+                send(downOut, bandRows);
+                receive(downIn, HALO + bandRows);
+            } else if (index % 2 != phase && !top)
+            {
+                receive(upIn, 0);
+                send(upOut, HALO);
+            }
+        }
+    }
+
+    private void send(OutputStream to, int row) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.wrap(buffer);
+        int from = row * cols;
+        int end = from + HALO * cols;
+        b.put(cell, from, HALO * cols);
+        b.put(facing, from, HALO * cols);
+        for (int i = from; i < end; i++)
+        {
+            b.putInt(occupant[i]);
+        }
+        to.write(buffer);
+        to.flush();
+    }
+
+    private void receive(DataInputStream from, int row) throws IOException
+    {
+        from.readFully(buffer);
+        ByteBuffer b = ByteBuffer.wrap(buffer);
+        int at = row * cols;
+        int end = at + HALO * cols;
+        b.get(cell, at, HALO * cols);
+        b.get(facing, at, HALO * cols);
+        for (int i = at; i < end; i++)
+        {
+            occupant[i] = b.getInt();
+        }
+    }
+
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException
+    {
+        out.writeInt(count);
+        out.flush();
+        long[] nanos = new long[2];     // stepping, exchanging
+        while (true)
+        {
+            int command = in.read();
+            if (command == PartitionedWorld.RUN)
+            {
+                int ticks = in.readInt();
+                long moved = 0;
+                nanos[0] = nanos[1] = 0;
+                for (int t = 0; t < ticks; t++)
+                {
+                    moved += tick(nanos);
+                }
+                out.writeLong(moved);
+                out.writeInt(count);
+                out.writeLong(nanos[0]);
+                out.writeLong(nanos[1]);
+                out.flush();
+            } else if (command == PartitionedWorld.GATHER)
+            {
+                int from = HALO * cols;
+                int end = from + bandRows * cols;
+                out.write(cell, from, end - from);
+                for (int i = from; i < end; i++)
+                {
+                    out.writeInt(occupant[i]);
+                }
+                out.flush();
+            } else
+            {   // QUIT, or the coordinator has gone
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run one band: args[0] is the coordinator's port on the loopback
+     * address.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ServerSocket below = new ServerSocket(0, 1, loopback);
+        Socket coordinator = new Socket(loopback, Integer.parseInt(args[0]));
+        coordinator.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+        out.writeInt(below.getLocalPort());
+        out.flush();
+        int index = in.readInt();
+        int workers = in.readInt();
+        int cols = in.readInt();
+        int firstRow = in.readInt();
+        int endRow = in.readInt();
+        double movers = in.readDouble();
+        double things = in.readDouble();
+        double blocks = in.readDouble();
+        long seed = in.readLong();
+        int abovePort = in.readInt();
+        BandWorker band = new BandWorker(index, workers, cols, firstRow, endRow, movers, things, blocks, seed);
+        Socket up = null;
+        Socket down = null;
+        if (abovePort >= 0)
+        {   // the band above accepts once it has been built
+            up = new Socket(loopback, abovePort);
+            up.setTcpNoDelay(true);
+            band.upIn = new DataInputStream(new BufferedInputStream(up.getInputStream()));
+            band.upOut = new BufferedOutputStream(up.getOutputStream());
+        }
+        if (!band.bottom)
+        {
+            down = below.accept();
+            down.setTcpNoDelay(true);
+            band.downIn = new DataInputStream(new BufferedInputStream(down.getInputStream()));
+            band.downOut = new BufferedOutputStream(down.getOutputStream());
+        }
+        below.close();
+        try
+        {
+            band.serve(in, out);
+        } finally
+        {
+            if (up != null)
+            {
+                up.close();
+            }
+            if (down != null)
+            {
+                down.close();
+            }
+            coordinator.close();
+        }
+    }
+
+} // end class BandWorker
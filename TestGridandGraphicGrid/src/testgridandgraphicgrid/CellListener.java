@@ -0,0 +1,17 @@
+package testgridandgraphicgrid;
+
+/**
+ * Told by a Grid about each intersection as it changes, before the Grid's
+ * own listener is notified, and when each command or reset is done. Keep
+ * both short: they run inside every command.
+ */
+interface CellListener
+{
+
+    void cellChanged(int row, int col, char ch);
+
+    /**
+     * Called at the end of each command and reset, changed or not.
+     */
+    void commandDone();
+}
@@ -0,0 +1,110 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+
+/**
+ * Where a Grid keeps the char of every intersection. Grid reads and writes
+ * intersections only through a CellStore, so the same commands run on the
+ * usual char[][] (CellStore.Heap) or on memory outside the Java heap
+ * (OffHeapStore).
+ */
+abstract class CellStore
+{
+    abstract char get(int r, int c);
+
+    abstract void put(int r, int c, char ch);
+
+    /**
+     * Copy the first cols chars of row r into dest.
+     */
+    abstract void copyRow(int r, char[] dest, int cols);
+
+    /**
+     * A new array with a copy of the first rows by cols intersections, for
+     * GraphicGrid.stateChanged.
+     */
+    char[][] copy(int rows, int cols)
+    {
+        char[][] result = new char[rows][cols];
+        for (int r = 0; r < rows; r++)
+        {
+            copyRow(r, result[r], cols);
+        }
+        return result;
+    }
+
+    /**
+     * Called after every command with where the mover is, the Grid's hash of
+     * the intersections and its counts of each kind, so a store that outlives
+     * its Grid can hand them to the next one. Most stores ignore it.
+     */
+    void saveState(int moverRow, int moverCol, int facing, long cellHash, long[] counts)
+    {
+    }
+
+    /**
+     * The char[][] every Grid used before there were other stores.
+     */
+    static final class Heap extends CellStore
+    {
+
+        private char[][] rectangle;
+
+        Heap(char[][] rectangle)
+        {
+            this.rectangle = rectangle;
+        }
+
+        char get(int r, int c)
+        {
+            return rectangle[r][c];
+        }
+
+        void put(int r, int c, char ch)
+        {
+            rectangle[r][c] = ch;
+        }
+
+        void copyRow(int r, char[] dest, int cols)
+        {
+            System.arraycopy(rectangle[r], 0, dest, 0, cols);
+        }
+
+        /**
+         * Set the first rows by cols chars to ch and the rest to 0, as a new
+         * array of arrayRows by arrayCols would be after filling, if that is
+         * the size of this one.
+         *
+         * @return false, with nothing changed, if the array is another size
+         */
+        boolean refill(int arrayRows, int arrayCols, int rows, int cols, char ch)
+        {
+            if (!isSize(arrayRows, arrayCols))
+            {
+                return false;
+            }
+            for (int r = 0; r < arrayRows; r++)
+            {
+                Arrays.fill(rectangle[r], 0, r < rows ? cols : 0, ch);
+                Arrays.fill(rectangle[r], r < rows ? cols : 0, arrayCols, (char) 0);
+            }
+            return true;
+        }
+
+        boolean isSize(int arrayRows, int arrayCols)
+        {
+            return rectangle.length == arrayRows && rectangle[0].length == arrayCols;
+        }
+
+        // As Grid always has: the rows past the last are shared, not copied
+        char[][] copy(int rows, int cols)
+        {
+            char[][] temp = (char[][]) rectangle.clone();
+            for (int j = 0; j < rows; j++)
+            {
+                temp[j] = (char[]) temp[j].clone();
+            }
+            return temp;
+        }
+    }
+}
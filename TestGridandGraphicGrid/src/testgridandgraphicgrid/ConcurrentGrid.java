@@ -0,0 +1,582 @@
+package testgridandgraphicgrid;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A ConcurrentGrid is a world that many threads change at once, each driving
+ * its own Mover, with no global tick and no locks. Grid itself is not safe
+ * to share between threads; this is.
+ *
+ * Every intersection is one long in an AtomicLongArray holding whether it is
+ * blocked, has a thing, has been visited, and which mover (if any) is on it
+ * and which way that mover faces. Each change is a single compare-and-set of
+ * one of those words, retried if another thread changed the word first:
+ *
+ * move       claims the intersection ahead, then records that the mover is
+ *            there, then lets go of the one behind; a claim fails if the
+ *            intersection is blocked or already claimed, so two movers are
+ *            never on one intersection
+ * pickUp     takes the thing from under the mover, so two movers can never
+ *            both pick up one thing
+ * putDown    and block succeed only if the intersection is still free for
+ *            them when the word is changed
+ *
+ * A move changes two words, and in between the mover's id is on both
+ * intersections. moverAt and cellAt therefore don't go by the word alone:
+ * they ask the mover found there where it is. A mover is seen on the
+ * intersection ahead from the instant it records the move, and never on two
+ * at once, so every command, move included, takes effect at one instant.
+ * Each call of moverAt or cellAt reads the world at one instant too, but
+ * toString and countThings look at one intersection after another, so with
+ * other threads changing the world what they show is of no single instant.
+ *
+ * While moving, a mover holds both intersections; until it has finished, a
+ * move into either fails as if another mover were there. Threads only
+ * contend when they change the same intersection, so movers far apart run
+ * at full speed on every thread.
+ *
+ * Unlike Grid, a command that can't be carried out is not an error: it
+ * returns false and leaves the world as it was, because with other threads
+ * moving it may well work a moment later.
+ */
+public class ConcurrentGrid
+{
+    // the bits of an intersection's word
+    private final static long OCCUPANT = 0xffffffffL;   // mover id + 1, or 0
+    private final static long BLOCK = 1L << 32;
+    private final static long THING = 1L << 33;
+    private final static long VISITED = 1L << 34;
+    private final static int FACING_SHIFT = 35;
+    private final static long FACING = 3L << FACING_SHIFT;
+
+    private final static int[] ROW_STEP = {-1, 0, 1, 0};
+    private final static int[] COL_STEP = {0, 1, 0, -1};
+
+//--instance variables
+    private int rows;
+    private int cols;
+    private AtomicLongArray cells;
+    private AtomicInteger movers = new AtomicInteger();
+    private ConcurrentHashMap<Integer, Mover> placed = new ConcurrentHashMap<Integer, Mover>();
+
+    /**
+     * Construct a rows by cols world with nothing on it.
+     */
+    public ConcurrentGrid(int rows, int cols)
+    {
+        if (rows < 1 || cols < 1 || (long) rows * cols > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Can't make a " + rows + " by " + cols + " world");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        cells = new AtomicLongArray(rows * cols);
+    }
+
+    /**
+     * Construct a world with the blocks, things and path of g. The Grid's own
+     * mover is left out; its intersection keeps any thing under it. Call this
+     * while nothing else is using g.
+     */
+    public ConcurrentGrid(Grid g)
+    {
+        this(g.getRows(), g.getColumns());
+        for (int r = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++)
+            {
+                char ch = g.cellAt(r, c);
+                long word = ch == Grid.blockChar ? BLOCK
+                        : ch == Grid.thingHereChar || ch == Grid.moverOnThingChar ? THING
+                        : ch == Grid.beenThereChar ? VISITED
+                        : 0;
+                cells.set(r * cols + c, word);
+            }
+        }
+    }
+
+// -accessors
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getColumns()
+    {
+        return cols;
+    }
+
+    /**
+     * @return how many mover ids have been handed out by addMover
+     */
+    public int moversAdded()
+    {
+        return movers.get();
+    }
+
+    public boolean isBlocked(int r, int c)
+    {
+        return (word(r, c) & BLOCK) != 0;
+    }
+
+    public boolean hasThing(int r, int c)
+    {
+        return (word(r, c) & THING) != 0;
+    }
+
+    /**
+     * @return the id of the mover on (r, c), or -1 if there is none
+     */
+    public int moverAt(int r, int c)
+    {
+        return (int) (settled(index(r, c)) & OCCUPANT) - 1;
+    }
+
+    /**
+     * Count the things, by looking at every intersection. With other threads
+     * changing the world the count is of no single instant.
+     */
+    public long countThings()
+    {
+        long n = 0;
+        for (int i = 0; i < cells.length(); i++)
+        {
+            if ((cells.get(i) & THING) != 0)
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The char Grid would show at (r, c).
+     */
+    public char cellAt(int r, int c)
+    {
+        long w = settled(index(r, c));
+        if ((w & OCCUPANT) != 0)
+        {
+            return (w & THING) != 0 ? Grid.moverOnThingChar : icon((int) ((w & FACING) >>> FACING_SHIFT));
+        }
+        return (w & BLOCK) != 0 ? Grid.blockChar
+                : (w & THING) != 0 ? Grid.thingHereChar
+                : (w & VISITED) != 0 ? Grid.beenThereChar
+                : Grid.intersectionChar;
+    }
+
+    /**
+     * Show the world as Grid.toString does, one intersection at a time.
+     */
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder("The Grid:\n");
+        for (int r = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++)
+            {
+                result.append(cellAt(r, c)).append(' ');
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+// -modifiers
+    /**
+     * Put a new mover on (row, col), facing direction.
+     *
+     * @return the mover, or null if another mover is there
+     * @throws IllegalArgumentException if (row, col) is outside the world or
+     * blocked, or direction is not Grid.NORTH, EAST, SOUTH or WEST
+     */
+    public Mover addMover(int row, int col, int direction)
+    {
+        if (row < 0 || row >= rows || col < 0 || col >= cols)
+        {
+            throw new IllegalArgumentException("Can't place a mover outside the world at (" + row + ", " + col + ")");
+        }
+        if (direction < Grid.NORTH || direction > Grid.WEST)
+        {
+            throw new IllegalArgumentException("Unknown direction " + direction);
+        }
+        int id = movers.getAndIncrement();
+        if (id == Integer.MAX_VALUE - 1)
+        {
+            throw new IllegalStateException("Too many movers");
+        }
+        int cell = row * cols + col;
+        long w = cells.get(cell);
+        while (true)
+        {
+            if ((w & BLOCK) != 0)
+            {
+                throw new IllegalArgumentException("Can't place a mover on a block at (" + row + ", " + col + ")");
+            }
+            if ((w & OCCUPANT) != 0)
+            {
+                return null;
+            }
+            Mover m = new Mover(id, row, col, direction);
+            placed.put(id, m);      // before the word names it, so readers can always find it
+            long seen = cells.compareAndExchange(cell, w, w | (id + 1) | (long) direction << FACING_SHIFT);
+            if (seen == w)
+            {
+                return m;
+            }
+            placed.remove(id);
+            w = seen;
+        }
+    }
+
+    /**
+     * Block (r, c) if nothing is on it: no block, thing or mover.
+     *
+     * @return false if something was
+     */
+    public boolean block(int r, int c)
+    {
+        int cell = index(r, c);
+        long w = cells.get(cell);
+        while ((w & (BLOCK | THING | OCCUPANT)) == 0)
+        {
+            long seen = cells.compareAndExchange(cell, w, w | BLOCK);
+            if (seen == w)
+            {
+                return true;
+            }
+            w = seen;
+        }
+        return false;
+    }
+
+    /**
+     * Put a thing on (r, c), which may have a mover on it.
+     *
+     * @return false if (r, c) is blocked or has a thing already
+     */
+    public boolean putDown(int r, int c)
+    {
+        return setThing(index(r, c), true);
+    }
+
+    private long word(int r, int c)
+    {
+        return cells.get(index(r, c));
+    }
+
+    // The word of cell as it stands once any move or removal half done on it
+    // is finished or not yet begun: a mover whose id is on cell is only there
+    // if it says so
+    private long settled(int cell)
+    {
+        long w = cells.get(cell);
+        while ((w & OCCUPANT) != 0)
+        {
+            Mover m = placed.get((int) (w & OCCUPANT) - 1);
+            int at = m.at;
+            if (at == cell)
+            {
+                return w;
+            }
+            long now = cells.get(cell);
+            if (now == w)
+            {   // the mover is still on cell, arriving or leaving
+                int step = ROW_STEP[(int) ((w & FACING) >>> FACING_SHIFT)] * cols
+                        + COL_STEP[(int) ((w & FACING) >>> FACING_SHIFT)];
+                long left = w & ~(OCCUPANT | FACING);
+                return at == -1 ? left                 // being removed
+                        : at == cell - step ? left     // arriving, not yet moved
+                        : left | VISITED;              // leaving, already moved
+            }
+            w = now;
+        }
+        return w;
+    }
+
+    private int index(int r, int c)
+    {
+        if (r < 0 || r >= rows || c < 0 || c >= cols)
+        {
+            throw new IllegalArgumentException("(" + r + ", " + c + ") is outside the world");
+        }
+        return r * cols + c;
+    }
+
+    // Put a thing on cell or take it away, if there is not one or there is
+    private boolean setThing(int cell, boolean on)
+    {
+        long w = cells.get(cell);
+        while (((w & THING) != 0) != on && (w & BLOCK) == 0)
+        {
+            long seen = cells.compareAndExchange(cell, w, w ^ THING);
+            if (seen == w)
+            {
+                return true;
+            }
+            w = seen;
+        }
+        return false;
+    }
+
+    private static char icon(int facing)
+    {
+        return facing == Grid.NORTH ? Grid.moverNorth
+                : facing == Grid.EAST ? Grid.moverEast
+                : facing == Grid.SOUTH ? Grid.moverSouth
+                : Grid.moverWest;
+    }
+
+    /**
+     * One mover on a ConcurrentGrid. A Mover belongs to the thread that drives
+     * it: only that thread may call its methods, though any thread may look
+     * at the world.
+     */
+    public final class Mover
+    {
+
+        private int id;
+        private int row;
+        private int col;
+        private int facing;
+        private boolean gone;
+        private volatile int at;    // the cell this mover is on, as readers see it, or -1 once removed
+
+        private Mover(int id, int row, int col, int facing)
+        {
+            this.id = id;
+            this.row = row;
+            this.col = col;
+            this.facing = facing;
+            at = row * cols + col;
+        }
+
+        public int getId()
+        {
+            return id;
+        }
+
+        public int moverRow()
+        {
+            return row;
+        }
+
+        public int moverColumn()
+        {
+            return col;
+        }
+
+        /**
+         * @return Grid.NORTH, Grid.EAST, Grid.SOUTH, or Grid.WEST
+         */
+        public int facing()
+        {
+            return facing;
+        }
+
+        /**
+         * Find out if the intersection ahead is inside the world and not
+         * blocked, whether or not another mover is on it.
+         */
+        public boolean frontIsClear()
+        {
+            int r = row + ROW_STEP[facing];
+            int c = col + COL_STEP[facing];
+            return r >= 0 && r < rows && c >= 0 && c < cols && (cells.get(r * cols + c) & BLOCK) == 0;
+        }
+
+        /**
+         * Find out if the intersection ahead is clear and nobody is on it.
+         */
+        public boolean frontIsFree()
+        {
+            int r = row + ROW_STEP[facing];
+            int c = col + COL_STEP[facing];
+            return r >= 0 && r < rows && c >= 0 && c < cols && (cells.get(r * cols + c) & (BLOCK | OCCUPANT)) == 0;
+        }
+
+        public boolean isOnThing()
+        {
+            return (cells.get(row * cols + col) & THING) != 0;
+        }
+
+        /**
+         * Move one intersection forward.
+         *
+         * @return false if the intersection ahead is outside the world,
+         * blocked, or has a mover on it, arriving or leaving; this mover then
+         * stays where it is
+         */
+        public boolean move()
+        {
+            checkHere();
+            int r = row + ROW_STEP[facing];
+            int c = col + COL_STEP[facing];
+            if (r < 0 || r >= rows || c < 0 || c >= cols)
+            {
+                return false;
+            }
+            int ahead = r * cols + c;
+            long tag = (id + 1) | (long) facing << FACING_SHIFT;
+            long w = cells.get(ahead);
+            while (true)
+            {
+                if ((w & (BLOCK | OCCUPANT)) != 0)
+                {
+                    return false;
+                }
+                long seen = cells.compareAndExchange(ahead, w, w | tag);
+                if (seen == w)
+                {
+                    break;
+                }
+                w = seen;
+            }
+            at = ahead;     // the move takes effect here
+            leave(row * cols + col, VISITED);
+            row = r;
+            col = c;
+            return true;
+        }
+
+        public void turnLeft()
+        {
+            turn((facing + 3) & 3);
+        }
+
+        public void turnRight()
+        {
+            turn((facing + 1) & 3);
+        }
+
+        /**
+         * Put a thing down under this mover.
+         *
+         * @return false if there is one already
+         */
+        public boolean putDown()
+        {
+            checkHere();
+            return setThing(row * cols + col, true);
+        }
+
+        /**
+         * Pick up the thing under this mover.
+         *
+         * @return false if there is none, perhaps because another mover just
+         * picked it up
+         */
+        public boolean pickUp()
+        {
+            checkHere();
+            return setThing(row * cols + col, false);
+        }
+
+        /**
+         * Take this mover off the world, leaving its intersection free.
+         */
+        public void remove()
+        {
+            checkHere();
+            at = -1;
+            leave(row * cols + col, 0);
+            gone = true;
+        }
+
+        private void turn(int to)
+        {
+            checkHere();
+            int cell = row * cols + col;
+            long w = cells.get(cell);
+            while (true)
+            {   // only this mover changes its own facing, but others may put things here
+                long seen = cells.compareAndExchange(cell, w, (w & ~FACING) | (long) to << FACING_SHIFT);
+                if (seen == w)
+                {
+                    break;
+                }
+                w = seen;
+            }
+            facing = to;
+        }
+
+        // Let go of cell, marking it with mark
+        private void leave(int cell, long mark)
+        {
+            long w = cells.get(cell);
+            while (true)
+            {
+                long seen = cells.compareAndExchange(cell, w, (w & ~(OCCUPANT | FACING)) | mark);
+                if (seen == w)
+                {
+                    return;
+                }
+                w = seen;
+            }
+        }
+
+        private void checkHere()
+        {
+            if (gone)
+            {
+                throw new IllegalStateException("Mover " + id + " has been removed");
+            }
+        }
+    }
+
+    /**
+     * Measure commands per second with 1, 2, 4, ... threads up to the number
+     * of processors, each thread driving one mover round a 1024 by 1024 world
+     * that moves forward when it can and turns left when it can't, and puts
+     * down or picks up a thing every eighth step.
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int size = 1024;
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(cpus, 1); threads *= 2)
+        {
+            final ConcurrentGrid world = new ConcurrentGrid(size, size);
+            final long[] done = new long[threads * 8];   // a cache line apart
+            final long stop = System.nanoTime() + millis * 1000000;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++)
+            {
+                final Mover m = world.addMover(t * size / threads, t * 7 % size, Grid.EAST);
+                final int slot = t * 8;
+                workers[t] = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        long n = 0;
+                        while ((n & 1023) != 0 || System.nanoTime() < stop)
+                        {
+                            if (!m.move())
+                            {
+                                m.turnLeft();
+                            }
+                            if ((n & 7) == 0 && !m.putDown())
+                            {
+                                m.pickUp();
+                            }
+                            n++;
+                        }
+                        done[slot] = n;
+                    }
+                });
+                workers[t].start();
+            }
+            long total = 0;
+            for (int t = 0; t < threads; t++)
+            {
+                workers[t].join();
+                total += done[t * 8];
+            }
+            System.out.printf("%2d threads: %,.0f steps/s%n", threads, total * 1000.0 / millis);
+        }
+    }
+
+} // end class ConcurrentGrid
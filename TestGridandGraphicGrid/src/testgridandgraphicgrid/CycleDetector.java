@@ -0,0 +1,127 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+
+/**
+ * CycleDetector notices when a program keeps coming back to the same state.
+ * Give it Grid.stateHash() after every command; visit returns true once one
+ * state has been seen more than maxVisits times among the last window states.
+ *
+ * With maxVisits of 1 a program is stopped the first time it returns to any
+ * state, such as a mover that turns left forever in a fully enclosed
+ * intersection. A program that keeps its own count (turnLeft four times, say)
+ * can legitimately return to a state, so raise maxVisits for such programs.
+ *
+ * The last window hashes are kept in a ring, and how often each occurs in a
+ * primitive open-addressing table, so a visit takes constant time and
+ * allocates nothing.
+ */
+public class CycleDetector
+{
+//--instance variables
+    private long[] ring;        // the last window hashes, oldest at head once full
+    private int head;
+    private int size;
+    private long[] keys;        // a hash in the table
+    private int[] counts;       // how often keys[i] is in the ring, 0 when the slot is empty
+    private int mask;
+    private int maxVisits;
+
+    /**
+     * @param window How many of the most recent states to remember
+     * @param maxVisits How many times one state may be seen before visit
+     * reports a cycle
+     */
+    public CycleDetector(int window, int maxVisits)
+    {
+        if (window < 1 || maxVisits < 1)
+        {
+            throw new IllegalArgumentException("window and maxVisits must be >= 1");
+        }
+        this.maxVisits = maxVisits;
+        ring = new long[window];
+        int capacity = Integer.highestOneBit(window * 2 - 1) << 1;   // at most half full
+        keys = new long[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Record one more state.
+     *
+     * @param hash The state's hash, normally Grid.stateHash()
+     * @return true if this state has now been seen more than maxVisits times
+     * within the window
+     */
+    public boolean visit(long hash)
+    {
+        if (size == ring.length)
+        {
+            forget(ring[head]);
+        } else
+        {
+            size++;
+        }
+        ring[head] = hash;
+        head = (head + 1) % ring.length;
+
+        int i = home(hash);
+        while (counts[i] != 0 && keys[i] != hash)
+        {
+            i = (i + 1) & mask;
+        }
+        keys[i] = hash;
+        counts[i]++;
+        return counts[i] > maxVisits;
+    }
+
+    /**
+     * Forget every state seen so far.
+     */
+    public void clear()
+    {
+        Arrays.fill(counts, 0);
+        head = 0;
+        size = 0;
+    }
+
+    // State hashes are already well mixed, so the low bits make a good slot
+    private int home(long hash)
+    {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Drop one occurrence of hash, emptying its slot when it reaches 0
+    private void forget(long hash)
+    {
+        int i = home(hash);
+        while (keys[i] != hash || counts[i] == 0)
+        {
+            i = (i + 1) & mask;
+        }
+        if (--counts[i] > 0)
+        {
+            return;
+        }
+        // Shift later entries of the probe run back so no lookup stops early
+        int j = i;
+        while (true)
+        {
+            j = (j + 1) & mask;
+            if (counts[j] == 0)
+            {
+                break;
+            }
+            int k = home(keys[j]);
+            boolean stays = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!stays)
+            {
+                keys[i] = keys[j];
+                counts[i] = counts[j];
+                counts[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+} // end class CycleDetector
@@ -0,0 +1,143 @@
+package testgridandgraphicgrid;
+
+/**
+ * For every intersection of a Grid, how many times a mover there could move
+ * in each direction before it reached a block or an edge. Grid builds one the
+ * first time a distance is asked for and then keeps it up to date: placing or
+ * removing a block only changes the runs through that intersection, so only
+ * the cells of its row and column up to the next block are recomputed.
+ */
+final class DistanceTable
+{
+//--instance variables
+    private CellStore cells;
+    private int rows;
+    private int cols;
+    private int[][] toward = new int[4][];   // toward[direction][r * cols + c]
+
+    DistanceTable(CellStore cells, int rows, int cols)
+    {
+        this.cells = cells;
+        this.rows = rows;
+        this.cols = cols;
+        for (int d = Grid.NORTH; d <= Grid.WEST; d++)
+        {
+            toward[d] = new int[rows * cols];
+        }
+        rebuild();
+    }
+
+    /**
+     * Recompute every distance, in place, after the intersections have been
+     * replaced wholesale rather than one block at a time.
+     */
+    void rebuild()
+    {
+        for (int c = 0; c < cols; c++)
+        {
+            column(c, 0, rows - 1);
+        }
+        for (int r = 0; r < rows; r++)
+        {
+            row(r, 0, cols - 1);
+        }
+    }
+
+    /**
+     * @return how many moves from (r, c) in direction stay clear of blocks and
+     * edges
+     */
+    int distance(int r, int c, int direction)
+    {
+        return toward[direction][r * cols + c];
+    }
+
+    /**
+     * Intersection (r, c) has become blocked or stopped being blocked.
+     */
+    void blockChanged(int r, int c)
+    {
+        column(c, nextBlockUp(r, c), nextBlockDown(r, c));
+        row(r, nextBlockLeft(r, c), nextBlockRight(r, c));
+    }
+
+    // Recompute the NORTH and SOUTH runs of rows from..to of column c
+    private void column(int c, int from, int to)
+    {
+        int[] north = toward[Grid.NORTH];
+        int[] south = toward[Grid.SOUTH];
+        for (int r = from; r <= to; r++)
+        {
+            int i = r * cols + c;
+            north[i] = r == 0 || blocked(r - 1, c) ? 0 : north[i - cols] + 1;
+        }
+        for (int r = to; r >= from; r--)
+        {
+            int i = r * cols + c;
+            south[i] = r == rows - 1 || blocked(r + 1, c) ? 0 : south[i + cols] + 1;
+        }
+    }
+
+    // Recompute the WEST and EAST runs of columns from..to of row r
+    private void row(int r, int from, int to)
+    {
+        int[] west = toward[Grid.WEST];
+        int[] east = toward[Grid.EAST];
+        int base = r * cols;
+        for (int c = from; c <= to; c++)
+        {
+            west[base + c] = c == 0 || blocked(r, c - 1) ? 0 : west[base + c - 1] + 1;
+        }
+        for (int c = to; c >= from; c--)
+        {
+            east[base + c] = c == cols - 1 || blocked(r, c + 1) ? 0 : east[base + c + 1] + 1;
+        }
+    }
+
+    // The ends of the runs through (r, c): the nearest blocks (or edges) on
+    // either side, which are the last cells whose distances depend on (r, c)
+    private int nextBlockUp(int r, int c)
+    {
+        int i = r - 1;
+        while (i > 0 && !blocked(i, c))
+        {
+            i--;
+        }
+        return Math.max(i, 0);
+    }
+
+    private int nextBlockDown(int r, int c)
+    {
+        int i = r + 1;
+        while (i < rows - 1 && !blocked(i, c))
+        {
+            i++;
+        }
+        return Math.min(i, rows - 1);
+    }
+
+    private int nextBlockLeft(int r, int c)
+    {
+        int i = c - 1;
+        while (i > 0 && !blocked(r, i))
+        {
+            i--;
+        }
+        return Math.max(i, 0);
+    }
+
+    private int nextBlockRight(int r, int c)
+    {
+        int i = c + 1;
+        while (i < cols - 1 && !blocked(r, i))
+        {
+            i++;
+        }
+        return Math.min(i, cols - 1);
+    }
+
+    private boolean blocked(int r, int c)
+    {
+        return cells.get(r, c) == Grid.blockChar;
+    }
+}
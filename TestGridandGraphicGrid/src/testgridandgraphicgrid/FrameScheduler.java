@@ -0,0 +1,103 @@
+package testgridandgraphicgrid;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.Timer;
+
+/**
+ * FrameScheduler stands between a Grid and a view that draws on screen, so
+ * the view is sent at most one frame per display refresh no matter how fast
+ * the Grid is changing. A Swing Timer marks a frame as due about 60 times a
+ * second; the Grid only builds a frame for the first change after that, and
+ * every other change in between costs it one flag store. When the Grid goes
+ * quiet, the latest state is fetched on the next tick, so the last change is
+ * always shown. That fetch is only made between commands; if the Grid is
+ * part way through one, the frame is built by the Grid itself when the
+ * command is done, as the tick leaves the next frame due.
+ *
+ * With Grid.setSleepTime(0) this means the program runs as fast as the CPU
+ * allows while the window still shows 60 up-to-date frames a second.
+ */
+class FrameScheduler implements GridView
+{
+    public final static int FRAMES_PER_SECOND = 60;
+
+//--instance variables
+    private GridView target;
+    private Grid grid;
+    private Timer timer;
+    private volatile boolean due = true;    // the next change should build a frame
+    private volatile boolean dirty;         // the Grid changed since the last frame
+
+    /**
+     * @param target The view frames are passed on to
+     */
+    FrameScheduler(GridView target)
+    {
+        this.target = target;
+        timer = new Timer(1000 / FRAMES_PER_SECOND, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                tick();
+            }
+        });
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Start watching g, and stop watching whatever Grid was watched before.
+     */
+    void watch(Grid g)
+    {
+        if (grid != null)
+        {
+            grid.removeView(this);
+        }
+        grid = g;
+        due = true;
+        dirty = false;
+        grid.addView(this);
+        timer.start();
+    }
+
+    void stop()
+    {
+        timer.stop();
+        if (grid != null)
+        {
+            grid.removeView(this);
+            grid = null;
+        }
+    }
+
+    // Called by the Grid on every change
+    public boolean isReady()
+    {
+        dirty = true;
+        return due && target.isReady();
+    }
+
+    public void frameChanged(GridFrame frame)
+    {
+        due = false;
+        dirty = false;
+        target.frameChanged(frame);
+    }
+
+    // On the event dispatch thread, once per refresh
+    private void tick()
+    {
+        Grid g = grid;
+        if (g == null)
+        {
+            return;
+        }
+        if (due && dirty && target.isReady())
+        {   // changes since the last frame, but none since this frame fell due;
+            // if g is in the middle of a command, it sends the frame at the end
+            g.publishFrameTo(this);
+        }
+        due = true;
+    }
+}
@@ -0,0 +1,94 @@
+package testgridandgraphicgrid;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * How each intersection char is drawn, shared by GraphicGridPanel on screen
+ * and GridExporter in image files. Only AWT is used, so images can be made
+ * without loading Swing.
+ */
+final class Glyphs
+{
+    final static Color FOREGROUND = Color.black;
+    final static Color BACKGROUND = Color.white;
+    final static Color MOVER = Color.blue;
+    final static Color BLOCK = new Color(168, 0, 0);
+    final static Color THING = new Color(243, 218, 88);
+    final static Color MOVER_ON_THING = new Color(80, 231, 252);
+
+    // every char a Grid shows
+    final static char[] CHARS =
+    {
+        Grid.intersectionChar, Grid.beenThereChar, Grid.blockChar, Grid.thingHereChar, Grid.moverOnThingChar,
+        Grid.moverNorth, Grid.moverEast, Grid.moverSouth, Grid.moverWest
+    };
+
+    private Glyphs()
+    {
+    }
+
+    /**
+     * Draw c as a w by h glyph with its top left corner at (x, y). The
+     * Graphics should be set to FOREGROUND, and is left that way.
+     */
+    static void draw(Graphics g, int x, int y, int w, int h, char c)
+    {
+        switch (c)
+        {
+            case Grid.intersectionChar:
+                g.fillOval(x + w / 2 - 2, y + h / 2 - 2, 4, 4);
+                break;
+            case Grid.beenThereChar:
+                break;
+            case Grid.blockChar:
+                g.setColor(BLOCK);
+                g.fillRect(x, y, w, h);
+                g.setColor(FOREGROUND);
+                g.drawLine(x, y + h / 3, x + w - 1, y + h / 3);
+                g.drawLine(x, y + h * 2 / 3, x + w - 1, y + h * 2 / 3);
+                break;
+            case Grid.thingHereChar:
+                g.fillOval(x + w / 10, y + h / 10, w - 2 * w / 10, h - 2 * h / 10);
+                g.setColor(THING);
+                g.fillOval(x + w / 3, y + h / 3, w - 2 * w / 3, h - 2 * h / 3);
+                g.setColor(FOREGROUND);
+                break;
+            case Grid.moverOnThingChar:
+                int[] xpts =
+                {
+                    x + w / 2, x + w / 9, x + w / 2, x + w - 2 * w / 9
+                };
+                int[] ypts =
+                {
+                    y + h / 9, y + h / 2, y + h - 2 * h / 9, y + h / 2
+                };
+                g.setColor(MOVER_ON_THING);
+                g.fillRect(x + w / 4, y + h / 4, w - 2 * w / 4, h - 2 * h / 4);
+                g.fillPolygon(xpts, ypts, xpts.length);
+                g.setColor(FOREGROUND);
+                break;
+            case Grid.moverNorth:
+                drawMover(g, x, y, w, h, 120, 300);
+                break;
+            case Grid.moverSouth:
+                drawMover(g, x, y, w, h, 300, 300);
+                break;
+            case Grid.moverEast:
+                drawMover(g, x, y, w, h, 30, 300);
+                break;
+            case Grid.moverWest:
+                drawMover(g, x, y, w, h, 210, 300);
+                break;
+        }
+    }
+
+    private static void drawMover(Graphics g, int x, int y, int w, int h, int startAngle, int degrees)
+    {
+        g.setColor(BACKGROUND);
+        g.fillRect(x, y, w, h);
+        g.setColor(MOVER);
+        g.fillArc(x, y, w, h, startAngle, degrees);
+        g.setColor(FOREGROUND);
+    }
+}
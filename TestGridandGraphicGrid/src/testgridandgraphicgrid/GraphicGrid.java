@@ -39,18 +39,45 @@ public class GraphicGrid extends JFrame
      */
     public GraphicGrid(Grid g)
     {
-        super("Watch the actions of the grid");
+        this(g, false);
+    }
+
+    /**
+     * Open one more window on g. Unlike new GraphicGrid(g), this does not take
+     * over g's listener: the window is added as a GridView, so any number of
+     * spectator windows can watch the same Grid and all of them share one
+     * frame per change. Closing a spectator window only closes that window.
+     *
+     * @param g The Grid object to watch
+     * @return the new window
+     */
+    public static GraphicGrid spectate(Grid g)
+    {
+        return new GraphicGrid(g, true);
+    }
+
+    private GraphicGrid(Grid g, final boolean spectator)
+    {
+        super(spectator ? "Spectate the grid" : "Watch the actions of the grid");
         addWindowListener(new WindowAdapter()
         {
             public void windowClosing(WindowEvent e)
             {
-                System.exit(0);
+                if (spectator)
+                {
+                    scheduler.stop();
+                    dispose();
+                } else
+                {
+                    System.exit(0);
+                }
             }
         });
         myGrid = g;
         setSize(g.getColumns() * spotWidth + spacing, g.getRows() * spotHeight + spacing);
         myPanel = new GraphicGridPanel(g, spotWidth, spotHeight);
-        myGrid.setGridListener(this);
+        scheduler = new FrameScheduler(myPanel);
+        scheduler.watch(myGrid);
         JSlider speedBar = new JSlider(JSlider.HORIZONTAL);
         speedBar.addChangeListener(new ChangeListener()
         {
@@ -83,14 +110,18 @@ public class GraphicGrid extends JFrame
         numCols = defaultNColumns;
         myGrid = new Grid(defaultNRows, defaultNColumns, 0, 0, Grid.EAST);
         myPanel = new GraphicGridPanel(myGrid, spotWidth, spotHeight);
-        myGrid.setGridListener(this);
+        scheduler = new FrameScheduler(myPanel);
+        scheduler.watch(myGrid);
         controls = makeButtons();
+        console = new GridConsole(this);
         Dimension gridSize = myPanel.getSize();
         Dimension controlSize = controls.getSize();
-        setSize(new Dimension(Math.max(gridSize.width, controlSize.width) + 30, (gridSize.height + controlSize.height)));
+        int consoleWidth = console.getPreferredSize().width;
+        setSize(new Dimension(Math.max(gridSize.width + consoleWidth, controlSize.width) + 30, (gridSize.height + controlSize.height)));
         Container contentPane = getContentPane();
 
         contentPane.add(myPanel, "Center");
+        contentPane.add(console, "East");
         contentPane.add(controls, "South");
         this.show();
     }
@@ -105,6 +136,63 @@ public class GraphicGrid extends JFrame
         myPanel.stateChanged(rect);
     }
 
+    /**
+     * @return the Grid this window shows and its buttons command
+     */
+    Grid getGrid()
+    {
+        return myGrid;
+    }
+
+    /**
+     * Enable or disable every command button and field, so they can't send
+     * the Grid commands while GridConsole runs a script on it.
+     */
+    void setCommandsEnabled(boolean enabled)
+    {
+        setEnabled(controls, enabled);
+        if (enabled && failed)
+        {
+            gridFailed();
+        }
+    }
+
+    /**
+     * Disable the buttons and fields that send the Grid commands, leaving
+     * newGrid and its fields, after a GridConsole script has failed on it.
+     * They stay disabled until newGrid replaces the Grid.
+     */
+    void gridFailed()
+    {
+        failed = true;
+        for (JPanel row : commandRows)
+        {
+            setEnabled(row, false);
+        }
+    }
+
+    private static void setEnabled(Container c, boolean enabled)
+    {
+        for (Component child : c.getComponents())
+        {
+            child.setEnabled(enabled);
+            if (child instanceof Container)
+            {
+                setEnabled((Container) child, enabled);
+            }
+        }
+    }
+
+    /**
+     * Tell the user why a Grid on screen is about to end the program. Grid
+     * calls this instead of using Swing itself, so a Grid that is never shown
+     * never loads Swing.
+     */
+    static void showError(String message)
+    {
+        JOptionPane.showMessageDialog(null, message);
+    }
+
     private JPanel makeButtons()
     {
         JPanel gridControls = new JPanel();
@@ -116,7 +204,6 @@ public class GraphicGrid extends JFrame
         JPanel firstRow = new JPanel();
         firstRow.setOpaque(true);
         JButton newGrid = new JButton("newGrid");
-        final GraphicGrid outside = this;
         newGrid.addActionListener(new ActionListener()
         {
             public void actionPerformed(ActionEvent e)
@@ -128,8 +215,15 @@ public class GraphicGrid extends JFrame
                 {
                     myGrid = new Grid(numRows, numCols, moverRowNum, moverColNum, currentDirection);
                 }
+                myGrid.setProfiling(myPanel.isHeatmap());
                 myPanel.setGrid(myGrid);
-                myGrid.setGridListener(outside);
+                scheduler.watch(myGrid);
+                if (failed)
+                {
+                    failed = false;
+                    setCommandsEnabled(true);
+                    console.gridReplaced();
+                }
                 frontIsClearLabel.setText(String.valueOf(myGrid.frontIsClear()));
                 Dimension gridSize = myPanel.getSize();
                 Dimension controlSize = controls.getSize();
@@ -296,6 +390,18 @@ public class GraphicGrid extends JFrame
             }
         });
         fifthRow.add(showPath);
+
+        JCheckBox heatmap = new JCheckBox("heatmap");
+        heatmap.addItemListener(new ItemListener()
+        {
+            public void itemStateChanged(ItemEvent e)
+            {
+                boolean on = e.getStateChange() == ItemEvent.SELECTED;
+                myGrid.setProfiling(on);
+                myPanel.setHeatmap(on);
+            }
+        });
+        fifthRow.add(heatmap);
         gridControls.add(fifthRow);
 
         // Sixth line of objects
@@ -320,6 +426,7 @@ public class GraphicGrid extends JFrame
                         BorderFactory.createEmptyBorder(5, 5, 5, 5)));
 
         gridControls.setSize(gridControls.getPreferredSize());
+        commandRows = new JPanel[] { fourthRow, fifthRow, sixthRow };
 
         return gridControls;
     }
@@ -459,7 +566,11 @@ public class GraphicGrid extends JFrame
     protected JLabel rightIsClearLabel;
     private Grid myGrid;
     private JPanel controls;
+    private JPanel[] commandRows;       // the controls that send myGrid commands
+    private boolean failed;             // a script failed on myGrid, so commandRows stay disabled
     private GraphicGridPanel myPanel;
+    private FrameScheduler scheduler;   // paces frames from myGrid to myPanel
+    private GridConsole console;        // runs scripts on myGrid in the background
     private int defaultNRows = 7;
     private int defaultNColumns = 7;
     private int numRows;
@@ -477,138 +588,3 @@ public class GraphicGrid extends JFrame
     private static final int spotHeight = 20;
     private static final int spacing = 100;
 }
-
-class GraphicGridPanel extends JPanel
-{
-
-    private static Color foreground = Color.black;
-    private static Color background = Color.white;
-    private static Color moverColor = Color.blue;
-
-    /**
-     * Constructs the Panel that the Grid will be drawn on.
-     *
-     * @ param Grid The grid that will be drawn.
-     * @ param int spotWidth The width of each square that might hold an element
-     * in the Grid.
-     * @ param int spotHeight The height of each square in the Grid.
-     */
-    public GraphicGridPanel(Grid g, int spotWidth, int spotHeight)
-    {
-        myGrid = g;
-        setOpaque(true);
-        setBackground(background);
-        setForeground(foreground);
-        this.setFont(new Font("Serif", Font.PLAIN, 18));
-        gridColumnSize = spotWidth;
-        gridRowSize = spotHeight;
-        setSize(new Dimension(gridColumnSize * myGrid.getColumns() + 60, gridRowSize * myGrid.getRows() + 60));
-    }
-
-    public void paintComponent(Graphics g)
-    {
-        super.paintComponent(g);
-        if (myGrid != null)
-        {
-            Dimension d = getSize();
-            int x = d.width / 2 - gridColumnSize * myGrid.getColumns() / 2;
-            int y = d.height / 2 - gridRowSize * myGrid.getRows() / 2;
-            for (int r = 0; r < myGrid.getRows(); r++)
-            {
-                for (int c = 0; c < myGrid.getColumns(); c++)
-                {
-                    drawChar(g, x + c * gridColumnSize, y + r * gridRowSize, myRect[r][c]);
-                }
-            }
-        }
-    }
-
-    private void drawChar(Graphics g, int x, int y, char c)
-    {
-        switch (c)
-        {
-            case Grid.intersectionChar:
-                g.fillOval(x + gridColumnSize / 2 - 2, y + gridRowSize / 2 - 2, 4, 4);
-                break;
-            case Grid.beenThereChar:
-                break;
-            case Grid.blockChar:
-                g.setColor(new Color(168, 0, 0));
-                g.fillRect(x, y, gridColumnSize, gridRowSize);
-                g.setColor(foreground);
-                g.drawLine(x, y + gridRowSize / 3, x + gridColumnSize - 1, y + gridRowSize / 3);
-                g.drawLine(x, y + gridRowSize * 2 / 3, x + gridColumnSize - 1, y + gridRowSize * 2 / 3);
-                break;
-            case Grid.thingHereChar:
-                g.fillOval(x + gridColumnSize / 10, y + gridRowSize / 10, gridColumnSize - 2 * gridColumnSize / 10, gridRowSize - 2 * gridRowSize / 10);
-                g.setColor(new Color(243, 218, 88));
-                g.fillOval(x + gridColumnSize / 3, y + gridRowSize / 3, gridColumnSize - 2 * gridColumnSize / 3, gridRowSize - 2 * gridRowSize / 3);
-                g.setColor(foreground);
-                break;
-            case Grid.moverOnThingChar:
-                int[] xpts =
-                {
-                    x + gridColumnSize / 2, x + gridColumnSize / 9, x + gridColumnSize / 2, x + gridColumnSize - 2 * gridColumnSize / 9
-                };
-                int[] ypts =
-                {
-                    y + gridRowSize / 9, y + gridRowSize / 2, y + gridRowSize - 2 * gridRowSize / 9, y + gridRowSize / 2
-                };
-                g.setColor(new Color(80, 231, 252));
-                g.fillRect(x + gridColumnSize / 4, y + gridRowSize / 4, gridColumnSize - 2 * gridColumnSize / 4, gridRowSize - 2 * gridRowSize / 4);
-                g.fillPolygon(xpts, ypts, xpts.length);
-                g.setColor(foreground);
-                break;
-            case Grid.moverNorth:
-                drawMover(g, x, y, 120, 300);
-                break;
-            case Grid.moverSouth:
-                drawMover(g, x, y, 300, 300);
-                break;
-            case Grid.moverEast:
-                drawMover(g, x, y, 30, 300);
-                break;
-            case Grid.moverWest:
-                drawMover(g, x, y, 210, 300);
-                break;
-        }
-    }
-
-    private void drawMover(Graphics g, int x, int y, int startAngle, int degrees)
-    {
-        g.setColor(background);
-        g.fillRect(x, y, gridColumnSize, gridRowSize);
-        g.setColor(moverColor);
-        g.fillArc(x, y, gridColumnSize, gridRowSize, startAngle, degrees);
-        g.setColor(foreground);
-    }
-
-    /**
-     * Changes the Grid that this panel draws.
-     *
-     * @ param Grid The new grid to be drawn.
-     */
-    public void setGrid(Grid g)
-    {
-        myGrid = g;
-        setSize(new Dimension(gridColumnSize * myGrid.getColumns() + 60, gridRowSize * myGrid.getRows() + 60));
-    }
-
-    /**
-     * Called by the Grid object whenever its state changes.
-     *
-     * @param char[][] rect The 2D array of chars that represents the Grid
-     */
-    public void stateChanged(char[][] rect)
-    {
-        myRect = rect;
-        repaint();
-    }
-
-    private Dimension myObjectSize;
-    private int gridRowSize;
-    private int gridColumnSize;
-    private Grid myGrid;
-    private char[][] myRect;
-
-}
@@ -0,0 +1,217 @@
+package testgridandgraphicgrid;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The panel a GraphicGrid draws its Grid on, one glyph per intersection.
+ *
+ * @author Andrew Wilt
+ */
+class GraphicGridPanel extends JPanel implements GridView
+{
+
+    private static Color foreground = Glyphs.FOREGROUND;
+    private static Color background = Glyphs.BACKGROUND;
+
+    /**
+     * Constructs the Panel that the Grid will be drawn on.
+     *
+     * @ param Grid The grid that will be drawn.
+     * @ param int spotWidth The width of each square that might hold an element
+     * in the Grid.
+     * @ param int spotHeight The height of each square in the Grid.
+     */
+    public GraphicGridPanel(Grid g, int spotWidth, int spotHeight)
+    {
+        myGrid = g;
+        setOpaque(true);
+        setBackground(background);
+        setForeground(foreground);
+        this.setFont(new Font("Serif", Font.PLAIN, 18));
+        gridColumnSize = spotWidth;
+        gridRowSize = spotHeight;
+        setSize(new Dimension(gridColumnSize * myGrid.getColumns() + 60, gridRowSize * myGrid.getRows() + 60));
+    }
+
+    public void paintComponent(Graphics g)
+    {
+        super.paintComponent(g);
+        if (myGrid != null)
+        {
+            GridFrame newest = pendingFrame.getAndSet(null);
+            if (newest != null && myFrame != null && newest.isOlderThan(myFrame))
+            {   // overtaken on its way here (see frameChanged)
+                newest.release();
+                newest = null;
+            }
+            if (newest != null)
+            {
+                if (myFrame != null)
+                {
+                    myFrame.release();
+                }
+                myFrame = newest;
+                myRect = newest.cells();
+            }
+            if (myRect == null)
+            {
+                return;
+            }
+            // the frame's own size: one from a Grid that was just replaced may still arrive
+            int rows = myRect.length;
+            int cols = rows == 0 ? 0 : myRect[0].length;
+            Dimension d = getSize();
+            int x = d.width / 2 - gridColumnSize * cols / 2;
+            int y = d.height / 2 - gridRowSize * rows / 2;
+            for (int r = 0; r < rows; r++)
+            {
+                for (int c = 0; c < cols; c++)
+                {
+                    drawChar(g, x + c * gridColumnSize, y + r * gridRowSize, myRect[r][c]);
+                }
+            }
+            if (heatmap)
+            {
+                drawHeatmap(g, x, y);
+            }
+        }
+    }
+
+    // Shade each intersection by how many moves and turns were made there
+    private void drawHeatmap(Graphics g, int x, int y)
+    {
+        int[] profile = myGrid.profile();
+        if (profile == null)
+        {
+            return;
+        }
+        int cols = myGrid.getColumns();
+        int cells = Math.min(profile.length / 2, myGrid.getRows() * cols);
+        long most = 0;
+        for (int cell = 0; cell < cells; cell++)
+        {
+            most = Math.max(most, (long) profile[2 * cell] + profile[2 * cell + 1]);
+        }
+        if (most == 0)
+        {
+            return;
+        }
+        double scale = Math.log1p(most);    // a log scale, so one busy loop doesn't wash out the rest
+        for (int cell = 0; cell < cells; cell++)
+        {
+            long steps = (long) profile[2 * cell] + profile[2 * cell + 1];
+            if (steps > 0)
+            {
+                int alpha = 40 + (int) (160 * Math.log1p(steps) / scale);
+                g.setColor(new Color(255, 64, 0, alpha));
+                g.fillRect(x + (cell % cols) * gridColumnSize, y + (cell / cols) * gridRowSize, gridColumnSize, gridRowSize);
+            }
+        }
+        g.setColor(foreground);
+    }
+
+    /**
+     * Turn the heatmap overlay on or off. The counts come from the Grid's
+     * profile, so its profiling must be on too.
+     */
+    public void setHeatmap(boolean on)
+    {
+        heatmap = on;
+        repaint();
+    }
+
+    public boolean isHeatmap()
+    {
+        return heatmap;
+    }
+
+    private void drawChar(Graphics g, int x, int y, char c)
+    {
+        Glyphs.draw(g, x, y, gridColumnSize, gridRowSize, c);
+    }
+
+    /**
+     * Changes the Grid that this panel draws.
+     *
+     * @ param Grid The new grid to be drawn.
+     */
+    public void setGrid(Grid g)
+    {
+        myGrid = g;
+        myRect = null;      // the old Grid's state, until the new one sends its own
+        if (myFrame != null)
+        {
+            myFrame.release();
+            myFrame = null;
+        }
+        GridFrame stale = pendingFrame.getAndSet(null);
+        if (stale != null)
+        {
+            stale.release();
+        }
+        setSize(new Dimension(gridColumnSize * myGrid.getColumns() + 60, gridRowSize * myGrid.getRows() + 60));
+    }
+
+    /**
+     * Called by the Grid object whenever its state changes.
+     *
+     * @param char[][] rect The 2D array of chars that represents the Grid
+     */
+    public void stateChanged(char[][] rect)
+    {
+        myRect = rect;
+        repaint();
+    }
+
+    /**
+     * Ready for another frame once the last one has been picked up for
+     * painting.
+     */
+    public boolean isReady()
+    {
+        return pendingFrame.get() == null;
+    }
+
+    /**
+     * Called by the Grid with a shared frame when this panel is one of its
+     * views. The frame is painted on the event dispatch thread. Frames can
+     * arrive out of order, when a FrameScheduler's tick takes one on the
+     * event dispatch thread while the Grid's thread sends a later one, so a
+     * frame older than the one waiting, or than the one shown, is dropped.
+     */
+    public void frameChanged(GridFrame frame)
+    {
+        GridFrame newest = frame;
+        while (true)
+        {
+            newest.retain();    // one for pendingFrame; painting may take it at once
+            GridFrame other = pendingFrame.getAndSet(newest);
+            if (other == null || !newest.isOlderThan(other))
+            {
+                newest.release();
+                if (other != null)
+                {
+                    other.release();
+                }
+                break;
+            }
+            // other was later: put it back, and whatever it displaces is
+            // compared in turn
+            newest.release();
+            newest = other;
+        }
+        repaint();
+    }
+
+    private Dimension myObjectSize;
+    private int gridRowSize;
+    private int gridColumnSize;
+    private Grid myGrid;
+    private char[][] myRect;
+    private GridFrame myFrame;      // the frame being shown, when this panel is a GridView
+    private boolean heatmap;        // shade intersections by the Grid's profile
+    private AtomicReference<GridFrame> pendingFrame = new AtomicReference<GridFrame>();
+
+} // end class GraphicGridPanel
@@ -1,7 +1,8 @@
 package testgridandgraphicgrid;
 
+import java.lang.invoke.VarHandle;
 import java.util.*;
-import javax.swing.JOptionPane;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Grid class supports the understanding of using existing classes, sending
@@ -34,11 +35,17 @@ public class Grid
     final static char moverEast = '>';
     final static char moverWest = '<';
 
+    // kinds of intersection that are counted
+    final static int THINGS = 0;
+    final static int VISITED = 1;
+    final static int BLOCKS = 2;
+    final static int OTHER = 3;
+
 //--instance variables
     private Random ranNum;
     private int lastRow;       // the number of the last row
     private int lastCol;       // the number of the last column
-    private char[][] rectangle = new char[MAX_ROWS][MAX_COLUMNS];
+    private CellStore cells;   // the char of every intersection
     private int currentRow;    // The row where the mover is
     private int currentCol;    // The column where the mover is
     private char icon;         // the symbol in the currentRow, currentCol
@@ -47,8 +54,21 @@ public class Grid
     private GraphicGrid myListener; // listener object to be notified when state changes.
     private boolean turningLeft = false;
     private int sleepTime = 500;    // Default sleep time of 500 milliseconds
-
-//--Constructors (there are two)
+    private Pacer pacer;            // replaces the sleep when a program runs this Grid
+    private long cellHash;          // Zobrist-style hash of every intersection that is not '.'
+    private long[] counts = new long[4];   // intersections of each kind, indexed by kind()
+    private long[] thingBits;       // one bit per thing, each row starting a new word; built on first use
+    private int wordsPerRow;
+    private DistanceTable distances;    // built the first time a distance is asked for
+    private int[] profile;              // visits then turns of each intersection, when profiling
+    private CellListener[] cellListeners = new CellListener[0];
+    private GridView[] views = new GridView[0];   // views sharing one GridFrame per change
+    private GridView[] readyViews = views;          // reused by publishFrame
+    private GridFrame.Pool framePool;
+    private GridSnapshotter snapshotter;    // copies rows about to change while a snapshot is written
+    private final AtomicInteger commandSeq = new AtomicInteger();   // odd from a command's first store until it is done (see publishFrameTo)
+
+//--Constructors (there are four)
     /**
      * Construct a totalRows by totalCols Grid object with the mover's start
      * position and direction are fixed by the arguments.
@@ -72,6 +92,8 @@ public class Grid
         // Check the initial position of the mover is within the Grid
         lastRow = totalRows - 1;
         lastCol = totalCols - 1;
+        // Sized to fit, so simulations are not held to MAX_ROWS by MAX_COLUMNS
+        char[][] rectangle = new char[totalRows][totalCols];
         showPath = true;  // Show path when true, when it's false keep the intersection visible
         int r, c;
         for (r = 0; r <= lastRow; r++)
@@ -81,12 +103,65 @@ public class Grid
                 rectangle[r][c] = intersectionChar;
             }
         }
+        cells = new CellStore.Heap(rectangle);
+
+        currentRow = startRow;
+        currentCol = startCol;
+        facing = startDirection;
+        setIcon();
+        set(currentRow, currentCol, icon);
+        stored();       // built, so publishFrameTo may copy it
+    }
 
+    /**
+     * Construct a Grid object whose intersections are kept in store, outside
+     * the Java heap, with the mover's start position and direction fixed by
+     * the arguments as in the first constructor. The Grid has as many rows
+     * and columns as store, which must not have had a Grid on it before.
+     *
+     * @param store A new OffHeapStore
+     */
+    public Grid(OffHeapStore store, int startRow, int startCol, int startDirection)
+    {
+        if (!store.isFresh())
+        {
+            throw new IllegalArgumentException("This store already holds a Grid; use Grid(store) to carry on with it");
+        }
+        lastRow = store.getRows() - 1;
+        lastCol = store.getColumns() - 1;
+        cells = store;      // already all intersectionChar
+        showPath = true;
         currentRow = startRow;
         currentCol = startCol;
         facing = startDirection;
         setIcon();
-        rectangle[currentRow][currentCol] = icon;
+        set(currentRow, currentCol, icon);
+        store.saveState(currentRow, currentCol, facing, cellHash, counts);
+        stored();
+    }
+
+    /**
+     * Construct a Grid object that carries on with the world in store, with
+     * the mover where the last Grid on store left it.
+     *
+     * @param store An OffHeapStore, usually from OffHeapStore.open
+     */
+    public Grid(OffHeapStore store)
+    {
+        if (store.isFresh())
+        {
+            throw new IllegalArgumentException("This store is empty; give the mover's start position");
+        }
+        lastRow = store.getRows() - 1;
+        lastCol = store.getColumns() - 1;
+        cells = store;
+        showPath = true;
+        currentRow = store.savedRow();
+        currentCol = store.savedColumn();
+        facing = store.savedFacing();
+        cellHash = store.savedHash();
+        store.savedCounts(counts);
+        icon = iconFor(facing);
     }
 
     /**
@@ -113,12 +188,10 @@ public class Grid
             error(totalCols + " columns must be >= 1");
         }
 
-        // Set up a border on the edges with one escape route
-        ranNum = new Random();
-
         showPath = true;  // Show path when true, when it's false 0 keep the intersection visible
         lastRow = totalRows - 1;
         lastCol = totalCols - 1;
+        char[][] rectangle = new char[MAX_ROWS][MAX_COLUMNS];
 
         int r, c;
         for (r = 0; r <= lastRow; r++)
@@ -128,21 +201,30 @@ public class Grid
                 rectangle[r][c] = intersectionChar;
             }
         }
+        cells = new CellStore.Heap(rectangle);
+        ranNum = new Random();
+        border();
+        stored();
+    }
 
+    // Set up a border on the edges with one escape route, and put the mover
+    // somewhere inside facing a random direction, all picked by ranNum
+    private void border()
+    {
+        int r, c;
         for (c = 0; c <= lastCol; c++)
         {
-            rectangle[0][c] = blockChar;         // block first row
-            rectangle[lastRow][c] = blockChar;   // blocked last row
+            set(0, c, blockChar);         // block first row
+            set(lastRow, c, blockChar);   // blocked last row
         }
 
         for (r = 0; r <= lastRow; r++)
         {
-            rectangle[r][0] = blockChar;        // block first column
-            rectangle[r][lastCol] = blockChar;  // block last column
+            set(r, 0, blockChar);        // block first column
+            set(r, lastCol, blockChar);  // block last column
         }
 
         // Put the mover somewhere in the Grid, but NOT a border
-        ranNum = new Random();
         currentRow = Math.abs(ranNum.nextInt()) % (lastRow - 1) + 1;
         currentCol = Math.abs(ranNum.nextInt()) % (lastCol - 1) + 1;
 
@@ -163,7 +245,7 @@ public class Grid
         }
 
         setIcon();
-        rectangle[currentRow][currentCol] = icon;
+        set(currentRow, currentCol, icon);
 
         // Put one opening on any of the four edges
         if (Math.abs(ranNum.nextInt()) % 2 == 0)
@@ -205,7 +287,196 @@ public class Grid
                 c = 0;        // the other half, put on left
             }
         }
-        rectangle[r][c] = intersectionChar;
+        set(r, c, intersectionChar);
+    }
+
+//--reset
+    /**
+     * Make this Grid as it would be if it had just been constructed with
+     * Grid(totalRows, totalCols, startRow, startCol, startDirection), reusing
+     * its arrays when the size is the same. A batch that resets one Grid per
+     * world, instead of constructing a new one, allocates nothing once the
+     * size settles (see GridPool).
+     *
+     * The listener, views, cell listeners, sleep time and profiling are kept;
+     * the profile starts again from zero. Cell listeners are told about every
+     * intersection and the listener and views are sent the new state, but a
+     * reset is not a command, so the Grid does not sleep after it.
+     *
+     * @throws IllegalStateException if this Grid is kept in an OffHeapStore,
+     * or if the size changes while cell listeners are watching
+     */
+    public void reset(int totalRows, int totalCols, int startRow, int startCol, int startDirection)
+    {
+        if (totalRows < 1 || totalCols < 1)
+        {
+            throw new IllegalArgumentException("Can't reset to " + totalRows + " by " + totalCols);
+        }
+        DistanceTable table = distances;
+        long[] bits = thingBits;
+        boolean kept = clear(totalRows, totalCols, totalRows, totalCols);
+        currentRow = startRow;
+        currentCol = startCol;
+        facing = startDirection;
+        setIcon();
+        set(currentRow, currentCol, icon);
+        resetDone(kept ? table : null, kept ? bits : null);
+    }
+
+    /**
+     * Make this Grid as it would be if it had just been constructed with
+     * Grid(getRows(), getColumns()): a border with one exit and the mover
+     * inside, except that where they go is picked by seed, so the same seed
+     * always makes the same world. Otherwise as the other reset.
+     *
+     * @throws IllegalArgumentException if the Grid is larger than
+     * Grid(totalRows, totalCols) allows
+     */
+    public void reset(long seed)
+    {
+        reset(lastRow + 1, lastCol + 1, seed);
+    }
+
+    /**
+     * As reset(seed), with totalRows by totalCols intersections.
+     */
+    void reset(int totalRows, int totalCols, long seed)
+    {
+        if (totalRows < 1 || totalRows > MAX_ROWS || totalCols < 1 || totalCols > MAX_COLUMNS)
+        {
+            throw new IllegalArgumentException("Can't reset to " + totalRows + " by " + totalCols + " with a border; at most "
+                    + MAX_ROWS + " by " + MAX_COLUMNS);
+        }
+        DistanceTable table = distances;
+        long[] bits = thingBits;
+        boolean kept = clear(totalRows, totalCols, MAX_ROWS, MAX_COLUMNS);
+        if (ranNum == null)
+        {
+            ranNum = new Random(seed);
+        } else
+        {
+            ranNum.setSeed(seed);
+        }
+        border();
+        resetDone(kept ? table : null, kept ? bits : null);
+    }
+
+    // Empty every intersection of a totalRows by totalCols world kept in a
+    // char[arrayRows][arrayCols], as the constructors do, and forget
+    // everything else. Returns true if the old array was kept.
+    private boolean clear(int totalRows, int totalCols, int arrayRows, int arrayCols)
+    {
+        if (!(cells instanceof CellStore.Heap))
+        {
+            throw new IllegalStateException("A Grid kept in an OffHeapStore can't be reset");
+        }
+        boolean sameSize = totalRows == lastRow + 1 && totalCols == lastCol + 1;
+        if (!sameSize && cellListeners.length > 0)
+        {
+            throw new IllegalStateException("Can't change the size of a Grid that cell listeners are watching");
+        }
+        if (snapshotter != null)
+        {
+            snapshotter.beforeStoreAll();
+        }
+        storing();
+        boolean kept = sameSize && ((CellStore.Heap) cells).refill(arrayRows, arrayCols, totalRows, totalCols, intersectionChar);
+        if (!kept)
+        {
+            char[][] rectangle = new char[arrayRows][arrayCols];
+            for (int r = 0; r < totalRows; r++)
+            {
+                Arrays.fill(rectangle[r], 0, totalCols, intersectionChar);
+            }
+            cells = new CellStore.Heap(rectangle);
+        }
+        lastRow = totalRows - 1;
+        lastCol = totalCols - 1;
+        showPath = true;
+        turningLeft = false;
+        cellHash = 0;
+        Arrays.fill(counts, 0);
+        thingBits = null;
+        distances = null;
+        if (profile != null)
+        {
+            if (profile.length == 2L * totalRows * totalCols)
+            {
+                Arrays.fill(profile, 0);
+            } else
+            {
+                setProfiling(true);
+            }
+        }
+        return kept;
+    }
+
+    // Put back the tables a reset kept, brought up to date, and tell
+    // everyone watching
+    private void resetDone(DistanceTable table, long[] bits)
+    {
+        if (bits != null)
+        {   // a new world has no things
+            Arrays.fill(bits, 0);
+            thingBits = bits;
+        }
+        if (table != null)
+        {
+            table.rebuild();
+            distances = table;
+        }
+        for (CellListener l : cellListeners)
+        {
+            for (int r = 0; r <= lastRow; r++)
+            {
+                for (int c = 0; c <= lastCol; c++)
+                {
+                    l.cellChanged(r, c, cells.get(r, c));
+                }
+            }
+            l.commandDone();
+        }
+        stored();
+        if (myListener != null)
+        {
+            myListener.stateChanged(cloneArray());
+        }
+        publishFrame();
+    }
+
+    /**
+     * Stop telling anyone about this Grid and put back the sleep time and
+     * profiling it was constructed with, for GridPool.
+     */
+    void detach()
+    {
+        myListener = null;
+        if (views.length > 0)
+        {
+            views = new GridView[0];
+        }
+        if (cellListeners.length > 0)
+        {
+            cellListeners = new CellListener[0];
+        }
+        pacer = null;
+        sleepTime = 500;
+        profile = null;
+    }
+
+    boolean isOffHeap()
+    {
+        return !(cells instanceof CellStore.Heap);
+    }
+
+    /**
+     * Whether resetting to totalRows by totalCols would keep this Grid's
+     * arrays: with reset(seed) when bordered, else with the other reset.
+     */
+    boolean resetKeeps(int totalRows, int totalCols, boolean bordered)
+    {
+        return totalRows == lastRow + 1 && totalCols == lastCol + 1 && cells instanceof CellStore.Heap
+                && ((CellStore.Heap) cells).isSize(bordered ? MAX_ROWS : totalRows, bordered ? MAX_COLUMNS : totalCols);
     }
 
 // -accessors
@@ -251,6 +522,16 @@ public class Grid
         return lastCol + 1;
     }
 
+    /**
+     * The direction the mover is facing.
+     *
+     * @return Grid.NORTH, Grid.EAST, Grid.SOUTH, or Grid.WEST
+     */
+    public int facing()
+    {
+        return facing;
+    }
+
     /**
      * Find out if the mover could move one space forward
      *
@@ -258,12 +539,16 @@ public class Grid
      */
     public boolean frontIsClear()
     {
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.frontIsClearQueries.increment();
+        }
         if (facing == NORTH)
         {
             if (currentRow == 0)
             {
                 return false;
-            } else if (rectangle[currentRow - 1][currentCol] == blockChar)
+            } else if (cells.get(currentRow - 1, currentCol) == blockChar)
             {
                 return false;
             } else
@@ -275,7 +560,7 @@ public class Grid
             if (currentCol == lastCol)
             {
                 return false;
-            } else if (rectangle[currentRow][currentCol + 1] == blockChar)
+            } else if (cells.get(currentRow, currentCol + 1) == blockChar)
             {
                 return false;
             } else
@@ -287,7 +572,7 @@ public class Grid
             if (currentRow == lastRow)
             {
                 return false;
-            } else if (rectangle[currentRow + 1][currentCol] == blockChar)
+            } else if (cells.get(currentRow + 1, currentCol) == blockChar)
             {
                 return false;
             } else
@@ -299,7 +584,7 @@ public class Grid
             if (currentCol == 0)
             {
                 return false;
-            } else if (rectangle[currentRow][currentCol - 1] == blockChar)
+            } else if (cells.get(currentRow, currentCol - 1) == blockChar)
             {
                 return false;
             } else
@@ -309,6 +594,76 @@ public class Grid
         }
     }
 
+    /**
+     * How many times in a row the mover could move forward before it would
+     * reach a block or an edge. This is one lookup in a table that block keeps
+     * up to date, so a program can find how far it may go without moving and
+     * calling frontIsClear again and again. The first call builds the table,
+     * which takes one pass over the Grid.
+     *
+     * @return 0 when frontIsClear() is false
+     */
+    public int distanceAhead()
+    {
+        return distance(facing);
+    }
+
+    /**
+     * How far the mover could go after turning right, as in distanceAhead.
+     */
+    public int distanceRight()
+    {
+        return distance((facing + 1) % 4);
+    }
+
+    /**
+     * How far the mover could go after turning left, as in distanceAhead.
+     */
+    public int distanceLeft()
+    {
+        return distance((facing + 3) % 4);
+    }
+
+    /**
+     * How far the mover could go after turning around, as in distanceAhead.
+     */
+    public int distanceBehind()
+    {
+        return distance((facing + 2) % 4);
+    }
+
+    /**
+     * How many moves forward the nearest thing ahead of the mover is, without
+     * passing a block or an edge. This looks at each intersection up to the
+     * thing, so it takes time proportional to that distance.
+     *
+     * @return the number of moves to the thing, 0 when the mover is on one, or
+     * -1 if there is none before the next block or edge
+     */
+    public int nearestThing()
+    {
+        int limit = distanceAhead();
+        int dr = facing == NORTH ? -1 : facing == SOUTH ? 1 : 0;
+        int dc = facing == WEST ? -1 : facing == EAST ? 1 : 0;
+        for (int i = 0; i <= limit; i++)
+        {
+            if (kind(cells.get(currentRow + i * dr, currentCol + i * dc)) == THINGS)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int distance(int direction)
+    {
+        if (distances == null)
+        {
+            distances = new DistanceTable(cells, lastRow + 1, lastCol + 1);
+        }
+        return distances.distance(currentRow, currentCol, direction);
+    }
+
     /**
      * Find out if the mover could move to the right with 3 turnLeft()s and a
      * move(1)
@@ -317,33 +672,37 @@ public class Grid
      */
     public boolean rightIsClear()
     {
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.rightIsClearQueries.increment();
+        }
         boolean result = true;
 
         if (facing == Grid.WEST)
         {
             if ((currentRow == 0)
-                    || (rectangle[currentRow - 1][currentCol] == blockChar))
+                    || (cells.get(currentRow - 1, currentCol) == blockChar))
             {
                 result = false;
             }
         } else if (facing == Grid.NORTH)
         {
             if ((currentCol == lastCol)
-                    || (rectangle[currentRow][currentCol + 1] == blockChar))
+                    || (cells.get(currentRow, currentCol + 1) == blockChar))
             {
                 result = false;
             }
         } else if (facing == Grid.EAST)
         {
             if ((currentRow == lastRow)
-                    || (rectangle[currentRow + 1][currentCol] == blockChar))
+                    || (cells.get(currentRow + 1, currentCol) == blockChar))
             {
                 result = false;
             }
         } else // must be WEST
         {
             if ((currentCol == 0)
-                    || (rectangle[currentRow][currentCol - 1] == blockChar))
+                    || (cells.get(currentRow, currentCol - 1) == blockChar))
             {
                 result = false;
             }
@@ -352,6 +711,202 @@ public class Grid
         return result;
     }
 
+    /**
+     * A 64-bit hash of the complete state of this Grid object: every
+     * intersection plus the mover's row, column, direction, and whether the
+     * path is shown. It is kept up to date as each intersection changes, so
+     * this takes constant time. Two equal states always have the same hash;
+     * different states almost never do.
+     *
+     * @return the hash of the current state
+     */
+    public long stateHash()
+    {
+        long mover = ((long) currentRow << 34) ^ ((long) currentCol << 4) ^ (facing << 1) ^ (showPath ? 1 : 0);
+        return cellHash ^ mix(mover ^ 0x5DEECE66DL);
+    }
+
+    /**
+     * How many things are on this Grid, counting one the mover is on. This
+     * takes constant time: the count is kept up to date as things are put
+     * down and picked up.
+     */
+    public long countThings()
+    {
+        return counts[THINGS];
+    }
+
+    /**
+     * How many intersections show the mover's path, in constant time. The
+     * intersection the mover is on is not counted, nor is one with a thing.
+     */
+    public long countVisited()
+    {
+        return counts[VISITED];
+    }
+
+    /**
+     * How many intersections are blocked, in constant time.
+     */
+    public long countBlocks()
+    {
+        return counts[BLOCKS];
+    }
+
+    /**
+     * Call action with the row and column of every thing on this Grid, row by
+     * row. The things are kept in a bitset of 64 intersections a word, so
+     * rows with few things are skipped a word at a time. The first call
+     * builds the bitset, which takes one pass over the Grid.
+     *
+     * @param action What to do with each thing. It must not change the Grid.
+     */
+    public void forEachThing(IntIntConsumer action)
+    {
+        long[] bits = thingBits();
+        for (int r = 0; r <= lastRow; r++)
+        {
+            int base = r * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long word = bits[base + w];
+                while (word != 0)
+                {
+                    action.accept(r, (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;   // clear the lowest bit
+                }
+            }
+        }
+    }
+
+    /**
+     * Start or stop counting, for each intersection, how many times the mover
+     * moved onto it and how many times it turned there. Starting clears the
+     * counts. While counting, each move or turn costs one more int store and
+     * nothing is allocated. Use visitsAt, turnsAt and hotspots to see where a
+     * program spends its steps.
+     */
+    public void setProfiling(boolean on)
+    {
+        if (!on)
+        {
+            profile = null;
+            return;
+        }
+        long size = 2L * (lastRow + 1) * (lastCol + 1);
+        if (size > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalStateException("Can't profile a Grid of " + size / 2 + " intersections");
+        }
+        profile = new int[(int) size];
+    }
+
+    /**
+     * @return true if moves and turns are being counted
+     */
+    public boolean isProfiling()
+    {
+        return profile != null;
+    }
+
+    /**
+     * @return how many times the mover moved onto intersection (r, c) since
+     * profiling started, or 0 if it is not on
+     */
+    public int visitsAt(int r, int c)
+    {
+        return profile == null ? 0 : profile[2 * (r * (lastCol + 1) + c)];
+    }
+
+    /**
+     * @return how many times the mover turned on intersection (r, c) since
+     * profiling started, or 0 if it is not on
+     */
+    public int turnsAt(int r, int c)
+    {
+        return profile == null ? 0 : profile[2 * (r * (lastCol + 1) + c) + 1];
+    }
+
+    // The profile itself, for GraphicGridPanel's heatmap; null when not profiling
+    int[] profile()
+    {
+        return profile;
+    }
+
+    /**
+     * Report the n intersections where the mover made the most moves and
+     * turns since profiling started, busiest first, one per line, after a line
+     * with the totals. A loop that wastes steps shows up as a few
+     * intersections with a large share of the total.
+     *
+     * @param n How many intersections to list
+     */
+    public String hotspots(int n)
+    {
+        if (profile == null)
+        {
+            throw new IllegalStateException("Profiling is not on");
+        }
+        int[] top = new int[Math.max(n, 0)];   // the busiest cells so far, busiest first
+        int found = 0;
+        long moves = 0;
+        long turns = 0;
+        for (int cell = 0; cell < profile.length / 2; cell++)
+        {
+            long steps = (long) profile[2 * cell] + profile[2 * cell + 1];
+            moves += profile[2 * cell];
+            turns += profile[2 * cell + 1];
+            if (steps == 0 || top.length == 0 || (found == top.length && steps <= stepsAt(top[found - 1])))
+            {
+                continue;
+            }
+            int i = found < top.length ? found++ : found - 1;
+            for (; i > 0 && stepsAt(top[i - 1]) < steps; i--)
+            {
+                top[i] = top[i - 1];
+            }
+            top[i] = cell;
+        }
+        int cols = lastCol + 1;
+        StringBuilder result = new StringBuilder();
+        result.append(moves).append(" moves and ").append(turns).append(" turns\n");
+        for (int i = 0; i < found; i++)
+        {
+            int cell = top[i];
+            long steps = stepsAt(cell);
+            result.append("Grid(").append(cell / cols).append(", ").append(cell % cols).append(") ")
+                    .append(profile[2 * cell]).append(" moves ").append(profile[2 * cell + 1]).append(" turns ")
+                    .append(String.format("%.1f%%", 100.0 * steps / Math.max(1, moves + turns))).append('\n');
+        }
+        return result.toString();
+    }
+
+    private long stepsAt(int cell)
+    {
+        return (long) profile[2 * cell] + profile[2 * cell + 1];
+    }
+
+    private long[] thingBits()
+    {
+        if (thingBits == null)
+        {
+            wordsPerRow = (lastCol + 64) >>> 6;
+            long[] bits = new long[(lastRow + 1) * wordsPerRow];
+            for (int r = 0; r <= lastRow; r++)
+            {
+                for (int c = 0; c <= lastCol; c++)
+                {
+                    if (kind(cells.get(r, c)) == THINGS)
+                    {
+                        bits[r * wordsPerRow + (c >>> 6)] |= 1L << c;
+                    }
+                }
+            }
+            thingBits = bits;
+        }
+        return thingBits;
+    }
+
     /**
      * Show the current state of this Grid object
      */
@@ -364,7 +919,7 @@ public class Grid
         {
             for (c = 0; c <= lastCol; c++)
             {
-                result += (char) rectangle[r][c] + " ";
+                result += (char) cells.get(r, c) + " ";
             }
             result += "\n";
         }
@@ -377,6 +932,12 @@ public class Grid
      */
     public void turnLeft()
     {
+        GridCommandEvent event = null;
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.turns.increment();
+            event = GridMetrics.begin();
+        }
         if (facing == NORTH)
         {
             facing = WEST;
@@ -392,14 +953,48 @@ public class Grid
         }
 
         setIcon();
-        rectangle[currentRow][currentCol] = icon;
+        set(currentRow, currentCol, icon);
+        if (profile != null)
+        {
+            profile[2 * (currentRow * (lastCol + 1) + currentCol) + 1]++;
+        }
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.end(event, GridMetrics.TURN_LEFT, currentRow, currentCol);
+        }
         updateState();
     }
 
-    // Only called from
-    private void setIcon()
+    /**
+     * The mover will be facing 90 degrees to the right, as after three
+     * turnLeft()s but with one notification instead of three.
+     */
+    void turnRight()
     {
-        if (rectangle[currentRow][currentCol] == moverOnThingChar)
+        GridCommandEvent event = null;
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.turns.increment();
+            event = GridMetrics.begin();
+        }
+        facing = (facing + 1) % 4;
+        setIcon();
+        set(currentRow, currentCol, icon);
+        if (profile != null)
+        {
+            profile[2 * (currentRow * (lastCol + 1) + currentCol) + 1]++;
+        }
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.end(event, GridMetrics.TURN_RIGHT, currentRow, currentCol);
+        }
+        updateState();
+    }
+
+    // Only called from
+    private void setIcon()
+    {
+        if (cells.get(currentRow, currentCol) == moverOnThingChar)
         {
             if (facing == NORTH)
             {
@@ -439,12 +1034,35 @@ public class Grid
 
     /**
      * The mover will move spaces spaces forward if possible. If this is not
-     * possible, the program will be terminated with an appropriate message.
+     * possible, the mover goes as far as single moves would take it and then
+     * the program will be terminated with an appropriate message, or with a
+     * pacer set a GridException is thrown. Listeners are notified once, after
+     * the last space, and once more before a failure part of the way.
      *
      * @param spaces The number of spaces the mover should move forward.
      */
-    private void move(int spaces)
+    void move(int spaces)
     {
+        int clear = clearWithin(spaces);
+        if (clear < spaces)
+        {   // go as far as single moves would, then fail as the next one does
+            if (clear > 0)
+            {
+                move(clear);
+            }
+            if (pacer != null)
+            {   // the program carries on after the GridException, so it must
+                // come before anything has changed
+                error(blockedAhead());
+            }
+            spaces = 1;
+        }
+        GridCommandEvent event = null;
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.moves.add(spaces);
+            event = GridMetrics.begin();
+        }
         int oldRow = currentRow;
         int oldCol = currentCol;
 
@@ -463,15 +1081,15 @@ public class Grid
         }
 
         // Fix the intersection that is about to be moved away from
-        if (rectangle[oldRow][oldCol] == moverOnThingChar)
+        if (cells.get(oldRow, oldCol) == moverOnThingChar)
         {
-            rectangle[oldRow][oldCol] = thingHereChar;
-        } else if ((rectangle[oldRow][oldCol] == icon) && showPath)
+            set(oldRow, oldCol, thingHereChar);
+        } else if ((cells.get(oldRow, oldCol) == icon) && showPath)
         {
-            rectangle[oldRow][oldCol] = beenThereChar;
+            set(oldRow, oldCol, beenThereChar);
         } else
         {
-            rectangle[oldRow][oldCol] = intersectionChar;
+            set(oldRow, oldCol, intersectionChar);
         }
 
         int r, c;
@@ -481,36 +1099,38 @@ public class Grid
             {
                 if (r <= 0)
                 {
-                    if ((rectangle[r][currentCol] != thingHereChar) && showPath)
+                    if ((cells.get(r, currentCol) != thingHereChar) && showPath)
                     {
-                        rectangle[r][currentCol] = beenThereChar;
+                        set(r, currentCol, beenThereChar);
                     }
                     error("Fell off the NORTH edge");
                 }
 
                 checkForBlock(r - 1, currentCol);
 
-                if ((rectangle[r][currentCol] != thingHereChar) && showPath)
+                if ((cells.get(r, currentCol) != thingHereChar) && showPath)
                 {
-                    rectangle[r][currentCol] = beenThereChar;
+                    set(r, currentCol, beenThereChar);
                 }
             }
         } else if (facing == EAST)
         {
             for (c = oldCol; c < currentCol; c++)
             {
-                checkForBlock(currentRow, c + 1);
                 if (c >= lastCol)
                 {
-                    if ((rectangle[currentRow][c] != thingHereChar) && showPath)
+                    if ((cells.get(currentRow, c) != thingHereChar) && showPath)
                     {
-                        rectangle[currentRow][c] = beenThereChar;
+                        set(currentRow, c, beenThereChar);
                     }
                     error("Fell off the EAST edge");
                 }
-                if ((rectangle[currentRow][c] != thingHereChar) && showPath)
+
+                checkForBlock(currentRow, c + 1);
+
+                if ((cells.get(currentRow, c) != thingHereChar) && showPath)
                 {
-                    rectangle[currentRow][c] = beenThereChar;
+                    set(currentRow, c, beenThereChar);
                 }
             }
         }
@@ -518,18 +1138,20 @@ public class Grid
         {
             for (r = oldRow; r < currentRow; r++)
             {
-                checkForBlock(r + 1, currentCol);
                 if (r >= lastRow)
                 {
-                    if ((rectangle[r][currentCol] != thingHereChar) && showPath)
+                    if ((cells.get(r, currentCol) != thingHereChar) && showPath)
                     {
-                        rectangle[r][currentCol] = beenThereChar;
+                        set(r, currentCol, beenThereChar);
                     }
                     error("Fell off the SOUTH edge");
                 }
-                if ((rectangle[r][currentCol] != thingHereChar) && showPath)
+
+                checkForBlock(r + 1, currentCol);
+
+                if ((cells.get(r, currentCol) != thingHereChar) && showPath)
                 {
-                    rectangle[r][currentCol] = beenThereChar;
+                    set(r, currentCol, beenThereChar);
                 }
             }
         } else
@@ -538,30 +1160,43 @@ public class Grid
             {
                 if (c <= 0)
                 {
-                    if ((rectangle[currentRow][c] != thingHereChar) && showPath)
+                    if ((cells.get(currentRow, c) != thingHereChar) && showPath)
                     {
-                        rectangle[currentRow][c] = beenThereChar;
+                        set(currentRow, c, beenThereChar);
                     }
                     error("Fell off the WEST edge");
                 }
 
                 checkForBlock(currentRow, c - 1);
 
-                if ((rectangle[currentRow][c] != thingHereChar) && showPath)
+                if ((cells.get(currentRow, c) != thingHereChar) && showPath)
                 {
-                    rectangle[currentRow][c] = beenThereChar;
+                    set(currentRow, c, beenThereChar);
                 }
             }
         }
 
-        if (rectangle[currentRow][currentCol] == thingHereChar)
+        if (cells.get(currentRow, currentCol) == thingHereChar)
         {
-            rectangle[currentRow][currentCol] = moverOnThingChar;
+            set(currentRow, currentCol, moverOnThingChar);
         } else
         {
-            rectangle[currentRow][currentCol] = icon;
+            set(currentRow, currentCol, icon);
         }
 
+        if (profile != null && spaces > 0)
+        {   // one visit to every intersection moved onto
+            int step = (currentRow - oldRow) * (lastCol + 1) + currentCol - oldCol;
+            step /= spaces;
+            for (int i = 1, cell = oldRow * (lastCol + 1) + oldCol; i <= spaces; i++)
+            {
+                profile[2 * (cell + i * step)]++;
+            }
+        }
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.end(event, GridMetrics.MOVE, currentRow, currentCol);
+        }
         updateState();
     }
 
@@ -577,6 +1212,12 @@ public class Grid
      */
     public void block(int blockRow, int blockCol)
     {
+        GridCommandEvent event = null;
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.blocks.increment();
+            event = GridMetrics.begin();
+        }
         if (blockRow > lastRow
                 || blockRow < 0
                 || blockCol > lastCol
@@ -586,25 +1227,30 @@ public class Grid
         }
 
         // Can't block the place where the a block has been placed
-        if (rectangle[blockRow][blockCol] == blockChar)
+        if (cells.get(blockRow, blockCol) == blockChar)
         {
             error("Can't block intersection that is already blocked at (" + blockRow + ", " + blockCol + ")");
         }
 
         // Can't block the place where the a block has been placed
-        if (rectangle[blockRow][blockCol] == thingHereChar
-                || rectangle[blockRow][blockCol] == moverOnThingChar)
+        if (cells.get(blockRow, blockCol) == thingHereChar
+                || cells.get(blockRow, blockCol) == moverOnThingChar)
         {
             error("Can't block intersection with a thing put down at(" + blockRow + ", " + blockCol + ")");
         }
 
-        if (rectangle[blockRow][blockCol] == icon)
+        // any mover icon, so a Swarm mover can't be walled in under a block
+        if (isMoverIcon(cells.get(blockRow, blockCol)))
         {
             error("Can't block where the mover is at Grid(" + blockRow + ", " + blockCol + ")");
         }
 
         // Can block the specified row and column
-        rectangle[blockRow][blockCol] = blockChar;
+        set(blockRow, blockCol, blockChar);
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.end(event, GridMetrics.BLOCK, blockRow, blockCol);
+        }
         updateState();
     }
 
@@ -630,6 +1276,12 @@ public class Grid
      */
     public void putDown(int putDownRow, int putDownCol)
     {
+        GridCommandEvent event = null;
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.putDowns.increment();
+            event = GridMetrics.begin();
+        }
         if (putDownRow > lastRow
                 || putDownRow < 0
                 || putDownCol > lastCol
@@ -638,21 +1290,25 @@ public class Grid
             error("Can't block intersection at Grid(" + putDownRow + ", " + putDownCol + ")");
         }
 
-        if (rectangle[putDownRow][putDownCol] == thingHereChar
-                || rectangle[putDownRow][putDownCol] == moverOnThingChar
-                || rectangle[putDownRow][putDownCol] == blockChar)
+        if (cells.get(putDownRow, putDownCol) == thingHereChar
+                || cells.get(putDownRow, putDownCol) == moverOnThingChar
+                || cells.get(putDownRow, putDownCol) == blockChar)
         {
             error("This intersection has a thing or it has been blocked already(" + putDownRow + ", " + putDownCol + ")");
         }
 
-        if (rectangle[putDownRow][putDownCol] == icon)
+        if (cells.get(putDownRow, putDownCol) == icon)
         {
-            rectangle[putDownRow][putDownCol] = moverOnThingChar;
+            set(putDownRow, putDownCol, moverOnThingChar);
         } else
         {
-            rectangle[putDownRow][putDownCol] = thingHereChar;
+            set(putDownRow, putDownCol, thingHereChar);
         }
 
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.end(event, GridMetrics.PUT_DOWN, putDownRow, putDownCol);
+        }
         updateState();
     }
 
@@ -661,13 +1317,23 @@ public class Grid
      */
     public void pickUp()
     {
-        if (rectangle[currentRow][currentCol] != thingHereChar
-                && rectangle[currentRow][currentCol] != moverOnThingChar)
+        GridCommandEvent event = null;
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.pickUps.increment();
+            event = GridMetrics.begin();
+        }
+        if (cells.get(currentRow, currentCol) != thingHereChar
+                && cells.get(currentRow, currentCol) != moverOnThingChar)
         {
             error("Attempt to pick up when nothing is at Grid(" + currentRow + ", " + currentCol + ")");
         }
 
-        rectangle[currentRow][currentCol] = icon;
+        set(currentRow, currentCol, icon);
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.end(event, GridMetrics.PICK_UP, currentRow, currentCol);
+        }
         updateState();
     }
 
@@ -683,28 +1349,69 @@ public class Grid
 
     private void error(String message)
     {
+        stored();       // what the failed command has stored is all it will
+        if (pacer != null)
+        {   // one failed program must not end every other program in this JVM
+            throw new GridException(message);
+        }
         System.out.println("\nERROR** " + message + "\n");
-        System.out.println(this.toString());
-        JOptionPane.showMessageDialog(null, message + "\nProgram will terminate");
+        if (cells != null)
+        {   // a constructor that rejects its size fails before there is a Grid to show
+            System.out.println(this.toString());
+        }
+        if (myListener != null || views.length > 0)
+        {   // Swing is only loaded when the Grid is already on screen
+            GraphicGrid.showError(message + "\nProgram will terminate");
+        }
         System.exit(0);
     }
 
+    // How many of the next spaces intersections ahead the mover could move
+    // onto before the first block or edge
+    private int clearWithin(int spaces)
+    {
+        for (int i = 1; i <= spaces; i++)
+        {
+            int r = currentRow + i * Swarm.rowStep(facing);
+            int c = currentCol + i * Swarm.colStep(facing);
+            if (r < 0 || r > lastRow || c < 0 || c > lastCol || cells.get(r, c) == blockChar)
+            {
+                return i - 1;
+            }
+        }
+        return spaces;
+    }
+
+    // Why the mover can't move onto the intersection ahead, in the words
+    // move would use
+    private String blockedAhead()
+    {
+        int r = currentRow + Swarm.rowStep(facing);
+        int c = currentCol + Swarm.colStep(facing);
+        if (r < 0 || r > lastRow || c < 0 || c > lastCol)
+        {
+            return "Fell off the " + (facing == NORTH ? "NORTH" : facing == EAST ? "EAST"
+                    : facing == SOUTH ? "SOUTH" : "WEST") + " edge";
+        }
+        return "Attempt to move through the block at Grid(" + r + ", " + c + ")";
+    }
+
     private void checkForBlock(int r, int c)
     {
-        if (rectangle[r][c] == blockChar)
+        if (cells.get(r, c) == blockChar)
         {
             if (facing == NORTH)     // must be moving NORTH
             {
-                rectangle[r + 1][c] = icon;
+                set(r + 1, c, icon);
             } else if (facing == EAST)  // must be moving EAST
             {
-                rectangle[r][c - 1] = icon;
+                set(r, c - 1, icon);
             } else if (facing == SOUTH) // must be moving SOUTH
             {
-                rectangle[r - 1][c] = icon;
+                set(r - 1, c, icon);
             } else if (facing == WEST)  //  must be moving WEST
             {
-                rectangle[r][c + 1] = icon;
+                set(r, c + 1, icon);
             }
             error("Attempt to move through the block at Grid(" + r + ", " + c + ")");
         }
@@ -729,22 +1436,194 @@ public class Grid
 
     private void updateState()
     { // Andy Wilt
-        if (myListener == null)
+        stored();
+        cells.saveState(currentRow, currentCol, facing, cellHash, counts);
+        if (snapshotter != null)
+        {
+            snapshotter.commandDone();
+        }
+        for (CellListener l : cellListeners)
+        {
+            l.commandDone();
+        }
+        if (myListener == null && views.length == 0)
         {
+            if (pacer != null)
+            {
+                pacer.step(this);
+            }
             return;
         }
 
-        char[][] newState = cloneArray();
-        myListener.stateChanged(newState);
+        long start = 0;
+        if (GridMetrics.ENABLED)
+        {
+            start = System.nanoTime();
+        }
 
-        try
+        if (myListener != null)
         {
-            Thread.sleep(sleepTime);
-        } catch (InterruptedException e)
+            if (GridMetrics.ENABLED)
+            {
+                GridMetrics.cloneBytes.add(GridMetrics.cloneSize(lastRow + 1, lastCol + 1));
+            }
+            char[][] newState = cloneArray();
+            myListener.stateChanged(newState);
+        }
+        publishFrame();
+
+        if (GridMetrics.ENABLED)
         {
+            long notified = System.nanoTime();
+            GridMetrics.notifyNanos.record(notified - start);
+            start = notified;
+        }
+
+        if (pacer != null)
+        {   // paced by a ProgramExecutor instead of sleeping
+            pacer.step(this);
+            return;
+        }
+
+        if (sleepTime > 0)
+        {
+            try
+            {
+                Thread.sleep(sleepTime);
+            } catch (InterruptedException e)
+            {
+            }
+        }
+
+        if (GridMetrics.ENABLED)
+        {
+            GridMetrics.sleepNanos.record(System.nanoTime() - start);
         }
     }
 
+    /**
+     * Add a view that is sent a shared GridFrame after every change. Unlike
+     * setGridListener, any number of views can watch one Grid, and the state
+     * is copied once per change no matter how many there are. The view is
+     * sent the current state straight away if it is ready.
+     *
+     * @param view The view to add
+     */
+    public void addView(GridView view)
+    {
+        GridView[] more = Arrays.copyOf(views, views.length + 1);
+        more[views.length] = view;
+        views = more;
+        publishFrame();
+    }
+
+    /**
+     * Stop sending frames to view.
+     */
+    public void removeView(GridView view)
+    {
+        for (int i = 0; i < views.length; i++)
+        {
+            if (views[i] == view)
+            {
+                GridView[] fewer = new GridView[views.length - 1];
+                System.arraycopy(views, 0, fewer, 0, i);
+                System.arraycopy(views, i + 1, fewer, i, fewer.length - i);
+                views = fewer;
+                return;
+            }
+        }
+    }
+
+    // Build one frame and share it with every view that is ready; build
+    // nothing if none is
+    private void publishFrame()
+    {
+        if (readyViews.length < views.length)
+        {
+            readyViews = new GridView[views.length];
+        }
+        int n = 0;
+        for (GridView v : views)
+        {
+            if (v.isReady())
+            {
+                readyViews[n++] = v;
+            }
+        }
+        if (n == 0)
+        {
+            return;
+        }
+        GridFrame frame = framePool().take(cells, lastRow + 1, lastCol + 1);
+        for (int i = 0; i < n; i++)
+        {
+            frame.retain();
+            readyViews[i].frameChanged(frame);
+            readyViews[i] = null;
+        }
+        frame.release();
+    }
+
+    /**
+     * Send view a frame of the current state now rather than after the next
+     * change; the view is handed the only reference. This may be called on
+     * another thread while the Grid is in use, so nothing is sent if a
+     * command is part way through changing the intersections, or starts to
+     * while they are copied.
+     *
+     * @return false if no frame was sent
+     */
+    boolean publishFrameTo(GridView view)
+    {
+        int seq = commandSeq.get();
+        if ((seq & 1) != 0)
+        {
+            return false;
+        }
+        GridFrame frame = framePool().take(cells, lastRow + 1, lastCol + 1);
+        VarHandle.loadLoadFence();      // the copy is read before commandSeq is looked at again
+        if (commandSeq.get() != seq)
+        {
+            frame.release();
+            return false;
+        }
+        view.frameChanged(frame);
+        return true;
+    }
+
+    // A command is about to store into the intersections; only the first
+    // store of each command changes commandSeq. The stores of a Swarm's tick
+    // come from several WorldStepper threads at once, so it is changed with
+    // compareAndSet, which also keeps the stores from being seen before it.
+    private void storing()
+    {
+        int seq = commandSeq.get();
+        if ((seq & 1) == 0)
+        {
+            commandSeq.compareAndSet(seq, seq + 1);     // failing means another thread did it
+        }
+    }
+
+    // The command's stores are done; only called on the command's own thread
+    private void stored()
+    {
+        int seq = commandSeq.get();
+        if ((seq & 1) != 0)
+        {
+            commandSeq.set(seq + 1);
+        }
+    }
+
+    private synchronized GridFrame.Pool framePool()
+    {
+        if (framePool == null)
+        {
+            framePool = new GridFrame.Pool();
+        }
+        return framePool;
+    }
+
     /**
      * Changes the amount of time that the Grid sleeps between moves.
      *
@@ -757,12 +1636,326 @@ public class Grid
 
     private char[][] cloneArray()
     { // Andy Wilt
-        char[][] temp = (char[][]) rectangle.clone();
-        for (int j = 0; j <= lastRow; j++)
+        return cells.copy(lastRow + 1, lastCol + 1);
+    }
+
+// The following methods let other classes in this folder (such as Swarm) share the intersections
+    /**
+     * The char currently stored at intersection (r, c).
+     */
+    char cellAt(int r, int c)
+    {
+        return cells.get(r, c);
+    }
+
+    /**
+     * Store ch at intersection (r, c) without notifying the listener. Cell
+     * listeners are told.
+     */
+    void setCell(int r, int c, char ch)
+    {
+        set(r, c, ch);
+    }
+
+    /**
+     * Store ch at intersection (r, c) but leave the hash alone, so several
+     * threads can store into different intersections at once. The change to
+     * the hash is returned; XOR the changes together and pass them to xorHash
+     * once the threads are done, and likewise the counts (see countChange and
+     * addCounts). Threads must store into different rows. Cell listeners are
+     * not told; call cellsChanged from one thread afterwards.
+     */
+    long storeCell(int r, int c, char ch)
+    {
+        char old = cells.get(r, c);
+        if (snapshotter != null)
+        {
+            snapshotter.beforeStore(r);
+        }
+        storing();
+        cells.put(r, c, ch);
+        if (thingBits != null && (kind(old) == THINGS) != (kind(ch) == THINGS))
+        {   // rows never share a word, so threads on different rows can't collide
+            thingBits[r * wordsPerRow + (c >>> 6)] ^= 1L << c;
+        }
+        if (distances != null && (old == blockChar) != (ch == blockChar))
+        {   // only block and the constructors store blocks, never several threads
+            distances.blockChanged(r, c);
+        }
+        return cellKey(r, c, old) ^ cellKey(r, c, ch);
+    }
+
+    void xorHash(long delta)
+    {
+        cellHash ^= delta;
+    }
+
+    /**
+     * Replace every intersection at once, for MazeGenerator. world holds one
+     * byte per intersection, row by row: 0 for '.', 1 for a block and 2 for a
+     * thing. The mover stays where it is, so its intersection must not be
+     * blocked. Listeners are notified once, at the end, rather than once per
+     * intersection as with block.
+     */
+    void load(byte[] world)
+    {
+        int cols = lastCol + 1;
+        if (world.length != (lastRow + 1) * cols)
+        {
+            throw new IllegalArgumentException("world has " + world.length + " intersections, not " + (lastRow + 1) * cols);
+        }
+        int moverCell = currentRow * cols + currentCol;
+        if (world[moverCell] == 1)
+        {
+            throw new IllegalArgumentException("Can't block where the mover is at Grid(" + currentRow + ", " + currentCol + ")");
+        }
+        thingBits = null;   // cheaper to rebuild when next asked for than to keep up to date
+        distances = null;
+        for (int r = 0, i = 0; r <= lastRow; r++)
+        {
+            for (int c = 0; c <= lastCol; c++, i++)
+            {
+                char ch;
+                if (i == moverCell)
+                {
+                    ch = world[i] == 2 ? moverOnThingChar : icon;
+                } else
+                {
+                    ch = world[i] == 1 ? blockChar : world[i] == 2 ? thingHereChar : intersectionChar;
+                }
+                char old = cells.get(r, c);
+                if (old != ch)
+                {
+                    if (snapshotter != null)
+                    {
+                        snapshotter.beforeStore(r);
+                    }
+                    storing();
+                    cells.put(r, c, ch);
+                    cellHash ^= cellKey(r, c, old) ^ cellKey(r, c, ch);
+                    countChange(counts, old, ch);
+                    for (CellListener l : cellListeners)
+                    {
+                        l.cellChanged(r, c, ch);
+                    }
+                }
+            }
+        }
+        updateState();
+    }
+
+    /**
+     * Store ch at the first n intersections of where (each r * getColumns() +
+     * c), then notify the listeners once.
+     */
+    void setCells(int[] where, int n, char ch)
+    {
+        int cols = lastCol + 1;
+        for (int i = 0; i < n; i++)
+        {
+            set(where[i] / cols, where[i] % cols, ch);
+        }
+        updateState();
+    }
+
+    /**
+     * Count one intersection stored with storeCell going from old to ch.
+     */
+    void countChange(char old, char ch)
+    {
+        countChange(counts, old, ch);
+    }
+
+    /**
+     * Add counts that threads gathered with the static countChange.
+     */
+    void addCounts(long[] delta)
+    {
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] += delta[i];
+        }
+    }
+
+    /**
+     * Record in counts (indexed by kind) one intersection going from old to
+     * ch.
+     */
+    static void countChange(long[] counts, char old, char ch)
+    {
+        counts[kind(old)]--;
+        counts[kind(ch)]++;
+    }
+
+    static int kind(char ch)
+    {
+        if (ch == thingHereChar || ch == moverOnThingChar)
+        {
+            return THINGS;
+        } else if (ch == beenThereChar)
+        {
+            return VISITED;
+        } else if (ch == blockChar)
+        {
+            return BLOCKS;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Tell the cell listeners about intersections stored with storeCell.
+     *
+     * @param cells r * getColumns() + c of each changed intersection
+     * @param n How many entries of cells to report
+     */
+    void cellsChanged(int[] cells, int n)
+    {
+        int cols = lastCol + 1;
+        for (CellListener l : cellListeners)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                int r = cells[i] / cols;
+                int c = cells[i] % cols;
+                l.cellChanged(r, c, this.cells.get(r, c));
+            }
+        }
+    }
+
+    boolean hasCellListeners()
+    {
+        return cellListeners.length > 0;
+    }
+
+    /**
+     * Have l told about every intersection that changes from now on, as it
+     * changes, on the thread that changed it. Call this while nothing else is
+     * using the Grid.
+     */
+    void addCellListener(CellListener l)
+    {
+        CellListener[] more = Arrays.copyOf(cellListeners, cellListeners.length + 1);
+        more[cellListeners.length] = l;
+        cellListeners = more;
+    }
+
+    void removeCellListener(CellListener l)
+    {
+        for (int i = 0; i < cellListeners.length; i++)
+        {
+            if (cellListeners[i] == l)
+            {
+                CellListener[] fewer = new CellListener[cellListeners.length - 1];
+                System.arraycopy(cellListeners, 0, fewer, 0, i);
+                System.arraycopy(cellListeners, i + 1, fewer, i, fewer.length - i);
+                cellListeners = fewer;
+                return;
+            }
+        }
+    }
+
+    // Every change to an intersection after construction goes through here
+    private void set(int r, int c, char ch)
+    {
+        char old = cells.get(r, c);
+        cellHash ^= storeCell(r, c, ch);
+        countChange(counts, old, ch);
+        for (CellListener l : cellListeners)
+        {
+            l.cellChanged(r, c, ch);
+        }
+    }
+
+    // The random-looking key of ch at (r, c); an empty intersection has key 0
+    // so a freshly filled Grid hashes to 0 without visiting every intersection
+    private static long cellKey(int r, int c, char ch)
+    {
+        if (ch == intersectionChar || ch == 0)
+        {
+            return 0;
+        }
+        return mix(((long) r << 40) ^ ((long) c << 16) ^ ch);
+    }
+
+    // The SplitMix64 finaliser: spreads every input bit over the whole result
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Let pacer count and pace every command instead of sleeping, and report
+     * errors as a GridException instead of terminating. A command that throws
+     * leaves the Grid as it was, so the program may carry on. Send null to go
+     * back to sleeping.
+     */
+    void setPacer(Pacer p)
+    {
+        pacer = p;
+    }
+
+    Pacer getPacer()
+    {
+        return pacer;
+    }
+
+    boolean isShowingPath()
+    {
+        return showPath;
+    }
+
+    /**
+     * Let s see each row before it changes, and the end of each command; null
+     * to stop.
+     */
+    void setSnapshotter(GridSnapshotter s)
+    {
+        snapshotter = s;
+    }
+
+    // Where the intersections are kept, for GridSnapshotter
+    CellStore cells()
+    {
+        return cells;
+    }
+
+    /**
+     * Notify the listener once after a batch of setCell calls.
+     */
+    void stateChanged()
+    {
+        updateState();
+    }
+
+    /**
+     * Whether ch is the mover facing any direction.
+     */
+    static boolean isMoverIcon(char ch)
+    {
+        return ch == moverNorth || ch == moverEast || ch == moverSouth || ch == moverWest;
+    }
+
+    /**
+     * The mover icon for a direction (Grid.NORTH, Grid.EAST, Grid.SOUTH, or
+     * Grid.WEST).
+     */
+    static char iconFor(int direction)
+    {
+        if (direction == NORTH)
+        {
+            return moverNorth;
+        } else if (direction == EAST)
+        {
+            return moverEast;
+        } else if (direction == SOUTH)
+        {
+            return moverSouth;
+        } else // must be west
         {
-            temp[j] = (char[]) temp[j].clone();
+            return moverWest;
         }
-        return temp;
     }
 
 } // end class Grid
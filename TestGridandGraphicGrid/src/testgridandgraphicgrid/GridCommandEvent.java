@@ -0,0 +1,29 @@
+package testgridandgraphicgrid;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for one Grid command (move, turnLeft, block,
+ * putDown, or pickUp). The duration covers the command's own work; the
+ * listener notification and the sleep that follow are in GridMetrics.
+ */
+@Name("testgridandgraphicgrid.GridCommand")
+@Label("Grid Command")
+@Category("Grid")
+@Description("One command sent to a Grid object")
+class GridCommandEvent extends Event
+{
+
+    @Label("Command")
+    String command;
+
+    @Label("Row")
+    int row;
+
+    @Label("Column")
+    int column;
+}
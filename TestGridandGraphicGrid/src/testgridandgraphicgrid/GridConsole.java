@@ -0,0 +1,179 @@
+package testgridandgraphicgrid;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+/**
+ * A console in the GraphicGrid window for running a whole script of commands
+ * at once, such as
+ *
+ * move 50; turnLeft; repeat 10 { move; putDown }
+ *
+ * in the language of MoverProgram. The script runs on a ProgramExecutor
+ * thread as fast as it can, so the window stays responsive and the Grid's
+ * sleep is skipped; the window's FrameScheduler still shows up to 60 frames
+ * a second of it. While it runs the console shows how many commands have
+ * been sent, and Cancel stops it at the next command. The window's own
+ * command buttons are disabled until the script is over, and after a script
+ * has failed they and Run stay disabled until newGrid replaces the Grid.
+ */
+class GridConsole extends JPanel
+{
+    private final static long serialVersionUID = 1L;
+    private final static int POLL_MILLIS = 100;
+
+//--instance variables
+    private GraphicGrid owner;
+    private ProgramExecutor executor;
+    private JTextArea script = new JTextArea(6, 24);
+    private JButton run = new JButton("run");
+    private JButton cancel = new JButton("cancel");
+    private JProgressBar progress = new JProgressBar();
+    private JLabel status = new JLabel(" ");
+    private Timer poll;
+    private Future<ProgramExecutor.Result> running;
+    private Grid runningOn;
+
+    GridConsole(GraphicGrid owner)
+    {
+        super(new BorderLayout(5, 5));
+        this.owner = owner;
+        // no budget worth the name: a script runs until it ends or is cancelled
+        executor = new ProgramExecutor(Long.MAX_VALUE, TimeUnit.DAYS.toMillis(365), 0);
+        script.setText("move 2; turnLeft; repeat 2 { move; putDown }");
+        add(new JScrollPane(script), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel();
+        run.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                start();
+            }
+        });
+        buttons.add(run);
+        cancel.setEnabled(false);
+        cancel.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                if (running != null)
+                {
+                    running.cancel(true);
+                }
+            }
+        });
+        buttons.add(cancel);
+
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(buttons, BorderLayout.NORTH);
+        progress.setStringPainted(true);
+        progress.setString("");
+        south.add(progress, BorderLayout.CENTER);
+        south.add(status, BorderLayout.SOUTH);
+        add(south, BorderLayout.SOUTH);
+        setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createTitledBorder("Script"),
+                BorderFactory.createEmptyBorder(5, 5, 5, 5)));
+        setPreferredSize(new Dimension(260, 200));
+
+        poll = new Timer(POLL_MILLIS, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                update();
+            }
+        });
+    }
+
+    // Compile the script and start it on the window's Grid
+    private void start()
+    {
+        MoverProgram program;
+        try
+        {
+            program = MoverProgram.compile(script.getText());
+        } catch (IllegalArgumentException e)
+        {
+            status.setText(e.getMessage());
+            return;
+        }
+        runningOn = owner.getGrid();
+        running = executor.submit(runningOn, program);
+        owner.setCommandsEnabled(false);
+        run.setEnabled(false);
+        cancel.setEnabled(true);
+        progress.setIndeterminate(true);
+        status.setText("running");
+        poll.start();
+    }
+
+    // On the event dispatch thread, every POLL_MILLIS while a script runs
+    private void update()
+    {
+        long steps = executor.stepsSoFar(runningOn);
+        if (steps >= 0)
+        {
+            progress.setString(steps + " commands");
+        }
+        if (!running.isDone() || steps >= 0)
+        {   // a cancelled Future is done at once, but the program only stops
+            // at its next command
+            return;
+        }
+        poll.stop();
+        String outcome;
+        boolean failed = false;
+        try
+        {
+            ProgramExecutor.Result result = running.get();
+            outcome = result.toString();
+            failed = result.getOutcome() == ProgramExecutor.Outcome.FAILED;
+            progress.setString(result.getSteps() + " commands");
+        } catch (CancellationException e)
+        {
+            outcome = "CANCELLED";
+        } catch (InterruptedException | ExecutionException e)
+        {
+            outcome = e.toString();
+            failed = true;
+        }
+        status.setText(outcome);
+        progress.setIndeterminate(false);
+        running = null;
+        runningOn = null;
+        cancel.setEnabled(false);
+        owner.setCommandsEnabled(true);
+        if (failed)
+        {   // the Grid refused a command; nothing more is sent to it
+            owner.gridFailed();
+        } else
+        {
+            run.setEnabled(true);
+        }
+    }
+
+    /**
+     * Let scripts run again, now that newGrid has replaced a Grid a script
+     * failed on.
+     */
+    void gridReplaced()
+    {
+        run.setEnabled(true);
+    }
+
+} // end class GridConsole
@@ -0,0 +1,464 @@
+package testgridandgraphicgrid;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * GridEnv runs many Grid worlds side by side as one batch for reinforcement
+ * learning. Each world is a bordered Grid as made by Grid(rows, cols), with
+ * things scattered inside; an episode ends when the mover reaches the exit
+ * in the border, or after the step limit.
+ *
+ * step takes one action per world and advances them all at once. What each
+ * world looks like afterwards is written into arrays that are allocated once
+ * and reused on every step, one slice per world:
+ *
+ * windows()      the (2 * radius + 1) squared intersections around the mover,
+ *                turned so the first row is the one farthest ahead and the
+ *                mover is in the middle; each is EMPTY, VISITED, BLOCK, THING
+ *                or OUTSIDE (past the edge)
+ * positions()    the mover's row and column
+ * facings()      Grid.NORTH, EAST, SOUTH or WEST
+ * thingCounts()  how many things are left in the world
+ * rewards()      the reward for the last action
+ * dones()        whether the last action ended the episode
+ *
+ * A world whose episode ends starts a new one straight away, so its
+ * observation is already of the new world while its reward and done still
+ * belong to the last step of the old one.
+ *
+ * An action that is not possible, such as moving into a block or picking up
+ * where there is nothing, is never an error: the mover stays as it is and the
+ * action earns the invalid reward. No exception is thrown or caught while
+ * stepping, and once constructed nothing is allocated. The Grid's own rules
+ * still apply, so turning while on a thing loses the thing.
+ */
+public class GridEnv
+{
+    // actions, as in Swarm, plus turning right
+    public final static int STAY = Swarm.STAY;
+    public final static int MOVE = Swarm.MOVE;
+    public final static int TURN_LEFT = Swarm.TURN_LEFT;
+    public final static int PUT_DOWN = Swarm.PUT_DOWN;
+    public final static int PICK_UP = Swarm.PICK_UP;
+    public final static int TURN_RIGHT = 5;
+    public final static int ACTIONS = 6;
+
+    // what an intersection of a window holds
+    public final static byte EMPTY = 0;
+    public final static byte VISITED = 1;
+    public final static byte BLOCK = 2;
+    public final static byte THING = 3;
+    public final static byte OUTSIDE = 4;
+
+    public final static int DEFAULT_MAX_STEPS = 500;
+
+    private final static int CHUNK = 256;   // worlds stepped by one task
+    // forward and right of each facing, as row and column steps
+    private final static int[] FORWARD_ROW = {-1, 0, 1, 0};
+    private final static int[] FORWARD_COL = {0, 1, 0, -1};
+
+//--instance variables
+    private int envs;
+    private int rows;
+    private int cols;
+    private int things;
+    private int radius;
+    private int side;           // 2 * radius + 1
+    private int maxSteps = DEFAULT_MAX_STEPS;
+    private float exitReward = 1;
+    private float thingReward = 0.1f;
+    private float stepReward = -0.01f;
+    private float invalidReward = -0.1f;
+    private ForkJoinPool pool;  // null steps every world on the calling thread
+    private Grid[] grids;
+    private SplittableRandom[] randoms;  // one per world, so worlds don't depend on threads
+    private int[] episodeSteps;
+    private byte[] windows;
+    private int[] positions;
+    private byte[] facings;
+    private int[] thingCounts;
+    private float[] rewards;
+    private boolean[] dones;
+    private int[] actions;      // while stepping
+
+    /**
+     * Construct envs worlds and start an episode in each.
+     *
+     * @param envs How many worlds
+     * @param rows The rows of each world, 3 to Grid.MAX_ROWS
+     * @param cols The columns of each world, 3 to Grid.MAX_COLUMNS
+     * @param things How many things to scatter in each new world
+     * @param radius How far the window reaches from the mover each way
+     * @param seed The same seed always gives the same worlds
+     * @param pool The pool that steps the worlds, or null to step them all on
+     * the calling thread
+     */
+    public GridEnv(int envs, int rows, int cols, int things, int radius, long seed, ForkJoinPool pool)
+    {
+        if (envs < 1 || rows < 3 || rows > Grid.MAX_ROWS || cols < 3 || cols > Grid.MAX_COLUMNS
+                || things < 0 || things > (rows - 2) * (cols - 2) - 1 || radius < 0 || radius > 64)
+        {
+            throw new IllegalArgumentException("Can't make " + envs + " worlds of " + rows + " by " + cols
+                    + " with " + things + " things and windows of radius " + radius);
+        }
+        this.envs = envs;
+        this.rows = rows;
+        this.cols = cols;
+        this.things = things;
+        this.radius = radius;
+        this.pool = pool;
+        side = 2 * radius + 1;
+        if ((long) envs * side * side > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(envs + " windows of radius " + radius + " don't fit in an array");
+        }
+        grids = new Grid[envs];
+        randoms = new SplittableRandom[envs];
+        episodeSteps = new int[envs];
+        windows = new byte[envs * side * side];
+        positions = new int[2 * envs];
+        facings = new byte[envs];
+        thingCounts = new int[envs];
+        rewards = new float[envs];
+        dones = new boolean[envs];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < envs; i++)
+        {
+            randoms[i] = random.split();
+            grids[i] = new Grid(1, 1, 0, 0, Grid.NORTH);   // newEpisode makes it the right world
+        }
+        reset();
+    }
+
+    /**
+     * Start a new episode in every world.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < envs; i++)
+        {
+            newEpisode(i);
+            observe(i);
+            rewards[i] = 0;
+            dones[i] = false;
+        }
+    }
+
+    /**
+     * Advance every world by one action and fill in the arrays.
+     *
+     * @param actions One of STAY, MOVE, TURN_LEFT, TURN_RIGHT, PUT_DOWN or
+     * PICK_UP for each world
+     * @throws IllegalArgumentException if there is not one valid action per
+     * world; then no world is changed
+     */
+    public void step(int[] actions)
+    {
+        if (actions.length != envs)
+        {
+            throw new IllegalArgumentException(actions.length + " actions for " + envs + " worlds");
+        }
+        for (int i = 0; i < envs; i++)
+        {
+            if (actions[i] < 0 || actions[i] >= ACTIONS)
+            {
+                throw new IllegalArgumentException("No action " + actions[i] + " for world " + i);
+            }
+        }
+        this.actions = actions;
+        if (pool == null || envs <= CHUNK)
+        {
+            stepRange(0, envs);
+        } else
+        {
+            pool.invoke(new StepTask(0, envs));
+        }
+        this.actions = null;
+    }
+
+    /**
+     * Set the rewards: reaching the exit, picking up a thing (putting one
+     * down costs as much, so there is nothing to gain by doing both), every
+     * step, and an action that was not possible, on top of the step reward.
+     */
+    public void setRewards(float exit, float thing, float step, float invalid)
+    {
+        exitReward = exit;
+        thingReward = thing;
+        stepReward = step;
+        invalidReward = invalid;
+    }
+
+    /**
+     * @param steps How many steps an episode may last before it is ended
+     */
+    public void setMaxSteps(int steps)
+    {
+        if (steps < 1)
+        {
+            throw new IllegalArgumentException("Episodes must last at least one step, not " + steps);
+        }
+        maxSteps = steps;
+    }
+
+    public int size()
+    {
+        return envs;
+    }
+
+    /**
+     * @return how many bytes of windows() belong to each world
+     */
+    public int windowSize()
+    {
+        return side * side;
+    }
+
+    public byte[] windows()
+    {
+        return windows;
+    }
+
+    /**
+     * @return the row then the column of each world's mover
+     */
+    public int[] positions()
+    {
+        return positions;
+    }
+
+    public byte[] facings()
+    {
+        return facings;
+    }
+
+    public int[] thingCounts()
+    {
+        return thingCounts;
+    }
+
+    public float[] rewards()
+    {
+        return rewards;
+    }
+
+    public boolean[] dones()
+    {
+        return dones;
+    }
+
+    /**
+     * The Grid of world i, to look at; changing it changes the world.
+     */
+    public Grid getGrid(int i)
+    {
+        return grids[i];
+    }
+
+    private void stepRange(int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            stepOne(i, actions[i]);
+        }
+    }
+
+    private void stepOne(int i, int action)
+    {
+        Grid g = grids[i];
+        float reward = stepReward;
+        boolean done = false;
+        boolean onThing = g.cellAt(g.moverRow(), g.moverColumn()) == Grid.moverOnThingChar;
+        switch (action)
+        {
+            case MOVE:
+                if (g.frontIsClear())
+                {
+                    g.move();
+                    int r = g.moverRow();
+                    int c = g.moverColumn();
+                    if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1)
+                    {   // only the exit is open in the border
+                        reward += exitReward;
+                        done = true;
+                    }
+                } else
+                {
+                    reward += invalidReward;
+                }
+                break;
+            case TURN_LEFT:
+                g.turnLeft();
+                break;
+            case TURN_RIGHT:
+                g.turnRight();
+                break;
+            case PUT_DOWN:
+                if (onThing)
+                {
+                    reward += invalidReward;
+                } else
+                {
+                    g.putDown();
+                    reward -= thingReward;
+                }
+                break;
+            case PICK_UP:
+                if (onThing)
+                {
+                    g.pickUp();
+                    reward += thingReward;
+                } else
+                {
+                    reward += invalidReward;
+                }
+                break;
+            default:    // STAY
+                break;
+        }
+        if (++episodeSteps[i] >= maxSteps)
+        {
+            done = true;
+        }
+        if (done)
+        {
+            newEpisode(i);
+        }
+        rewards[i] = reward;
+        dones[i] = done;
+        observe(i);
+    }
+
+    // Make world i a new world with things scattered in it
+    private void newEpisode(int i)
+    {
+        Grid g = grids[i];
+        SplittableRandom random = randoms[i];
+        g.reset(rows, cols, random.nextLong());
+        int placed = 0;
+        for (int tries = 0; placed < things && tries < 16 * rows * cols; tries++)
+        {
+            int r = 1 + random.nextInt(rows - 2);
+            int c = 1 + random.nextInt(cols - 2);
+            if (g.cellAt(r, c) == Grid.intersectionChar)
+            {
+                g.putDown(r, c);
+                placed++;
+            }
+        }
+        episodeSteps[i] = 0;
+    }
+
+    // Fill in what world i looks like now
+    private void observe(int i)
+    {
+        Grid g = grids[i];
+        int row = g.moverRow();
+        int col = g.moverColumn();
+        int f = g.facing();
+        positions[2 * i] = row;
+        positions[2 * i + 1] = col;
+        facings[i] = (byte) f;
+        thingCounts[i] = (int) g.countThings();
+        int fr = FORWARD_ROW[f];
+        int fc = FORWARD_COL[f];
+        int rr = fc;    // right is forward turned clockwise
+        int rc = -fr;
+        int at = i * side * side;
+        for (int a = radius; a >= -radius; a--)    // a ahead, farthest first
+        {
+            for (int b = -radius; b <= radius; b++, at++)   // b to the right
+            {
+                int r = row + a * fr + b * rr;
+                int c = col + a * fc + b * rc;
+                byte code;
+                if (r < 0 || c < 0 || r >= rows || c >= cols)
+                {
+                    code = OUTSIDE;
+                } else
+                {
+                    char ch = g.cellAt(r, c);
+                    code = ch == Grid.blockChar ? BLOCK
+                            : ch == Grid.thingHereChar || ch == Grid.moverOnThingChar ? THING
+                            : ch == Grid.beenThereChar ? VISITED
+                            : EMPTY;
+                }
+                windows[at] = code;
+            }
+        }
+    }
+
+    // Splits a range of worlds in half until it is at most CHUNK long
+    private class StepTask extends RecursiveAction
+    {
+        private final static long serialVersionUID = 1L;
+
+        private int from;
+        private int to;
+
+        StepTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute()
+        {
+            if (to - from <= CHUNK)
+            {
+                stepRange(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new StepTask(from, middle), new StepTask(middle, to));
+        }
+    }
+
+    /**
+     * Measure env-steps per second with random actions on 1, 2, 4, ... worker
+     * threads up to the number of processors.
+     */
+    public static void main(String[] args)
+    {
+        int envs = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        SplittableRandom random = new SplittableRandom(42);
+        int[][] actions = new int[64][envs];
+        for (int[] batch : actions)
+        {
+            for (int i = 0; i < envs; i++)
+            {
+                batch[i] = random.nextInt(ACTIONS);
+            }
+        }
+        for (int threads = 1; threads <= cpus; threads *= 2)
+        {
+            ForkJoinPool pool = threads == 1 ? null : new ForkJoinPool(threads);
+            GridEnv env = new GridEnv(envs, 12, 16, 10, 3, 42, pool);
+            for (int i = 0; i < steps / 10; i++)
+            {
+                env.step(actions[i & 63]);   // warm up
+            }
+            long start = System.nanoTime();
+            long episodes = 0;
+            for (int i = 0; i < steps; i++)
+            {
+                env.step(actions[i & 63]);
+                for (boolean done : env.dones())
+                {
+                    episodes += done ? 1 : 0;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%2d threads: %,.0f env-steps/s, %,d episodes%n", threads, (double) envs * steps / seconds, episodes);
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+} // end class GridEnv
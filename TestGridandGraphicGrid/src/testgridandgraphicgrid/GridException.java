@@ -0,0 +1,16 @@
+package testgridandgraphicgrid;
+
+/**
+ * Thrown by a Grid instead of terminating the program when the Grid is run by
+ * a ProgramExecutor, for example when the mover is asked to move into a block
+ * or pick up a thing that is not there.
+ */
+public class GridException extends RuntimeException
+{
+    private final static long serialVersionUID = 1L;
+
+    public GridException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,873 @@
+package testgridandgraphicgrid;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * GridExporter draws a Grid into image files without a window, using the same
+ * glyphs as the GraphicGrid window: a PNG of the Grid as it is now, or an
+ * animated GIF or APNG of a run recorded with GridRecorder.
+ *
+ * Each glyph is drawn once per cell size into a small sprite of palette
+ * indexes, and every image is built from copies of the sprites, one row of
+ * intersections at a time, straight into the encoder. No image of the whole
+ * Grid is ever held in memory, so a 10000 by 10000 Grid can be written as
+ * easily as a small one. An animation only stores, for each frame, the part
+ * of the picture that changed since the last one; the frames are encoded on
+ * all processors at once and written in order.
+ *
+ * Nothing here sleeps: a 100000 step run is exported in about as long as it
+ * takes to encode it.
+ */
+public final class GridExporter
+{
+    private final static int CHUNK_SIZE = 64 * 1024;    // largest IDAT chunk written
+    private final static int MAX_GIF_SIZE = 65535;      // in pixels, either way
+    private final static byte[] PNG_SIGNATURE =
+    {
+        (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'
+    };
+
+    // the glyph index of each char a Grid may hold; anything else is drawn blank
+    private final static byte[] GLYPH_OF = new byte[128];
+
+    static
+    {
+        byte blank = 0;
+        for (int i = 0; i < Glyphs.CHARS.length; i++)
+        {
+            GLYPH_OF[Glyphs.CHARS[i]] = (byte) i;
+            if (Glyphs.CHARS[i] == Grid.beenThereChar)
+            {
+                blank = (byte) i;
+            }
+        }
+        for (int i = 0; i < GLYPH_OF.length; i++)
+        {
+            if (GLYPH_OF[i] == 0 && i != Glyphs.CHARS[0])
+            {
+                GLYPH_OF[i] = blank;
+            }
+        }
+    }
+
+    private final static ConcurrentHashMap<Integer, Sprites> SPRITES = new ConcurrentHashMap<Integer, Sprites>();
+
+    private GridExporter()
+    {
+    }
+
+    /**
+     * Write g as it is now to out as a PNG with an 8 bit palette. Call this
+     * while nothing else is changing g.
+     *
+     * @param cellSize The width and height in pixels of each intersection
+     */
+    public static void writePng(final Grid g, int cellSize, OutputStream out) throws IOException
+    {
+        Sprites s = sprites(cellSize);
+        final int cols = g.getColumns();
+        CellRows rows = new CellRows()
+        {
+            public void row(int r, byte[] into)
+            {
+                for (int c = 0; c < cols; c++)
+                {
+                    into[c] = glyph(g.cellAt(r, c));
+                }
+            }
+        };
+        int width = pixels(cols, cellSize);
+        int height = pixels(g.getRows(), cellSize);
+        writePngHeader(out, s, width, height, 0);
+        writeImageData(s, rows, cols, g.getRows(), new ChunkStream(out));
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    /**
+     * Write the run recorded by rec to out as an animated GIF that loops
+     * forever. The first frame is the Grid before the first step, and each
+     * later one shows stepsPerFrame more steps. Call rec.stop() first.
+     *
+     * @param cellSize The width and height in pixels of each intersection
+     * @param stepsPerFrame How many steps each frame moves on
+     * @param frameMillis How long each frame is shown, rounded to hundredths
+     * of a second
+     * @throws IllegalArgumentException if the image would be wider or taller
+     * than the 65535 pixels a GIF can be
+     */
+    public static void writeGif(GridRecorder rec, int cellSize, int stepsPerFrame, int frameMillis, OutputStream out) throws IOException
+    {
+        checkFrames(stepsPerFrame, frameMillis);
+        Sprites s = sprites(cellSize);
+        int width = pixels(rec.getColumns(), cellSize);
+        int height = pixels(rec.getRows(), cellSize);
+        if (width > MAX_GIF_SIZE || height > MAX_GIF_SIZE)
+        {
+            throw new IllegalArgumentException("A GIF can't be " + width + " by " + height + " pixels; use a PNG or a smaller cell size");
+        }
+        int tableBits = 1;
+        while (1 << tableBits < s.palette.length)
+        {
+            tableBits++;
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(new byte[]
+        {
+            'G', 'I', 'F', '8', '9', 'a'
+        });
+        writeShort(header, width);
+        writeShort(header, height);
+        header.write(0x80 | 0x70 | (tableBits - 1));  // a global color table, 8 bits a color
+        header.write(0);
+        header.write(0);
+        for (int i = 0; i < 1 << tableBits; i++)
+        {
+            int rgb = i < s.palette.length ? s.palette[i] : 0;
+            header.write(rgb >> 16);
+            header.write(rgb >> 8);
+            header.write(rgb);
+        }
+        header.write(new byte[]
+        {   // loop forever
+            0x21, (byte) 0xff, 11, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 3, 1, 0, 0, 0
+        });
+        header.writeTo(out);
+
+        final int delay = (frameMillis + 5) / 10;
+        final int codeSize = Math.max(2, tableBits);
+        Animation a = new Animation(rec, stepsPerFrame);
+        Pipeline p = new Pipeline(out);
+        try
+        {
+            for (Frame f = a.first(); f != null; f = a.next())
+            {
+                final Frame frame = f;
+                final Sprites sprites = s;
+                p.add(new Callable<byte[]>()
+                {
+                    public byte[] call()
+                    {
+                        return gifFrame(sprites, frame, delay, codeSize);
+                    }
+                });
+            }
+            p.finish();
+        } finally
+        {
+            p.close();
+        }
+        out.write(0x3b);
+        out.flush();
+    }
+
+    /**
+     * Write the run recorded by rec to out as an animated PNG that loops
+     * forever, with the same frames as writeGif. Viewers that don't know
+     * APNG show the first frame. Call rec.stop() first.
+     *
+     * @param cellSize The width and height in pixels of each intersection
+     * @param stepsPerFrame How many steps each frame moves on
+     * @param frameMillis How long each frame is shown
+     */
+    public static void writeApng(GridRecorder rec, int cellSize, int stepsPerFrame, final int frameMillis, OutputStream out) throws IOException
+    {
+        checkFrames(stepsPerFrame, frameMillis);
+        final Sprites s = sprites(cellSize);
+        int width = pixels(rec.getColumns(), cellSize);
+        int height = pixels(rec.getRows(), cellSize);
+        Animation a = new Animation(rec, stepsPerFrame);
+        writePngHeader(out, s, width, height, a.frames);
+        Frame f = a.first();
+        out.write(frameControl(0, f, s.size, frameMillis));
+        writeImageData(s, f, f.width, f.height, new ChunkStream(out));  // also the picture for plain PNG viewers
+        Pipeline p = new Pipeline(out);
+        try
+        {
+            int sequence = 1;
+            while ((f = a.next()) != null)
+            {
+                final Frame frame = f;
+                final int first = sequence;
+                p.add(new Callable<byte[]>()
+                {
+                    public byte[] call() throws IOException
+                    {
+                        return apngFrame(s, frame, first, frameMillis);
+                    }
+                });
+                sequence += 2;
+            }
+            p.finish();
+        } finally
+        {
+            p.close();
+        }
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    private static void checkFrames(int stepsPerFrame, int frameMillis)
+    {
+        if (stepsPerFrame < 1 || frameMillis < 0 || frameMillis > 65535)
+        {
+            throw new IllegalArgumentException("Can't show " + stepsPerFrame + " steps every " + frameMillis + " ms");
+        }
+    }
+
+    // The width or height in pixels of n intersections
+    private static int pixels(int n, int cellSize)
+    {
+        long size = (long) n * cellSize;
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(n + " intersections of " + cellSize + " pixels is too many to draw");
+        }
+        return (int) size;
+    }
+
+    static byte glyph(int ch)
+    {
+        return ch < GLYPH_OF.length ? GLYPH_OF[ch] : GLYPH_OF[Grid.beenThereChar];
+    }
+
+    private static Sprites sprites(int cellSize)
+    {
+        if (cellSize < 1 || cellSize > 1024)
+        {
+            throw new IllegalArgumentException("Can't draw intersections " + cellSize + " pixels wide");
+        }
+        Sprites s = SPRITES.get(cellSize);
+        if (s == null)
+        {
+            s = new Sprites(cellSize);
+            SPRITES.putIfAbsent(cellSize, s);
+        }
+        return s;
+    }
+
+//--PNG
+    // The signature, IHDR, acTL when frames > 0, and PLTE
+    private static void writePngHeader(OutputStream out, Sprites s, int width, int height, int frames) throws IOException
+    {
+        out.write(PNG_SIGNATURE);
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeInt(b, width);
+        writeInt(b, height);
+        b.write(8);     // bits per index
+        b.write(3);     // indexed color
+        b.write(0);     // deflate
+        b.write(0);     // the only filtering method
+        b.write(0);     // not interlaced
+        writeChunk(out, "IHDR", b.toByteArray(), 0, b.size());
+        if (frames > 0)
+        {
+            b.reset();
+            writeInt(b, frames);
+            writeInt(b, 0);     // loop forever
+            writeChunk(out, "acTL", b.toByteArray(), 0, b.size());
+        }
+        b.reset();
+        for (int rgb : s.palette)
+        {
+            b.write(rgb >> 16);
+            b.write(rgb >> 8);
+            b.write(rgb);
+        }
+        writeChunk(out, "PLTE", b.toByteArray(), 0, b.size());
+    }
+
+    /**
+     * Deflate the scanlines of rows, a width by height block of
+     * intersections, into out, then close out. Each scanline uses the Up
+     * filter, so the many rows that repeat the row above become runs of
+     * zeros, which deflate finds however wide the image is.
+     */
+    private static void writeImageData(Sprites s, CellRows rows, int width, int height, OutputStream out) throws IOException
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            byte[] cells = new byte[width];
+            byte[] line = new byte[width * s.size];
+            // most frames of an animation are a few intersections, so don't
+            // give them a buffer the size of a chunk
+            int buffer = (int) Math.min(CHUNK_SIZE, (long) height * s.size * (line.length + 1));
+            DeflaterOutputStream z = new DeflaterOutputStream(out, deflater, Math.max(buffer, 512));
+            byte[] above = new byte[line.length];
+            byte[] filtered = new byte[line.length + 1];
+            filtered[0] = 2;    // Up
+            for (int r = 0; r < height; r++)
+            {
+                rows.row(r, cells);
+                for (int y = 0; y < s.size; y++)
+                {
+                    s.scanline(cells, width, y, line);
+                    for (int i = 0; i < line.length; i++)
+                    {
+                        filtered[i + 1] = (byte) (line[i] - above[i]);
+                    }
+                    z.write(filtered);
+                    byte[] swap = above;
+                    above = line;
+                    line = swap;
+                }
+            }
+            z.finish();
+            out.close();
+        } finally
+        {
+            deflater.end();
+        }
+    }
+
+    // The fcTL chunk for f, shown for millis
+    private static byte[] frameControl(int sequence, Frame f, int size, int millis) throws IOException
+    {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeInt(b, sequence);
+        writeInt(b, f.width * size);
+        writeInt(b, f.height * size);
+        writeInt(b, f.col * size);
+        writeInt(b, f.row * size);
+        b.write(millis >> 8);
+        b.write(millis);
+        b.write(1000 >> 8);
+        b.write(1000 & 0xff);
+        b.write(0);     // leave the frame in place
+        b.write(0);     // replace what was there
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        writeChunk(chunk, "fcTL", b.toByteArray(), 0, b.size());
+        return chunk.toByteArray();
+    }
+
+    // The fcTL and fdAT chunks of f, numbered sequence and sequence + 1
+    private static byte[] apngFrame(Sprites s, Frame f, int sequence, int millis) throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeInt(data, sequence + 1);
+        writeImageData(s, f, f.width, f.height, data);
+        ByteArrayOutputStream b = new ByteArrayOutputStream(data.size() + 64);
+        b.write(frameControl(sequence, f, s.size, millis));
+        writeChunk(b, "fdAT", data.toByteArray(), 0, data.size());
+        return b.toByteArray();
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int off, int len) throws IOException
+    {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, off, len);
+        writeInt(out, len);
+        out.write(name);
+        out.write(data, off, len);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream out, int n) throws IOException
+    {
+        out.write(n >>> 24);
+        out.write(n >>> 16);
+        out.write(n >>> 8);
+        out.write(n);
+    }
+
+    // little-endian, as GIF wants
+    private static void writeShort(OutputStream out, int n) throws IOException
+    {
+        out.write(n);
+        out.write(n >>> 8);
+    }
+
+//--GIF
+    // The graphic control extension, image descriptor and LZW data of f
+    private static byte[] gifFrame(Sprites s, Frame f, int delay, int codeSize)
+    {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(0x21);
+        b.write(0xf9);
+        b.write(4);
+        b.write(1 << 2);    // leave the frame in place
+        try
+        {
+            writeShort(b, delay);
+            b.write(0);
+            b.write(0);
+            b.write(0x2c);
+            writeShort(b, f.col * s.size);
+            writeShort(b, f.row * s.size);
+            writeShort(b, f.width * s.size);
+            writeShort(b, f.height * s.size);
+        } catch (IOException e)
+        {
+            throw new IllegalStateException(e);     // a ByteArrayOutputStream doesn't throw
+        }
+        b.write(0);
+        b.write(codeSize);
+        Lzw lzw = new Lzw(codeSize, b);
+        byte[] cells = new byte[f.width];
+        byte[] line = new byte[f.width * s.size];
+        for (int r = 0; r < f.height; r++)
+        {
+            f.row(r, cells);
+            for (int y = 0; y < s.size; y++)
+            {
+                s.scanline(cells, f.width, y, line);
+                lzw.write(line);
+            }
+        }
+        lzw.finish();
+        return b.toByteArray();
+    }
+
+    /**
+     * The variable-length LZW compression GIF uses, written in sub-blocks of
+     * up to 255 bytes.
+     */
+    private static final class Lzw
+    {
+        private final static int MAX_CODES = 4096;
+        private final static int TABLE_SIZE = 8192;     // a power of two well above MAX_CODES
+
+        private int minCodeSize;
+        private int clear;
+        private int next;
+        private int codeSize;
+        private int[] keys = new int[TABLE_SIZE];   // prefix << 8 | index, or -1
+        private short[] codes = new short[TABLE_SIZE];
+        private int prefix = -1;
+        private long bits;
+        private int bitCount;
+        private byte[] block = new byte[256];
+        private int blockLength;
+        private ByteArrayOutputStream out;
+
+        Lzw(int minCodeSize, ByteArrayOutputStream out)
+        {
+            this.minCodeSize = minCodeSize;
+            this.out = out;
+            clear = 1 << minCodeSize;
+            reset();
+            emit(clear);
+        }
+
+        private void reset()
+        {
+            Arrays.fill(keys, -1);
+            next = clear + 2;
+            codeSize = minCodeSize + 1;
+        }
+
+        void write(byte[] indexes)
+        {
+            for (byte b : indexes)
+            {
+                int k = b & 0xff;
+                if (prefix < 0)
+                {
+                    prefix = k;
+                    continue;
+                }
+                int key = prefix << 8 | k;
+                int slot = (key * 0x9E3779B1) >>> 19;
+                while (keys[slot] >= 0 && keys[slot] != key)
+                {
+                    slot = (slot + 1) & (TABLE_SIZE - 1);
+                }
+                if (keys[slot] == key)
+                {
+                    prefix = codes[slot];
+                    continue;
+                }
+                emit(prefix);
+                if (next < MAX_CODES)
+                {
+                    keys[slot] = key;
+                    codes[slot] = (short) next++;
+                    if (next > 1 << codeSize)
+                    {
+                        codeSize++;
+                    }
+                } else
+                {
+                    emit(clear);
+                    reset();
+                }
+                prefix = k;
+            }
+        }
+
+        void finish()
+        {
+            if (prefix >= 0)
+            {
+                emit(prefix);
+            }
+            emit(clear + 1);    // end of information
+            if (bitCount > 0)
+            {
+                add((byte) bits);
+            }
+            if (blockLength > 0)
+            {
+                out.write(blockLength);
+                out.write(block, 0, blockLength);
+            }
+            out.write(0);
+        }
+
+        private void emit(int code)
+        {
+            bits |= (long) code << bitCount;
+            bitCount += codeSize;
+            while (bitCount >= 8)
+            {
+                add((byte) bits);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        private void add(byte b)
+        {
+            block[blockLength++] = b;
+            if (blockLength == 255)
+            {
+                out.write(blockLength);
+                out.write(block, 0, blockLength);
+                blockLength = 0;
+            }
+        }
+    }
+
+//--frames
+    /**
+     * Gives the glyph index of each intersection in one row at a time.
+     */
+    private interface CellRows
+    {
+
+        void row(int r, byte[] into);
+    }
+
+    /**
+     * A rectangle of intersections to draw, in glyph indexes, and where it
+     * goes in the whole picture.
+     */
+    private static final class Frame implements CellRows
+    {
+
+        int row;
+        int col;
+        int width;
+        int height;
+        byte[] cells;
+
+        // A copy of the rectangle from world, which is cols wide
+        Frame(byte[] world, int cols, int row, int col, int width, int height)
+        {
+            this.row = row;
+            this.col = col;
+            this.width = width;
+            this.height = height;
+            cells = new byte[width * height];
+            for (int r = 0; r < height; r++)
+            {
+                System.arraycopy(world, (row + r) * cols + col, cells, r * width, width);
+            }
+        }
+
+        public void row(int r, byte[] into)
+        {
+            System.arraycopy(cells, r * width, into, 0, width);
+        }
+    }
+
+    /**
+     * Replays a recording and cuts it into frames: the whole Grid first, then
+     * the smallest rectangle around what changed in each stepsPerFrame steps.
+     */
+    private static final class Animation
+    {
+
+        int frames;
+        private int stepsPerFrame;
+        private int cols;
+        private byte[] world;
+        private int[] log;
+        private int logLength;
+        private int at;
+        private int made;
+
+        Animation(GridRecorder rec, int stepsPerFrame)
+        {
+            this.stepsPerFrame = stepsPerFrame;
+            cols = rec.getColumns();
+            byte[] start = rec.start();
+            world = new byte[start.length];
+            for (int i = 0; i < start.length; i++)
+            {
+                world[i] = glyph(start[i]);
+            }
+            log = rec.log();
+            logLength = rec.logLength();
+            long count = 1 + ((long) rec.getSteps() + stepsPerFrame - 1) / stepsPerFrame;
+            if (count > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException(count + " frames is too many");
+            }
+            frames = (int) count;
+        }
+
+        Frame first()
+        {
+            made = 1;
+            return new Frame(world, cols, 0, 0, cols, world.length / cols);
+        }
+
+        // null after the last frame
+        Frame next()
+        {
+            if (made == frames)
+            {
+                return null;
+            }
+            made++;
+            int top = Integer.MAX_VALUE;
+            int left = Integer.MAX_VALUE;
+            int bottom = -1;
+            int right = -1;
+            for (int steps = 0; steps < stepsPerFrame && at < logLength; at += 2)
+            {
+                int cell = log[at];
+                if (cell == GridRecorder.END_OF_STEP)
+                {
+                    steps++;
+                    continue;
+                }
+                world[cell] = glyph(log[at + 1]);
+                int r = cell / cols;
+                int c = cell % cols;
+                top = Math.min(top, r);
+                bottom = Math.max(bottom, r);
+                left = Math.min(left, c);
+                right = Math.max(right, c);
+            }
+            if (bottom < 0)
+            {   // nothing to see changed, but the frame still takes its time
+                top = bottom = left = right = 0;
+            }
+            return new Frame(world, cols, top, left, right - left + 1, bottom - top + 1);
+        }
+    }
+
+    /**
+     * The glyphs drawn cellSize pixels square, with the colors they use.
+     */
+    private static final class Sprites
+    {
+
+        int size;
+        int[] palette;      // RGB
+        byte[][] pixels;    // size * size palette indexes for each glyph
+
+        Sprites(int size)
+        {
+            this.size = size;
+            int[] colors = new int[256];
+            int n = 0;
+            pixels = new byte[Glyphs.CHARS.length][size * size];
+            BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            int[] rgb = new int[size * size];
+            for (int i = 0; i < Glyphs.CHARS.length; i++)
+            {
+                Graphics g = image.getGraphics();
+                g.setColor(Glyphs.BACKGROUND);
+                g.fillRect(0, 0, size, size);
+                g.setColor(Glyphs.FOREGROUND);
+                Glyphs.draw(g, 0, 0, size, size, Glyphs.CHARS[i]);
+                g.dispose();
+                image.getRGB(0, 0, size, size, rgb, 0, size);
+                for (int p = 0; p < rgb.length; p++)
+                {
+                    int color = rgb[p] & 0xffffff;
+                    int index = 0;
+                    while (index < n && colors[index] != color)
+                    {
+                        index++;
+                    }
+                    if (index == n)
+                    {
+                        if (n == colors.length)
+                        {
+                            throw new IllegalStateException("The glyphs use more than 256 colors");
+                        }
+                        colors[n++] = color;
+                    }
+                    pixels[i][p] = (byte) index;
+                }
+            }
+            palette = Arrays.copyOf(colors, n);
+        }
+
+        // Pixel row y of the first width intersections in cells, into line
+        void scanline(byte[] cells, int width, int y, byte[] line)
+        {
+            int from = y * size;
+            for (int c = 0, x = 0; c < width; c++, x += size)
+            {
+                System.arraycopy(pixels[cells[c]], from, line, x, size);
+            }
+        }
+    }
+
+    /**
+     * Writes what is written to it as IDAT chunks of up to CHUNK_SIZE bytes.
+     */
+    private static final class ChunkStream extends OutputStream
+    {
+
+        private OutputStream out;
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int length;
+
+        ChunkStream(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException
+        {
+            if (length == buffer.length)
+            {
+                flushChunk();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                if (length == buffer.length)
+                {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Write what is left, but leave out open: more chunks follow
+        public void close() throws IOException
+        {
+            if (length > 0)
+            {
+                flushChunk();
+            }
+        }
+
+        private void flushChunk() throws IOException
+        {
+            writeChunk(out, "IDAT", buffer, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Encodes frames on every processor and writes them in order, holding at
+     * most a few per thread so memory stays bounded however long the run.
+     */
+    private static final class Pipeline
+    {
+
+        private OutputStream out;
+        private ExecutorService pool;
+        private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        private int limit;
+
+        Pipeline(OutputStream out)
+        {
+            this.out = out;
+            int threads = Runtime.getRuntime().availableProcessors();
+            limit = 4 * threads;
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "grid-exporter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        void add(Callable<byte[]> frame) throws IOException
+        {
+            if (pending.size() >= limit)
+            {
+                writeNext();
+            }
+            pending.add(pool.submit(frame));
+        }
+
+        void finish() throws IOException
+        {
+            while (!pending.isEmpty())
+            {
+                writeNext();
+            }
+        }
+
+        void close()
+        {
+            pool.shutdownNow();
+        }
+
+        private void writeNext() throws IOException
+        {
+            try
+            {
+                out.write(pending.remove().get());
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export was interrupted");
+            } catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+} // end class GridExporter
@@ -0,0 +1,137 @@
+package testgridandgraphicgrid;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable picture of every intersection of a Grid object at one moment,
+ * shared by all of the Grid's views. Frames are reference counted: each view
+ * that is handed a frame owns one reference and releases it when done, and a
+ * frame nobody holds goes back to its Grid to be filled again, so a Grid
+ * watched by many views allocates no new arrays once it is running.
+ */
+public final class GridFrame
+{
+//--instance variables
+    private char[][] cells;
+    private int rows;
+    private int cols;
+    private long sequence;
+    private AtomicInteger references = new AtomicInteger();
+    private Pool pool;
+
+    private GridFrame(Pool pool, int rows, int cols)
+    {
+        this.pool = pool;
+        this.rows = rows;
+        this.cols = cols;
+        cells = new char[rows][cols];
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getColumns()
+    {
+        return cols;
+    }
+
+    /**
+     * @return 1 for the first frame of a Grid, 2 for the next, and so on
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * @return the char at intersection (r, c), the same one Grid.toString shows
+     */
+    public char cellAt(int r, int c)
+    {
+        return cells[r][c];
+    }
+
+    /**
+     * @return whether this frame is of the same Grid as other and was taken
+     * before it
+     */
+    boolean isOlderThan(GridFrame other)
+    {
+        return pool == other.pool && sequence < other.sequence;
+    }
+
+    // The cells themselves, for drawing; never change them
+    char[][] cells()
+    {
+        return cells;
+    }
+
+    /**
+     * Take another reference to this frame, to keep it past frameChanged or
+     * hand it on.
+     */
+    public void retain()
+    {
+        if (references.getAndIncrement() <= 0)
+        {
+            references.getAndDecrement();
+            throw new IllegalStateException("frame " + sequence + " was already released");
+        }
+    }
+
+    /**
+     * Give up one reference. The frame must not be used after its last
+     * reference is released.
+     */
+    public void release()
+    {
+        int left = references.decrementAndGet();
+        if (left == 0)
+        {
+            pool.recycle(this);
+        } else if (left < 0)
+        {
+            throw new IllegalStateException("frame " + sequence + " released too often");
+        }
+    }
+
+    /**
+     * The frames of one Grid: a few released frames are kept to be filled
+     * again.
+     */
+    static final class Pool
+    {
+
+        private final ArrayBlockingQueue<GridFrame> free = new ArrayBlockingQueue<GridFrame>(4);
+        private long sequence;
+
+        /**
+         * Fill a frame with the first rows by cols intersections of cells. The caller
+         * holds the one reference. Usually called by the Grid's thread, but a
+         * FrameScheduler may also call it from the event dispatch thread.
+         */
+        synchronized GridFrame take(CellStore cells, int rows, int cols)
+        {
+            GridFrame frame = free.poll();
+            if (frame == null || frame.rows != rows || frame.cols != cols)
+            {
+                frame = new GridFrame(this, rows, cols);
+            }
+            for (int r = 0; r < rows; r++)
+            {
+                cells.copyRow(r, frame.cells[r], cols);
+            }
+            frame.sequence = ++sequence;
+            frame.references.set(1);
+            return frame;
+        }
+
+        void recycle(GridFrame frame)
+        {
+            free.offer(frame);
+        }
+    }
+}
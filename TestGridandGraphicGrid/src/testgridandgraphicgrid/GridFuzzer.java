@@ -0,0 +1,1015 @@
+package testgridandgraphicgrid;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * GridFuzzer checks that the faster ways of keeping a world behave exactly
+ * like the original Grid, quirks and errors included. It makes random worlds
+ * and random streams of commands and sends every command to
+ *
+ * a BaselineGrid, the original Grid kept unchanged, the reference;
+ * a Grid on the Java heap;
+ * a Grid kept in an OffHeapStore, which is also reopened part way through
+ * with Grid(OffHeapStore) to check that the saved state carries on the same;
+ * a SparseGrid with a ring of blocks around the same area, standing in for
+ * the edges it doesn't have;
+ * a Swarm of one mover, and a ConcurrentGrid with one Mover, which answer
+ * false or do nothing where Grid reports an error;
+ * a Grid run by MoverPrograms compiled from the same commands, checked once
+ * they have all run.
+ *
+ * After every command the answer (true or false for frontIsClear and
+ * rightIsClear, or the error) and the whole state are compared. Both Grids
+ * must match the baseline exactly, down to the error messages. They are run
+ * with a pacer, so a failed command must leave them as they were; the
+ * baseline, which is left as the original Grid leaves itself just before it
+ * ends the program, is then rebuilt from the commands that didn't fail, and
+ * every engine carries on with the rest of the stream. The others need only
+ * fail where it does. The Swarm and the ConcurrentGrid, worlds of many
+ * movers that must not lose a thing one of them turns on, are not compared
+ * once the mover has turned on a thing, which Grid always drops; the
+ * ConcurrentGrid also stops at the first toggleShowPath, as its path can't
+ * be hidden. An exception other than a GridException is always a
+ * difference.
+ *
+ * A difference is shrunk to the shortest stream and smallest world that
+ * still show one, and reported as Java code that reproduces it.
+ */
+public class GridFuzzer
+{
+    // commands; those with a place keep its row and column in the higher bits
+    final static int MOVE = 0;
+    final static int TURN_LEFT = 1;
+    final static int PUT_DOWN = 2;
+    final static int PUT_DOWN_AT = 3;
+    final static int PICK_UP = 4;
+    final static int BLOCK = 5;
+    final static int TOGGLE_PATH = 6;
+    final static int FRONT_IS_CLEAR = 7;
+    final static int RIGHT_IS_CLEAR = 8;
+
+    // how often each command is chosen, out of 100
+    private final static int[] WEIGHTS =
+    {
+        34, 18, 7, 6, 7, 12, 3, 8, 5
+    };
+
+    public final static int MAX_SIDE = 12;
+    public final static int MAX_COMMANDS = 64;
+
+    // Lets errors throw a GridException instead of ending the JVM
+    private final static Pacer QUIET = new Pacer()
+    {
+        public void step(Grid g)
+        {
+        }
+    };
+
+    // Swarm controllers that always choose one action, indexed by the action
+    private final static Swarm.Controller[] ACTIONS = new Swarm.Controller[Swarm.PICK_UP + 1];
+
+    static
+    {
+        for (int a = 0; a < ACTIONS.length; a++)
+        {
+            final int action = a;
+            ACTIONS[a] = new Swarm.Controller()
+            {
+                public int decide(Swarm swarm, int mover)
+                {
+                    return action;
+                }
+            };
+        }
+    }
+
+    /**
+     * A world and the commands sent to it.
+     */
+    public static final class Case
+    {
+
+        final int rows;
+        final int cols;
+        final int startRow;
+        final int startCol;
+        final int direction;
+        final int reopenAt;     // the command before which the off-heap Grid is reopened
+        final int[] commands;
+
+        Case(int rows, int cols, int startRow, int startCol, int direction, int reopenAt, int[] commands)
+        {
+            this.rows = rows;
+            this.cols = cols;
+            this.startRow = startRow;
+            this.startCol = startCol;
+            this.direction = direction;
+            this.reopenAt = reopenAt;
+            this.commands = commands;
+        }
+
+        /**
+         * @return Java code that sends these commands to a Grid
+         */
+        public String toString()
+        {
+            StringBuilder result = new StringBuilder();
+            result.append("Grid g = new Grid(").append(rows).append(", ").append(cols).append(", ")
+                    .append(startRow).append(", ").append(startCol).append(", ").append(direction).append(");\n");
+            for (int i = 0; i < commands.length; i++)
+            {
+                if (i == reopenAt)
+                {
+                    result.append("// the off-heap Grid is reopened here\n");
+                }
+                int command = commands[i];
+                int r = rowOf(command);
+                int c = colOf(command);
+                switch (command & 0xF)
+                {
+                    case MOVE:
+                        result.append("g.move();");
+                        break;
+                    case TURN_LEFT:
+                        result.append("g.turnLeft();");
+                        break;
+                    case PUT_DOWN:
+                        result.append("g.putDown();");
+                        break;
+                    case PUT_DOWN_AT:
+                        result.append("g.putDown(").append(r).append(", ").append(c).append(");");
+                        break;
+                    case PICK_UP:
+                        result.append("g.pickUp();");
+                        break;
+                    case BLOCK:
+                        result.append("g.block(").append(r).append(", ").append(c).append(");");
+                        break;
+                    case TOGGLE_PATH:
+                        result.append("g.toggleShowPath();");
+                        break;
+                    case FRONT_IS_CLEAR:
+                        result.append("g.frontIsClear();");
+                        break;
+                    default:
+                        result.append("g.rightIsClear();");
+                }
+                result.append('\n');
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * The outcome of a fuzzing run: how many cases were tried, and the first
+     * difference found, shrunk, if there was one.
+     */
+    public static final class Report
+    {
+
+        private long cases;
+        private long commands;
+        private long nanos;
+        private Case failure;
+        private String difference;
+
+        public long getCases()
+        {
+            return cases;
+        }
+
+        public long getCommands()
+        {
+            return commands;
+        }
+
+        /**
+         * @return the shrunk case that showed a difference, or null if none did
+         */
+        public Case getFailure()
+        {
+            return failure;
+        }
+
+        /**
+         * @return what differed in getFailure(), or null
+         */
+        public String getDifference()
+        {
+            return difference;
+        }
+
+        public String toString()
+        {
+            long perMinute = nanos == 0 ? 0 : cases * 60000000000L / nanos;
+            String totals = cases + " cases, " + commands + " commands (" + perMinute + " cases a minute)";
+            if (failure == null)
+            {
+                return totals + ", no differences";
+            }
+            return totals + "\n" + difference + "\n" + failure;
+        }
+    }
+
+    private GridFuzzer()
+    {
+    }
+
+    /**
+     * Fuzz on several threads until millis have passed or a difference is
+     * found.
+     *
+     * @param seed Where the random cases start; the same seed and thread count
+     * try the same cases
+     */
+    public static Report fuzz(long seed, int threads, long millis)
+    {
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        final AtomicLong cases = new AtomicLong();
+        final AtomicLong commands = new AtomicLong();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Case> failed = new AtomicReference<Case>();
+        SplittableRandom root = new SplittableRandom(seed);
+        Thread[] workers = new Thread[threads];
+        long started = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            final SplittableRandom random = root.split();
+            workers[t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    long n = 0;
+                    long sent = 0;
+                    while (!stop.get() && ((n & 255) != 0 || System.nanoTime() < deadline))
+                    {
+                        Case k = randomCase(random);
+                        n++;
+                        sent += k.commands.length;
+                        if (check(k) != null)
+                        {
+                            if (failed.compareAndSet(null, k))
+                            {
+                                stop.set(true);
+                            }
+                            break;
+                        }
+                    }
+                    cases.addAndGet(n);
+                    commands.addAndGet(sent);
+                }
+            }, "grid-fuzzer-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+        {
+            try
+            {
+                worker.join();
+            } catch (InterruptedException e)
+            {
+                stop.set(true);
+                Thread.currentThread().interrupt();
+            }
+        }
+        Report report = new Report();
+        report.nanos = System.nanoTime() - started;
+        report.cases = cases.get();
+        report.commands = commands.get();
+        if (failed.get() != null)
+        {
+            report.failure = shrink(failed.get());
+            report.difference = check(report.failure);
+        }
+        return report;
+    }
+
+    /**
+     * A random world and stream of commands. Places are chosen from one row
+     * and column either side of the world too, so that errors are tried.
+     */
+    static Case randomCase(SplittableRandom random)
+    {
+        int rows = 1 + random.nextInt(MAX_SIDE);
+        int cols = 1 + random.nextInt(MAX_SIDE);
+        int[] commands = new int[1 + random.nextInt(MAX_COMMANDS)];
+        for (int i = 0; i < commands.length; i++)
+        {
+            int pick = random.nextInt(100);
+            int op = 0;
+            while (pick >= WEIGHTS[op])
+            {
+                pick -= WEIGHTS[op];
+                op++;
+            }
+            commands[i] = command(op, random.nextInt(rows + 2) - 1, random.nextInt(cols + 2) - 1);
+        }
+        return new Case(rows, cols, random.nextInt(rows), random.nextInt(cols), random.nextInt(4),
+                random.nextInt(commands.length + 1), commands);
+    }
+
+    static int command(int op, int r, int c)
+    {
+        return op | (r + 1) << 4 | (c + 1) << 18;
+    }
+
+    static int rowOf(int command)
+    {
+        return ((command >>> 4) & 0x3FFF) - 1;
+    }
+
+    static int colOf(int command)
+    {
+        return (command >>> 18) - 1;
+    }
+
+    /**
+     * Send k to every engine.
+     *
+     * @return a description of the first difference, or null if there was
+     * none
+     */
+    static String check(Case k)
+    {
+        BaselineGrid baseline = new BaselineGrid(k.rows, k.cols, k.startRow, k.startCol, k.direction);
+        Grid heap = new Grid(k.rows, k.cols, k.startRow, k.startCol, k.direction);
+        heap.setPacer(QUIET);
+        OffHeapStore store = OffHeapStore.allocate(k.rows, k.cols);
+        try
+        {
+            Grid offHeap = new Grid(store, k.startRow, k.startCol, k.direction);
+            offHeap.setPacer(QUIET);
+            SparseGrid sparse = new SparseGrid(k.startRow, k.startCol, k.direction);
+            wall(sparse, k.rows, k.cols);
+            Swarm swarm = swarm(k);
+            ConcurrentGrid concurrent = new ConcurrentGrid(k.rows, k.cols);
+            ConcurrentGrid.Mover mover = concurrent.addMover(k.startRow, k.startCol, k.direction);
+            boolean moversAgree = true;         // false once the Swarm and ConcurrentGrid, which keep a thing the mover turns on, have parted ways
+            boolean concurrentAgrees = true;    // false once the path is hidden, which ConcurrentGrid can't do
+            int compiled = compilable(k);
+            String compiledShows = null;    // the baseline after the commands a compiled program can be sent
+            int ran = k.commands.length;    // the commands up to the first that failed
+            String stopped = null;
+            BaselineGrid before = baseline.copy();     // the baseline before the command, kept for when it fails
+            for (int i = 0; i < k.commands.length; i++)
+            {
+                if (i == compiled && stopped == null)
+                {
+                    compiledShows = baseline.toString();
+                }
+                if (i == k.reopenAt)
+                {
+                    boolean showPath = offHeap.isShowingPath();
+                    offHeap = new Grid(store);
+                    offHeap.setPacer(QUIET);
+                    if (!showPath)
+                    {
+                        offHeap.toggleShowPath();
+                    }
+                }
+                int command = k.commands[i];
+                int op = command & 0xF;
+                if (op == TURN_LEFT && heap.cellAt(heap.moverRow(), heap.moverColumn()) == Grid.moverOnThingChar)
+                {
+                    moversAgree = false;
+                }
+                if (op == TOGGLE_PATH)
+                {
+                    concurrentAgrees = false;
+                }
+                String expected = apply(baseline, command);
+                if (expected.startsWith("threw"))
+                {
+                    return "command " + i + ": the baseline Grid " + expected;
+                }
+                if (expected.startsWith("error"))
+                {   // the paced engines are left as they were before it
+                    baseline = before.copy();
+                    if (stopped == null)
+                    {
+                        ran = i + 1;
+                        stopped = expected;
+                        if (i < compiled)
+                        {   // where the compiled programs stop
+                            compiledShows = baseline.toString();
+                        }
+                    }
+                } else
+                {
+                    apply(before, command);
+                }
+                String actual = apply(heap, command);
+                if (!expected.equals(actual))
+                {
+                    return "command " + i + ": the baseline Grid gave " + expected + " but the heap Grid gave " + actual;
+                }
+                String differs = compare(baseline, heap);
+                if (differs != null)
+                {
+                    return "after command " + i + " the heap Grid differs: " + differs;
+                }
+                actual = apply(offHeap, command);
+                if (!expected.equals(actual))
+                {
+                    return "command " + i + ": the baseline Grid gave " + expected + " but the off-heap Grid gave " + actual;
+                }
+                differs = compare(heap, offHeap);
+                if (differs != null)
+                {
+                    return "after command " + i + " the off-heap Grid differs: " + differs;
+                }
+                actual = apply(sparse, command);
+                if (!sameOutcome(expected, actual))
+                {
+                    return "command " + i + ": the baseline Grid gave " + expected + " but the SparseGrid gave " + actual;
+                }
+                differs = compare(heap, sparse);
+                if (differs != null)
+                {
+                    return "after command " + i + " the SparseGrid differs: " + differs;
+                }
+                if (moversAgree)
+                {
+                    actual = apply(swarm, heap, command);
+                    if (!sameOutcome(expected, actual))
+                    {
+                        return "command " + i + ": the baseline Grid gave " + expected + " but the Swarm gave " + actual;
+                    }
+                    if (concurrentAgrees)
+                    {
+                        actual = apply(concurrent, mover, heap, command);
+                        if (!sameOutcome(expected, actual))
+                        {
+                            return "command " + i + ": the baseline Grid gave " + expected + " but the ConcurrentGrid gave " + actual;
+                        }
+                    }
+                    differs = compare(heap, swarm);
+                    if (differs != null)
+                    {
+                        return "after command " + i + " the Swarm differs: " + differs;
+                    }
+                    if (concurrentAgrees)
+                    {
+                        differs = compare(heap, concurrent, mover);
+                        if (differs != null)
+                        {
+                            return "after command " + i + " the ConcurrentGrid differs: " + differs;
+                        }
+                    }
+                }
+            }
+            if (!baseline.toString().equals(offHeap.toString()))
+            {
+                return "at the end the off-heap Grid shows\n" + offHeap + "instead of\n" + baseline;
+            }
+            if (compiledShows == null)
+            {
+                compiledShows = baseline.toString();
+            }
+            return checkCompiled(k, Math.min(compiled, ran), compiled >= ran && stopped != null ? stopped : "done", compiledShows);
+        } finally
+        {
+            try
+            {
+                store.close();
+            } catch (IOException e)
+            {   // only a store backed by a file can fail to close
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // The engines that aren't Grid throw where it does, with different
+    // messages, so only whether there was an error is compared; anything but
+    // a GridException is never the same
+    private static boolean sameOutcome(String expected, String actual)
+    {
+        if (expected.startsWith("error"))
+        {
+            return actual.startsWith("error");
+        }
+        return expected.equals(actual);
+    }
+
+    // The number of commands before the first that the mover language can't
+    // say: it has no negative numbers, so no places outside the top or left
+    // edge
+    private static int compilable(Case k)
+    {
+        for (int i = 0; i < k.commands.length; i++)
+        {
+            int op = k.commands[i] & 0xF;
+            if ((op == PUT_DOWN_AT || op == BLOCK) && (rowOf(k.commands[i]) < 0 || colOf(k.commands[i]) < 0))
+            {
+                return i;
+            }
+        }
+        return k.commands.length;
+    }
+
+    // Run the first end commands as compiled MoverPrograms, one for each
+    // stretch between toggleShowPaths, which the language doesn't have. The
+    // questions are left out, as a program can only ask them in an if or a
+    // while. A merged move that fails must leave the mover where the single
+    // moves would have.
+    private static String checkCompiled(Case k, int end, String expected, String shows)
+    {
+        Grid g = new Grid(k.rows, k.cols, k.startRow, k.startCol, k.direction);
+        g.setPacer(QUIET);
+        StringBuilder source = new StringBuilder();
+        String outcome = "done";
+        for (int i = 0; i <= end; i++)
+        {
+            int command = i < end ? k.commands[i] : TOGGLE_PATH;
+            int op = command & 0xF;
+            if (op == TOGGLE_PATH)
+            {
+                try
+                {
+                    MoverProgram.compile(source.toString()).run(g);
+                } catch (RuntimeException e)
+                {
+                    outcome = error(e);
+                    break;
+                }
+                source.setLength(0);
+                if (i < end)
+                {
+                    g.toggleShowPath();
+                }
+            } else if (op == MOVE)
+            {
+                source.append("move\n");
+            } else if (op == TURN_LEFT)
+            {
+                source.append("turnLeft\n");
+            } else if (op == PUT_DOWN)
+            {
+                source.append("putDown\n");
+            } else if (op == PUT_DOWN_AT)
+            {
+                source.append("putDown ").append(rowOf(command)).append(' ').append(colOf(command)).append('\n');
+            } else if (op == PICK_UP)
+            {
+                source.append("pickUp\n");
+            } else if (op == BLOCK)
+            {
+                source.append("block ").append(rowOf(command)).append(' ').append(colOf(command)).append('\n');
+            }
+        }
+        if (!expected.equals(outcome))
+        {
+            return "the compiled program of the first " + end + " commands gave " + outcome + " but the baseline Grid gave " + expected;
+        }
+        if (!shows.equals(g.toString()))
+        {
+            return "after the compiled program of the first " + end + " commands the Grid shows\n" + g + "instead of\n" + shows;
+        }
+        return null;
+    }
+
+    // A Swarm of one mover placed as k's. Its Grid has a row more than k's,
+    // blocked but for the corner that the Grid's own mover is parked on, so
+    // the Swarm's mover has the same room as k's mover has.
+    private static Swarm swarm(Case k)
+    {
+        Grid g = new Grid(k.rows + 1, k.cols, k.rows, 0, Grid.NORTH);
+        g.setPacer(QUIET);
+        for (int c = 1; c < k.cols; c++)
+        {
+            g.block(k.rows, c);
+        }
+        Swarm swarm = new Swarm(g);
+        swarm.addMover(k.startRow, k.startCol, k.direction);
+        return swarm;
+    }
+
+    // Block the ring of intersections around a rows by cols area, so the
+    // SparseGrid can't go anywhere a Grid of that size has no room
+    private static void wall(SparseGrid sparse, int rows, int cols)
+    {
+        for (int c = -1; c <= cols; c++)
+        {
+            sparse.block(-1, c);
+            sparse.block(rows, c);
+        }
+        for (int r = 0; r < rows; r++)
+        {
+            sparse.block(r, -1);
+            sparse.block(r, cols);
+        }
+    }
+
+    private static String apply(BaselineGrid g, int command)
+    {
+        try
+        {
+            switch (command & 0xF)
+            {
+                case MOVE:
+                    g.move();
+                    break;
+                case TURN_LEFT:
+                    g.turnLeft();
+                    break;
+                case PUT_DOWN:
+                    g.putDown();
+                    break;
+                case PUT_DOWN_AT:
+                    g.putDown(rowOf(command), colOf(command));
+                    break;
+                case PICK_UP:
+                    g.pickUp();
+                    break;
+                case BLOCK:
+                    g.block(rowOf(command), colOf(command));
+                    break;
+                case TOGGLE_PATH:
+                    g.toggleShowPath();
+                    break;
+                case FRONT_IS_CLEAR:
+                    return String.valueOf(g.frontIsClear());
+                default:
+                    return String.valueOf(g.rightIsClear());
+            }
+            return "done";
+        } catch (RuntimeException e)
+        {
+            return error(e);
+        }
+    }
+
+    // The Swarm has no commands for places, so a block or thing is put on
+    // its Grid as the heap Grid took it, and no rightIsClear, so that is
+    // answered as the heap Grid answered
+    private static String apply(Swarm swarm, Grid heap, int command)
+    {
+        try
+        {
+            Grid g = swarm.getGrid();
+            int r = rowOf(command);
+            int c = colOf(command);
+            boolean onThing = swarm.isOnThing(0);
+            switch (command & 0xF)
+            {
+                case MOVE:
+                    return swarm.tick(ACTIONS[Swarm.MOVE]) == 0 ? "error" : "done";
+                case TURN_LEFT:
+                    swarm.tick(ACTIONS[Swarm.TURN_LEFT]);
+                    return "done";
+                case PUT_DOWN:
+                    swarm.tick(ACTIONS[Swarm.PUT_DOWN]);
+                    return swarm.isOnThing(0) != onThing ? "done" : "error";
+                case PICK_UP:
+                    swarm.tick(ACTIONS[Swarm.PICK_UP]);
+                    return swarm.isOnThing(0) != onThing ? "done" : "error";
+                case PUT_DOWN_AT:
+                case BLOCK:
+                    if (r < 0 || r >= heap.getRows() || c < 0 || c >= heap.getColumns() || heap.cellAt(r, c) == g.cellAt(r, c))
+                    {
+                        return "error";
+                    }
+                    char old = g.cellAt(r, c);
+                    g.xorHash(g.storeCell(r, c, heap.cellAt(r, c)));
+                    g.countChange(old, g.cellAt(r, c));
+                    return "done";
+                case TOGGLE_PATH:
+                    g.toggleShowPath();
+                    return "done";
+                case FRONT_IS_CLEAR:
+                    return String.valueOf(swarm.frontIsFree(0));   // not into the parked mover
+                default:
+                    return String.valueOf(heap.rightIsClear());
+            }
+        } catch (RuntimeException e)
+        {
+            return error(e);
+        }
+    }
+
+    // A ConcurrentGrid answers false where Grid reports an error, and has no
+    // rightIsClear, so that is answered as the heap Grid answered. It is not
+    // sent toggleShowPath, as it has no way to hide the path.
+    private static String apply(ConcurrentGrid world, ConcurrentGrid.Mover m, Grid heap, int command)
+    {
+        try
+        {
+            int r = rowOf(command);
+            int c = colOf(command);
+            boolean inside = r >= 0 && r < heap.getRows() && c >= 0 && c < heap.getColumns();
+            boolean done;
+            switch (command & 0xF)
+            {
+                case MOVE:
+                    done = m.move();
+                    break;
+                case TURN_LEFT:
+                    m.turnLeft();
+                    done = true;
+                    break;
+                case PUT_DOWN:
+                    done = m.putDown();
+                    break;
+                case PUT_DOWN_AT:
+                    done = inside && world.putDown(r, c);
+                    break;
+                case PICK_UP:
+                    done = m.pickUp();
+                    break;
+                case BLOCK:
+                    done = inside && world.block(r, c);
+                    break;
+                case FRONT_IS_CLEAR:
+                    return String.valueOf(m.frontIsClear());
+                default:
+                    return String.valueOf(heap.rightIsClear());
+            }
+            return done ? "done" : "error";
+        } catch (RuntimeException e)
+        {
+            return error(e);
+        }
+    }
+
+    private static String apply(Grid g, int command)
+    {
+        try
+        {
+            switch (command & 0xF)
+            {
+                case MOVE:
+                    g.move();
+                    break;
+                case TURN_LEFT:
+                    g.turnLeft();
+                    break;
+                case PUT_DOWN:
+                    g.putDown();
+                    break;
+                case PUT_DOWN_AT:
+                    g.putDown(rowOf(command), colOf(command));
+                    break;
+                case PICK_UP:
+                    g.pickUp();
+                    break;
+                case BLOCK:
+                    g.block(rowOf(command), colOf(command));
+                    break;
+                case TOGGLE_PATH:
+                    g.toggleShowPath();
+                    break;
+                case FRONT_IS_CLEAR:
+                    return String.valueOf(g.frontIsClear());
+                default:
+                    return String.valueOf(g.rightIsClear());
+            }
+            return "done";
+        } catch (RuntimeException e)
+        {
+            return error(e);
+        }
+    }
+
+    private static String apply(SparseGrid g, int command)
+    {
+        try
+        {
+            switch (command & 0xF)
+            {
+                case MOVE:
+                    g.move();
+                    break;
+                case TURN_LEFT:
+                    g.turnLeft();
+                    break;
+                case PUT_DOWN:
+                    g.putDown();
+                    break;
+                case PUT_DOWN_AT:
+                    g.putDown(rowOf(command), colOf(command));
+                    break;
+                case PICK_UP:
+                    g.pickUp();
+                    break;
+                case BLOCK:
+                    g.block(rowOf(command), colOf(command));
+                    break;
+                case TOGGLE_PATH:
+                    g.toggleShowPath();
+                    break;
+                case FRONT_IS_CLEAR:
+                    return String.valueOf(g.frontIsClear());
+                default:
+                    return String.valueOf(g.rightIsClear());
+            }
+            return "done";
+        } catch (RuntimeException e)
+        {
+            return error(e);
+        }
+    }
+
+    // Grid's own errors must say the same; any other exception is a bug in
+    // the engine that threw it, and never matches
+    private static String error(RuntimeException e)
+    {
+        if (e instanceof GridException)
+        {
+            return "error " + e.getMessage();
+        }
+        return "threw " + e;
+    }
+
+    // Cheap checks first; the hash covers every intersection
+    private static String compare(Grid expected, Grid actual)
+    {
+        if (expected.moverRow() != actual.moverRow() || expected.moverColumn() != actual.moverColumn())
+        {
+            return "the mover is at (" + actual.moverRow() + ", " + actual.moverColumn() + ") not ("
+                    + expected.moverRow() + ", " + expected.moverColumn() + ")";
+        }
+        if (expected.stateHash() != actual.stateHash())
+        {
+            return "the state hash is " + Long.toHexString(actual.stateHash()) + " not " + Long.toHexString(expected.stateHash())
+                    + "\n" + actual + "instead of\n" + expected;
+        }
+        if (expected.countThings() != actual.countThings() || expected.countVisited() != actual.countVisited()
+                || expected.countBlocks() != actual.countBlocks())
+        {
+            return "the counts are " + actual.countThings() + "/" + actual.countVisited() + "/" + actual.countBlocks()
+                    + " not " + expected.countThings() + "/" + expected.countVisited() + "/" + expected.countBlocks();
+        }
+        return null;
+    }
+
+    private static String compare(BaselineGrid expected, Grid actual)
+    {
+        if (expected.moverRow() != actual.moverRow() || expected.moverColumn() != actual.moverColumn())
+        {
+            return "the mover is at (" + actual.moverRow() + ", " + actual.moverColumn() + ") not ("
+                    + expected.moverRow() + ", " + expected.moverColumn() + ")";
+        }
+        for (int r = 0; r < expected.getRows(); r++)
+        {
+            for (int c = 0; c < expected.getColumns(); c++)
+            {
+                if (expected.cellAt(r, c) != actual.cellAt(r, c))
+                {
+                    return "(" + r + ", " + c + ") is '" + actual.cellAt(r, c) + "' not '" + expected.cellAt(r, c) + "'\n"
+                            + actual + "instead of\n" + expected;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String compare(Grid expected, Swarm actual)
+    {
+        if (expected.moverRow() != actual.moverRow(0) || expected.moverColumn() != actual.moverColumn(0))
+        {
+            return "the mover is at (" + actual.moverRow(0) + ", " + actual.moverColumn(0) + ") not ("
+                    + expected.moverRow() + ", " + expected.moverColumn() + ")";
+        }
+        for (int r = 0; r < expected.getRows(); r++)
+        {
+            for (int c = 0; c < expected.getColumns(); c++)
+            {
+                if (expected.cellAt(r, c) != actual.getGrid().cellAt(r, c))
+                {
+                    return "(" + r + ", " + c + ") is '" + actual.getGrid().cellAt(r, c) + "' not '" + expected.cellAt(r, c) + "'\n"
+                            + actual.getGrid() + "instead of\n" + expected;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String compare(Grid expected, ConcurrentGrid actual, ConcurrentGrid.Mover mover)
+    {
+        if (expected.moverRow() != mover.moverRow() || expected.moverColumn() != mover.moverColumn())
+        {
+            return "the mover is at (" + mover.moverRow() + ", " + mover.moverColumn() + ") not ("
+                    + expected.moverRow() + ", " + expected.moverColumn() + ")";
+        }
+        for (int r = 0; r < expected.getRows(); r++)
+        {
+            for (int c = 0; c < expected.getColumns(); c++)
+            {
+                if (expected.cellAt(r, c) != actual.cellAt(r, c))
+                {
+                    return "(" + r + ", " + c + ") is '" + actual.cellAt(r, c) + "' not '" + expected.cellAt(r, c) + "'\n"
+                            + actual + "instead of\n" + expected;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String compare(Grid expected, SparseGrid actual)
+    {
+        if (expected.moverRow() != actual.moverRow() || expected.moverColumn() != actual.moverColumn())
+        {
+            return "the mover is at (" + actual.moverRow() + ", " + actual.moverColumn() + ") not ("
+                    + expected.moverRow() + ", " + expected.moverColumn() + ")";
+        }
+        for (int r = 0; r < expected.getRows(); r++)
+        {
+            for (int c = 0; c < expected.getColumns(); c++)
+            {
+                if (expected.cellAt(r, c) != actual.charAt(r, c))
+                {
+                    return "(" + r + ", " + c + ") is '" + actual.charAt(r, c) + "' not '" + expected.cellAt(r, c) + "'\n"
+                            + actual.toString(0, 0, expected.getRows(), expected.getColumns()) + "instead of\n" + expected;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The smallest case found that still shows a difference: commands are
+     * dropped in ever smaller runs, then the world is made smaller, for as
+     * long as that keeps a difference.
+     */
+    static Case shrink(Case k)
+    {
+        boolean smaller = true;
+        while (smaller)
+        {
+            smaller = false;
+            for (int run = Math.max(1, k.commands.length / 2); run >= 1; run /= 2)
+            {
+                for (int start = 0; start + run <= k.commands.length;)
+                {
+                    int[] fewer = new int[k.commands.length - run];
+                    System.arraycopy(k.commands, 0, fewer, 0, start);
+                    System.arraycopy(k.commands, start + run, fewer, start, fewer.length - start);
+                    int reopenAt = k.reopenAt < start ? k.reopenAt : Math.max(start, k.reopenAt - run);
+                    Case tried = new Case(k.rows, k.cols, k.startRow, k.startCol, k.direction, reopenAt, fewer);
+                    if (check(tried) != null)
+                    {
+                        k = tried;
+                        smaller = true;
+                    } else
+                    {
+                        start++;
+                    }
+                }
+            }
+            for (int w = 0; w < 3; w++)
+            {   // each from the case as shrunk so far
+                Case tried;
+                if (w == 0)
+                {
+                    tried = new Case(k.rows - 1, k.cols, Math.min(k.startRow, k.rows - 2), k.startCol, k.direction, k.reopenAt, k.commands);
+                } else if (w == 1)
+                {
+                    tried = new Case(k.rows, k.cols - 1, k.startRow, Math.min(k.startCol, k.cols - 2), k.direction, k.reopenAt, k.commands);
+                } else
+                {
+                    tried = new Case(k.rows, k.cols, k.startRow, k.startCol, k.direction, k.commands.length, k.commands);
+                }
+                if (tried.rows >= 1 && tried.cols >= 1 && tried.startRow >= 0 && tried.startCol >= 0
+                        && !sameCase(tried, k) && check(tried) != null)
+                {
+                    k = tried;
+                    smaller = true;
+                }
+            }
+        }
+        return k;
+    }
+
+    private static boolean sameCase(Case a, Case b)
+    {
+        return a.rows == b.rows && a.cols == b.cols && a.startRow == b.startRow && a.startCol == b.startCol
+                && a.reopenAt == b.reopenAt && Arrays.equals(a.commands, b.commands);
+    }
+
+    /**
+     * Fuzz from the command line.
+     *
+     * @param args seconds to run (10 if not given), threads (one per processor
+     * if not given), and the seed (the time if not given)
+     */
+    public static void main(String[] args)
+    {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        System.out.println("seed " + seed);
+        Report report = fuzz(seed, threads, seconds * 1000);
+        System.out.println(report);
+        if (report.getFailure() != null)
+        {
+            System.exit(1);
+        }
+    }
+
+} // end class GridFuzzer
@@ -0,0 +1,337 @@
+package testgridandgraphicgrid;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * GridMetrics counts what every Grid object in this JVM spends its time on:
+ * how many of each command were sent, how often the mover looked ahead, how
+ * long the listener took to be notified, how many bytes cloneArray copied,
+ * and how long updateState slept.
+ *
+ * Metrics are off unless the JVM is started with -Dgrid.metrics=true.
+ * ENABLED is a static final, so when it is false the JIT removes every
+ * "if (GridMetrics.ENABLED)" check from Grid entirely. When it is true the
+ * counters are also published as an MBean and every command is recorded as a
+ * GridCommandEvent for Flight Recorder.
+ */
+public final class GridMetrics implements GridMetricsMBean
+{
+    public final static boolean ENABLED = Boolean.getBoolean("grid.metrics");
+
+    // command names used in GridCommandEvent
+    final static String MOVE = "move";
+    final static String TURN_LEFT = "turnLeft";
+    final static String TURN_RIGHT = "turnRight";
+    final static String BLOCK = "block";
+    final static String PUT_DOWN = "putDown";
+    final static String PICK_UP = "pickUp";
+
+    final static LongAdder moves = new LongAdder();
+    final static LongAdder turns = new LongAdder();
+    final static LongAdder blocks = new LongAdder();
+    final static LongAdder putDowns = new LongAdder();
+    final static LongAdder pickUps = new LongAdder();
+    final static LongAdder frontIsClearQueries = new LongAdder();
+    final static LongAdder rightIsClearQueries = new LongAdder();
+    final static LongAdder cloneBytes = new LongAdder();
+    final static Histogram notifyNanos = new Histogram();
+    final static Histogram sleepNanos = new Histogram();
+
+    static
+    {
+        if (ENABLED)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new GridMetrics(), new ObjectName("testgridandgraphicgrid:type=GridMetrics"));
+            } catch (JMException e)
+            {
+                System.err.println("GridMetrics MBean not registered: " + e);
+            }
+        }
+    }
+
+    private GridMetrics()
+    {
+    }
+
+    /**
+     * Start timing a command. Only call this when ENABLED.
+     */
+    static GridCommandEvent begin()
+    {
+        GridCommandEvent event = new GridCommandEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Finish timing a command started with begin() and commit it to Flight
+     * Recorder if a recording wants it.
+     */
+    static void end(GridCommandEvent event, String command, int row, int column)
+    {
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.command = command;
+            event.row = row;
+            event.column = column;
+            event.commit();
+        }
+    }
+
+    /**
+     * Approximate bytes allocated by cloning a rows by columns char[][]:
+     * one array of references plus one char[] per row, with object headers.
+     */
+    static long cloneSize(int rows, int columns)
+    {
+        return 16 + 4L * rows + rows * (16 + 2L * columns);
+    }
+
+    /**
+     * Take a consistent-enough copy of every counter (each counter is read
+     * once; counts still arriving may land in either this or the next
+     * snapshot).
+     */
+    public static Snapshot snapshot()
+    {
+        return new Snapshot();
+    }
+
+    /**
+     * Set every counter and histogram back to zero.
+     */
+    public static void resetAll()
+    {
+        moves.reset();
+        turns.reset();
+        blocks.reset();
+        putDowns.reset();
+        pickUps.reset();
+        frontIsClearQueries.reset();
+        rightIsClearQueries.reset();
+        cloneBytes.reset();
+        notifyNanos.reset();
+        sleepNanos.reset();
+    }
+
+// GridMetricsMBean
+    public long getMoves()
+    {
+        return moves.sum();
+    }
+
+    public long getTurns()
+    {
+        return turns.sum();
+    }
+
+    public long getBlocks()
+    {
+        return blocks.sum();
+    }
+
+    public long getPutDowns()
+    {
+        return putDowns.sum();
+    }
+
+    public long getPickUps()
+    {
+        return pickUps.sum();
+    }
+
+    public long getFrontIsClearQueries()
+    {
+        return frontIsClearQueries.sum();
+    }
+
+    public long getRightIsClearQueries()
+    {
+        return rightIsClearQueries.sum();
+    }
+
+    public long getCloneBytes()
+    {
+        return cloneBytes.sum();
+    }
+
+    public long getNotifications()
+    {
+        return notifyNanos.count();
+    }
+
+    public long getNotifyMeanNanos()
+    {
+        return notifyNanos.mean();
+    }
+
+    public long getNotifyP99Nanos()
+    {
+        return notifyNanos.percentile(0.99);
+    }
+
+    public long getNotifyMaxNanos()
+    {
+        return notifyNanos.max();
+    }
+
+    public long getSleepTotalNanos()
+    {
+        return sleepNanos.total();
+    }
+
+    public long getSleepMaxNanos()
+    {
+        return sleepNanos.max();
+    }
+
+    public void reset()
+    {
+        resetAll();
+    }
+
+    /**
+     * A histogram of durations in nanoseconds with one bucket per power of two,
+     * so recording is a LongAdder increment and percentiles are accurate to
+     * within a factor of two.
+     */
+    static final class Histogram
+    {
+
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram()
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos)
+        {
+            if (nanos < 0)
+            {
+                nanos = 0;
+            }
+            buckets[64 - Long.numberOfLeadingZeros(nanos | 1) - 1].increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        long count()
+        {
+            long n = 0;
+            for (LongAdder b : buckets)
+            {
+                n += b.sum();
+            }
+            return n;
+        }
+
+        long total()
+        {
+            return total.sum();
+        }
+
+        long max()
+        {
+            return max.get();
+        }
+
+        long mean()
+        {
+            long n = count();
+            return n == 0 ? 0 : total.sum() / n;
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the fraction p of
+         * recorded values, capped at the largest value seen
+         */
+        long percentile(double p)
+        {
+            long n = count();
+            if (n == 0)
+            {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                seen += buckets[i].sum();
+                if (seen >= rank)
+                {
+                    return Math.min((2L << i) - 1, max());
+                }
+            }
+            return max();
+        }
+
+        void reset()
+        {
+            for (LongAdder b : buckets)
+            {
+                b.reset();
+            }
+            total.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * The value of every counter at the moment snapshot() was called.
+     */
+    public static final class Snapshot
+    {
+
+        public final long moves = GridMetrics.moves.sum();
+        public final long turns = GridMetrics.turns.sum();
+        public final long blocks = GridMetrics.blocks.sum();
+        public final long putDowns = GridMetrics.putDowns.sum();
+        public final long pickUps = GridMetrics.pickUps.sum();
+        public final long frontIsClearQueries = GridMetrics.frontIsClearQueries.sum();
+        public final long rightIsClearQueries = GridMetrics.rightIsClearQueries.sum();
+        public final long cloneBytes = GridMetrics.cloneBytes.sum();
+        public final long notifications = notifyNanos.count();
+        public final long notifyMeanNanos = notifyNanos.mean();
+        public final long notifyP99Nanos = notifyNanos.percentile(0.99);
+        public final long notifyMaxNanos = notifyNanos.max();
+        public final long sleepTotalNanos = sleepNanos.total();
+        public final long sleepMaxNanos = sleepNanos.max();
+
+        private Snapshot()
+        {
+        }
+
+        public String toString()
+        {
+            return "moves=" + moves
+                    + " turns=" + turns
+                    + " blocks=" + blocks
+                    + " putDowns=" + putDowns
+                    + " pickUps=" + pickUps
+                    + " frontIsClear=" + frontIsClearQueries
+                    + " rightIsClear=" + rightIsClearQueries
+                    + " cloneBytes=" + cloneBytes
+                    + " notifications=" + notifications
+                    + " notifyMean=" + notifyMeanNanos + "ns"
+                    + " notifyP99=" + notifyP99Nanos + "ns"
+                    + " notifyMax=" + notifyMaxNanos + "ns"
+                    + " sleepTotal=" + sleepTotalNanos + "ns"
+                    + " sleepMax=" + sleepMaxNanos + "ns";
+        }
+    }
+
+} // end class GridMetrics
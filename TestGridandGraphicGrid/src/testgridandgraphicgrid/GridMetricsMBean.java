@@ -0,0 +1,41 @@
+package testgridandgraphicgrid;
+
+/**
+ * The management interface GridMetrics registers with the platform MBean
+ * server as testgridandgraphicgrid:type=GridMetrics.
+ */
+public interface GridMetricsMBean
+{
+    long getMoves();
+
+    long getTurns();
+
+    long getBlocks();
+
+    long getPutDowns();
+
+    long getPickUps();
+
+    long getFrontIsClearQueries();
+
+    long getRightIsClearQueries();
+
+    long getCloneBytes();
+
+    long getNotifications();
+
+    long getNotifyMeanNanos();
+
+    long getNotifyP99Nanos();
+
+    long getNotifyMaxNanos();
+
+    long getSleepTotalNanos();
+
+    long getSleepMaxNanos();
+
+    /**
+     * Set every counter and histogram back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,157 @@
+package testgridandgraphicgrid;
+
+/**
+ * GridPool hands out Grid objects and takes them back for reuse, so a batch
+ * that runs many short worlds doesn't construct (and leave for the garbage
+ * collector) a new Grid for each one. A Grid taken from the pool is reset
+ * to exactly the world its constructor would have made; once every thread
+ * has a Grid of each size it uses, taking and giving back allocate nothing.
+ *
+ * Each thread has its own free Grids, so there is no locking; a Grid given
+ * back on another thread than it was taken on simply joins that thread's
+ * pool. One GridPool can be shared by any number of threads.
+ */
+public class GridPool
+{
+    public final static int DEFAULT_CAPACITY = 8;
+
+//--instance variables
+    private int capacity;
+    private ThreadLocal<Free> free = new ThreadLocal<Free>()
+    {
+        protected Free initialValue()
+        {
+            return new Free(capacity);
+        }
+    };
+
+    /**
+     * Construct a pool that keeps up to DEFAULT_CAPACITY free Grids per
+     * thread.
+     */
+    public GridPool()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The most free Grids kept per thread; more given back
+     * are left to the garbage collector
+     */
+    public GridPool(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("A pool must keep at least one Grid, not " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * A Grid as new from Grid(totalRows, totalCols, startRow, startCol,
+     * startDirection).
+     */
+    public Grid take(int totalRows, int totalCols, int startRow, int startCol, int startDirection)
+    {
+        Grid g = free.get().pop(totalRows, totalCols, false);
+        if (g == null)
+        {
+            return new Grid(totalRows, totalCols, startRow, startCol, startDirection);
+        }
+        g.reset(totalRows, totalCols, startRow, startCol, startDirection);
+        return g;
+    }
+
+    /**
+     * A Grid as new from Grid(totalRows, totalCols), a border with one exit
+     * and the mover inside, placed by seed as in Grid.reset(seed).
+     */
+    public Grid take(int totalRows, int totalCols, long seed)
+    {
+        Grid g = free.get().pop(totalRows, totalCols, true);
+        if (g == null)
+        {   // reset checks the size, rather than the constructor ending the program
+            g = new Grid(1, 1, 0, 0, Grid.NORTH);
+        }
+        g.reset(totalRows, totalCols, seed);
+        return g;
+    }
+
+    /**
+     * Give g back for reuse once nothing will use it again. Its listener,
+     * views and cell listeners are dropped, and its sleep time and profiling
+     * go back to what a new Grid has. A Grid kept in an OffHeapStore can't be
+     * reused and is not kept.
+     */
+    public void give(Grid g)
+    {
+        g.detach();
+        if (!g.isOffHeap())
+        {
+            free.get().push(g);
+        }
+    }
+
+    /**
+     * @return how many free Grids the calling thread has in this pool
+     */
+    public int available()
+    {
+        return free.get().size;
+    }
+
+    /**
+     * One thread's free Grids, most recently given back on top, since its
+     * arrays are the likeliest still to be in cache.
+     */
+    private static final class Free
+    {
+
+        Grid[] grids;
+        int size;
+
+        Free(int capacity)
+        {
+            grids = new Grid[capacity];
+        }
+
+        // The Grid given back most recently that can be reset without
+        // allocating, or else the most recent one
+        Grid pop(int totalRows, int totalCols, boolean bordered)
+        {
+            if (size == 0)
+            {
+                return null;
+            }
+            int i = size - 1;
+            while (i > 0 && !grids[i].resetKeeps(totalRows, totalCols, bordered))
+            {
+                i--;
+            }
+            if (!grids[i].resetKeeps(totalRows, totalCols, bordered))
+            {
+                i = size - 1;
+            }
+            Grid g = grids[i];
+            System.arraycopy(grids, i + 1, grids, i, size - i - 1);
+            grids[--size] = null;
+            return g;
+        }
+
+        void push(Grid g)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (grids[i] == g)
+                {
+                    throw new IllegalStateException("This Grid was already given back");
+                }
+            }
+            if (size < grids.length)
+            {
+                grids[size++] = g;
+            }
+        }
+    }
+
+} // end class GridPool
@@ -0,0 +1,148 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+
+/**
+ * GridRecorder records everything a Grid does from the moment it is made
+ * until stop is called, so GridExporter can turn the run into an animation
+ * afterwards. It keeps the state the Grid started in and, for each command,
+ * only the intersections that command changed, so even a long run on a large
+ * Grid takes little memory.
+ *
+ * Recording doesn't slow the Grid down: it only sleeps after each command if
+ * a window or other view is watching it too. The exporter sets the pace of
+ * the animation instead.
+ */
+public class GridRecorder
+{
+    final static int END_OF_STEP = -1;  // starts the pair that ends a step in log
+
+//--instance variables
+    private Grid grid;
+    private int rows;
+    private int cols;
+    private byte[] start;   // one char per intersection, row by row
+    private int[] log = new int[1024];  // r * cols + c and char, or END_OF_STEP and 0
+    private int logLength;
+    private int steps;
+    private boolean changed;    // since the last END_OF_STEP
+    private Watcher watcher = new Watcher();
+
+    /**
+     * Start recording g. Call this while nothing else is using g.
+     */
+    public GridRecorder(Grid g)
+    {
+        grid = g;
+        rows = g.getRows();
+        cols = g.getColumns();
+        start = new byte[rows * cols];
+        for (int r = 0, i = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++, i++)
+            {
+                start[i] = (byte) g.cellAt(r, c);
+            }
+        }
+        g.addCellListener(watcher);
+    }
+
+    /**
+     * Stop recording. Call this while nothing else is using the Grid.
+     */
+    public void stop()
+    {
+        if (grid == null)
+        {
+            return;
+        }
+        grid.removeCellListener(watcher);
+        grid = null;
+        endStep();
+    }
+
+    /**
+     * @return how many commands changed the Grid while it was recorded
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getColumns()
+    {
+        return cols;
+    }
+
+    /**
+     * The intersections before the first step, one char each, row by row.
+     */
+    byte[] start()
+    {
+        return start;
+    }
+
+    /**
+     * The changes, as pairs of ints: r * getColumns() + c and the new char,
+     * with a pair starting END_OF_STEP after each step. Only stable once
+     * stop has been called.
+     */
+    int[] log()
+    {
+        return log;
+    }
+
+    int logLength()
+    {
+        return logLength;
+    }
+
+    private void add(int a, int b)
+    {
+        if (logLength + 2 > log.length)
+        {
+            if (log.length >= Integer.MAX_VALUE / 2)
+            {
+                throw new IllegalStateException("Recorded more changes than fit in an array");
+            }
+            log = Arrays.copyOf(log, log.length * 2);
+        }
+        log[logLength++] = a;
+        log[logLength++] = b;
+    }
+
+    private void endStep()
+    {
+        if (changed)
+        {
+            add(END_OF_STEP, 0);
+            steps++;
+            changed = false;
+        }
+    }
+
+    /**
+     * Told of each intersection as it changes, and of the end of each
+     * command, which ends a step.
+     */
+    private class Watcher implements CellListener
+    {
+
+        public void cellChanged(int row, int col, char ch)
+        {
+            add(row * cols + col, ch);
+            changed = true;
+        }
+
+        public void commandDone()
+        {
+            endStep();
+        }
+    }
+
+} // end class GridRecorder
@@ -0,0 +1,480 @@
+package testgridandgraphicgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * GridSnapshotter saves a running Grid to disk every so often without
+ * stopping it, so a long simulation can be picked up again after a crash
+ * with recover.
+ *
+ * Taking a snapshot does not copy the Grid. At the end of the first command
+ * after each interval the snapshotter notes where the mover is and the
+ * Grid's hash, which takes the same time however big the world is, and
+ * then a background thread writes the intersections out row by row while
+ * the simulation carries on. The first time a command changes a row the
+ * thread has not written yet, that row is copied first, so the file holds
+ * the Grid exactly as it was when the snapshot was taken. If the last
+ * snapshot is still being written when the next is due, the next waits for
+ * a later command rather than the Grid waiting for the disk. Nor does the
+ * Grid's thread wake the writer, since a woken thread can take the
+ * processor on the spot; the writer looks for the new snapshot itself,
+ * soon after each is due.
+ *
+ * Each snapshot goes to a file of its own in the directory, named by its
+ * sequence number, and only becomes that file once it has been written in
+ * full and forced to the disk; the oldest are deleted so only the newest
+ * retain are kept. A snapshot ends with a CRC32 of everything before it, so
+ * recover can tell a good file from one cut short or damaged.
+ */
+public class GridSnapshotter implements AutoCloseable
+{
+    public final static int DEFAULT_RETAIN = 3;
+
+    private final static int MAGIC = 0x47534E31;   // "GSN1"
+    private final static int BUSY = -1;            // a row being copied
+    private final static String PREFIX = "grid-";
+    private final static String SUFFIX = ".snap";
+    private final static long MIN_POLL_NANOS = 1000000;      // the writer's checks once a snapshot is due
+    private final static long MAX_POLL_NANOS = 100000000;
+
+//--instance variables
+    private Grid grid;
+    private Path dir;
+    private long intervalNanos;
+    private int retain;
+    private volatile long due;          // when the next snapshot should be taken
+    private Thread writer;
+    private volatile boolean open = true;
+    // What the Grid was when the snapshot being written was taken
+    private volatile boolean frozen;
+    private int epoch;                  // one more for each snapshot
+    private long sequence;              // of the file the snapshot goes to
+    private CellStore store;
+    private int rows;
+    private int cols;
+    private int moverRow;
+    private int moverCol;
+    private int facing;
+    private boolean showPath;
+    private long hash;
+    // state[r] is the epoch once row r has been written or saved for it
+    private AtomicIntegerArray state;
+    private char[][] saved;             // rows copied before a command changed them
+    private long snapshots;
+    private long maxPauseNanos;
+
+    /**
+     * Start snapshotting g every intervalMillis milliseconds into dir,
+     * keeping the newest DEFAULT_RETAIN.
+     */
+    public GridSnapshotter(Grid g, Path dir, long intervalMillis) throws IOException
+    {
+        this(g, dir, intervalMillis, DEFAULT_RETAIN);
+    }
+
+    /**
+     * Start snapshotting g every intervalMillis milliseconds into dir, which
+     * is made if it isn't there. The first snapshot is taken at the end of
+     * the next command. Call this while nothing else is using g.
+     *
+     * @param g The Grid to save
+     * @param dir Where the snapshot files go
+     * @param intervalMillis The least time between snapshots
+     * @param retain How many of the newest snapshots to keep
+     */
+    public GridSnapshotter(Grid g, Path dir, long intervalMillis, int retain) throws IOException
+    {
+        if (intervalMillis < 0 || retain < 1)
+        {
+            throw new IllegalArgumentException("Can't snapshot every " + intervalMillis + " ms keeping " + retain);
+        }
+        Files.createDirectories(dir);
+        for (Path old : list(dir, ".tmp"))
+        {   // left by a crash while writing
+            Files.deleteIfExists(old);
+        }
+        ArrayList<Path> existing = list(dir, SUFFIX);
+        sequence = existing.isEmpty() ? 0 : sequenceOf(existing.get(existing.size() - 1));
+        grid = g;
+        this.dir = dir;
+        intervalNanos = intervalMillis * 1000000;
+        this.retain = retain;
+        due = System.nanoTime();
+        writer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                write();
+            }
+        }, "grid-snapshotter");
+        writer.setDaemon(true);
+        writer.start();
+        track();
+        g.setSnapshotter(this);
+    }
+
+    /**
+     * Take a snapshot at the end of the next command, unless one is still
+     * being written.
+     */
+    public void snapshotSoon()
+    {
+        due = System.nanoTime();
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return how many snapshots have been written in full
+     */
+    public synchronized long getSnapshots()
+    {
+        return snapshots;
+    }
+
+    /**
+     * @return the longest a command has been held up taking a snapshot
+     */
+    public long getMaxPauseNanos()
+    {
+        return maxPauseNanos;
+    }
+
+    /**
+     * Stop taking snapshots, and wait for the one being written, if any, to
+     * be finished. Call this from the thread that runs the Grid, or while
+     * nothing is using it.
+     */
+    public void close() throws IOException
+    {
+        if (!open)
+        {
+            return;
+        }
+        open = false;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        grid.setSnapshotter(null);
+    }
+
+    /**
+     * Called by the Grid at the end of each command.
+     */
+    void commandDone()
+    {
+        if (frozen || System.nanoTime() - due < 0)
+        {
+            return;
+        }
+        long start = System.nanoTime();
+        if (store != grid.cells() || rows != grid.getRows() || cols != grid.getColumns())
+        {   // only after a reset to another size
+            track();
+        }
+        moverRow = grid.moverRow();
+        moverCol = grid.moverColumn();
+        facing = grid.facing();
+        showPath = grid.isShowingPath();
+        hash = grid.stateHash();
+        epoch++;
+        frozen = true;
+        long now = System.nanoTime();
+        maxPauseNanos = Math.max(maxPauseNanos, now - start);
+        due = now + intervalNanos;
+    }
+
+    // Size the row tables for the Grid as it is now
+    private void track()
+    {
+        store = grid.cells();
+        rows = grid.getRows();
+        cols = grid.getColumns();
+        state = new AtomicIntegerArray(rows);
+        saved = new char[rows][];
+        epoch = 0;
+    }
+
+    /**
+     * Called by the Grid before it changes row r, from any of the threads
+     * storing into the Grid.
+     */
+    void beforeStore(int r)
+    {
+        if (frozen && r < rows && state.get(r) != epoch)
+        {
+            claim(r, true);
+        }
+    }
+
+    /**
+     * Called by the Grid before it changes every row at once.
+     */
+    void beforeStoreAll()
+    {
+        if (frozen)
+        {
+            for (int r = 0; r < rows; r++)
+            {
+                claim(r, true);
+            }
+        }
+    }
+
+    // Make sure row r is handled for this snapshot, waiting for another
+    // thread that is copying it. Returns true if the calling thread is the
+    // one to copy it, having saved it first if save is set.
+    private boolean claim(int r, boolean save)
+    {
+        int e = epoch;
+        while (true)
+        {
+            int s = state.get(r);
+            if (s == e)
+            {
+                return false;
+            } else if (s == BUSY)
+            {
+                Thread.onSpinWait();
+            } else if (state.compareAndSet(r, s, BUSY))
+            {
+                if (save)
+                {
+                    char[] row = new char[cols];
+                    store.copyRow(r, row, cols);
+                    saved[r] = row;
+                    state.set(r, e);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void write()
+    {
+        char[] row = new char[0];
+        byte[] bytes = new byte[0];
+        long poll = MIN_POLL_NANOS;
+        while (open || frozen)
+        {
+            if (!frozen)
+            {   // sleep until the next is due, then check more and more rarely
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                {
+                    poll = MIN_POLL_NANOS;
+                } else
+                {
+                    wait = poll;
+                    poll = Math.min(poll * 2, MAX_POLL_NANOS);
+                }
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            if (row.length != cols)
+            {
+                row = new char[cols];
+                bytes = new byte[cols];
+            }
+            Path file = dir.resolve(String.format("%s%012d%s", PREFIX, sequence + 1, SUFFIX));
+            Path temp = dir.resolve(file.getFileName() + ".tmp");
+            try
+            {
+                writeFile(temp, row, bytes);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                sequence++;
+                synchronized (this)
+                {
+                    snapshots++;
+                }
+                ArrayList<Path> kept = list(dir, SUFFIX);
+                for (int i = 0; i < kept.size() - retain; i++)
+                {
+                    Files.deleteIfExists(kept.get(i));
+                }
+            } catch (IOException e)
+            {
+                System.err.println("GridSnapshotter couldn't write " + file + ": " + e);
+                try
+                {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored)
+                {
+                }
+            } finally
+            {
+                frozen = false;
+            }
+        }
+    }
+
+    private void writeFile(Path temp, char[] row, byte[] bytes) throws IOException
+    {
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try
+        {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(moverRow);
+            out.writeInt(moverCol);
+            out.writeInt(facing);
+            out.writeBoolean(showPath);
+            out.writeLong(hash);
+            for (int r = 0; r < rows; r++)
+            {
+                char[] chars = row;
+                if (claim(r, false))
+                {
+                    store.copyRow(r, row, cols);
+                    state.set(r, epoch);
+                } else
+                {   // a command got to it first
+                    chars = saved[r];
+                    saved[r] = null;
+                }
+                for (int c = 0; c < cols; c++)
+                {
+                    bytes[c] = (byte) chars[c];
+                }
+                out.write(bytes, 0, cols);
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        } finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Load the newest good snapshot in dir into a new Grid, skipping any
+     * that were cut short or damaged. The Grid keeps its intersections in
+     * an ordinary array.
+     *
+     * @return the Grid, or null if dir has no good snapshot
+     */
+    public static Grid recover(Path dir) throws IOException
+    {
+        if (!Files.isDirectory(dir))
+        {
+            return null;
+        }
+        ArrayList<Path> files = list(dir, SUFFIX);
+        for (int i = files.size() - 1; i >= 0; i--)
+        {
+            Grid g = read(files.get(i));
+            if (g != null)
+            {
+                return g;
+            }
+        }
+        return null;
+    }
+
+    // The Grid in one snapshot file, or null if it isn't a good one
+    private static Grid read(Path file) throws IOException
+    {
+        try (InputStream stream = Files.newInputStream(file))
+        {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream, 64 * 1024), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC)
+            {
+                return null;
+            }
+            int rows = in.readInt();
+            int cols = in.readInt();
+            int moverRow = in.readInt();
+            int moverCol = in.readInt();
+            int facing = in.readInt();
+            boolean showPath = in.readBoolean();
+            long hash = in.readLong();
+            if (rows < 1 || cols < 1 || moverRow < 0 || moverRow >= rows || moverCol < 0 || moverCol >= cols
+                    || facing < Grid.NORTH || facing > Grid.WEST || (long) rows * cols > Files.size(file))
+            {
+                return null;
+            }
+            Grid g = new Grid(rows, cols, moverRow, moverCol, facing);
+            byte[] row = new byte[cols];
+            for (int r = 0; r < rows; r++)
+            {
+                in.readFully(row);
+                for (int c = 0; c < cols; c++)
+                {
+                    char old = g.cellAt(r, c);
+                    char ch = (char) (row[c] & 0xFF);
+                    if (ch != old)
+                    {
+                        g.xorHash(g.storeCell(r, c, ch));
+                        g.countChange(old, ch);
+                    }
+                }
+            }
+            long sum = checked.getChecksum().getValue();
+            if (in.readLong() != sum)
+            {
+                return null;
+            }
+            if (g.isShowingPath() != showPath)
+            {
+                g.toggleShowPath();
+            }
+            return g.stateHash() == hash ? g : null;
+        } catch (EOFException e)
+        {   // cut short
+            return null;
+        }
+    }
+
+    // The files in dir ending in suffix, oldest first
+    private static ArrayList<Path> list(Path dir, String suffix) throws IOException
+    {
+        ArrayList<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + suffix))
+        {
+            for (Path p : stream)
+            {
+                files.add(p);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long sequenceOf(Path file)
+    {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+} // end class GridSnapshotter
@@ -0,0 +1,403 @@
+package testgridandgraphicgrid;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GridStreamServer streams the changes of one or more Grid objects to any
+ * number of network subscribers. It runs on one thread with an NIO selector
+ * and listens on the loopback address only.
+ *
+ * The protocol is binary, with big-endian ints. After connecting, a client
+ * sends the int id that publish returned for the Grid it wants. The server
+ * then sends frames:
+ *
+ * 'S' rows cols, followed by rows * cols bytes: a full snapshot of every
+ * intersection, row by row, using the same chars as Grid.toString.
+ *
+ * 'D' n, followed by n times (int r * cols + c, byte char): the intersections
+ * that changed since the last frame.
+ *
+ * The simulation never waits for a subscriber. Each change costs the Grid's
+ * thread one array store in a ring that all subscribers of that Grid share;
+ * nothing is copied per subscriber. About every FRAME_MILLIS the server reads
+ * the new changes from the ring into each subscriber's set of intersections
+ * still to send, whether or not the subscriber can take them yet, and turns
+ * what it can of that set into one delta frame, sending the latest char of
+ * each intersection once however often it changed. A subscriber that is
+ * still busy with its last frame, or with its snapshot, simply gets a bigger
+ * delta later. Only a Grid that makes more than RING_SIZE changes within one
+ * frame can lap the ring; then every intersection is sent again.
+ */
+public class GridStreamServer
+{
+    public final static int FRAME_MILLIS = 16;
+    public final static int RING_SIZE = 1 << 16;
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int DELTA_ENTRY = 5;   // int index, byte char
+
+//--instance variables
+    private Selector selector;
+    private ServerSocketChannel server;
+    private CopyOnWriteArrayList<Feed> feeds = new CopyOnWriteArrayList<Feed>();
+    private ArrayList<Subscriber> subscribers = new ArrayList<Subscriber>();
+    private Thread thread;
+    private volatile boolean open = true;
+
+    /**
+     * Construct a server listening on the loopback address.
+     *
+     * @param port The port to listen on, or 0 for any free port
+     */
+    public GridStreamServer(int port) throws IOException
+    {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Start streaming g. Call this while nothing else is using g.
+     *
+     * @return the id clients send to subscribe to g
+     */
+    public int publish(Grid g)
+    {
+        Feed feed = new Feed(g);
+        g.addCellListener(feed);
+        synchronized (feeds)
+        {
+            feeds.add(feed);
+            return feeds.size() - 1;
+        }
+    }
+
+    /**
+     * Start serving on a daemon thread.
+     */
+    public void start()
+    {
+        thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                serve();
+            }
+        }, "grid-stream-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Disconnect every subscriber, stop listening, and stop observing the
+     * published Grids.
+     */
+    public void close() throws IOException
+    {
+        open = false;
+        selector.wakeup();
+        if (thread != null)
+        {
+            try
+            {
+                thread.join();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Subscriber s : subscribers)
+        {
+            s.channel.close();
+        }
+        for (Feed feed : feeds)
+        {
+            feed.grid.removeCellListener(feed);
+        }
+        server.close();
+        selector.close();
+    }
+
+    private void serve()
+    {
+        try
+        {
+            while (open)
+            {
+                selector.select(FRAME_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    } else if (key.isReadable())
+                    {
+                        ((Subscriber) key.attachment()).read();
+                    }
+                }
+                for (Iterator<Subscriber> i = subscribers.iterator(); i.hasNext();)
+                {
+                    Subscriber s = i.next();
+                    if (!s.send())
+                    {
+                        i.remove();
+                    }
+                }
+            }
+        } catch (IOException e)
+        {
+            System.err.println("GridStreamServer stopped: " + e);
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+        {
+            return;
+        }
+        channel.configureBlocking(false);
+        Subscriber s = new Subscriber(channel);
+        s.key = channel.register(selector, SelectionKey.OP_READ, s);
+        subscribers.add(s);
+    }
+
+    private Feed feed(int id)
+    {
+        return id >= 0 && id < feeds.size() ? feeds.get(id) : null;
+    }
+
+    /**
+     * The changes of one Grid, shared by all of its subscribers. Only the
+     * Grid's thread writes it; the server thread only reads.
+     */
+    private static class Feed implements CellListener
+    {
+
+        private Grid grid;
+        private int cols;
+        private int cells;
+        private int[] ring = new int[RING_SIZE];  // ring[seq % RING_SIZE] is the cell changed at seq
+        private long seq;                         // the writer's own count of changes
+        private AtomicLong published = new AtomicLong();
+
+        Feed(Grid g)
+        {
+            grid = g;
+            cols = g.getColumns();
+            cells = g.getRows() * cols;
+        }
+
+        public void cellChanged(int row, int col, char ch)
+        {
+            ring[(int) seq & (RING_SIZE - 1)] = row * cols + col;
+            seq++;
+            published.lazySet(seq);   // the cell store is visible before seq
+        }
+
+        public void commandDone()
+        {   // each change is published as it is made
+        }
+    }
+
+    /**
+     * One connected client and how far through its Feed it has been sent.
+     */
+    private class Subscriber
+    {
+
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(4);
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        private Feed feed;
+        private long seen;          // changes before this seq have been read into dirty
+        private BitSet dirty;       // the cells changed since they were last sent
+        private int next;           // where the next delta starts in dirty, so every cell gets its turn
+        private int snapshotNext;   // the next cell of a snapshot being sent, or -1
+
+        Subscriber(SocketChannel channel)
+        {
+            this.channel = channel;
+            out.flip();     // nothing to send yet
+        }
+
+        // The only thing a client sends is the id of the Grid it wants
+        void read() throws IOException
+        {
+            if (channel.read(in) < 0)
+            {
+                close();
+                return;
+            }
+            if (in.hasRemaining())
+            {
+                return;
+            }
+            if (feed == null)
+            {
+                feed = feed(in.getInt(0));
+                if (feed == null)
+                {
+                    close();
+                    return;
+                }
+                dirty = new BitSet(feed.cells);
+                startSnapshot();
+            }
+            in.clear();     // anything more the client sends is ignored
+        }
+
+        private void startSnapshot()
+        {
+            seen = feed.published.get();    // later changes fix up a torn read
+            dirty.clear();
+            snapshotNext = -2;              // the header goes first
+        }
+
+        // Read the changes made since seen into dirty. This is done every
+        // frame, however far behind the sending is, so the ring is lapped
+        // only by more than RING_SIZE changes in one frame.
+        private void drain()
+        {
+            long head = feed.published.get();
+            if (head - seen <= RING_SIZE)
+            {
+                for (long s = seen; s < head; s++)
+                {
+                    dirty.set(feed.ring[(int) s & (RING_SIZE - 1)]);
+                }
+            }
+            if (feed.published.get() - seen > RING_SIZE)
+            {   // changes were overwritten before they were read
+                dirty.set(0, feed.cells);
+            }
+            seen = head;
+        }
+
+        // Fill out if it is empty and try to write it; false once disconnected
+        boolean send()
+        {
+            if (!channel.isOpen())
+            {
+                return false;
+            }
+            if (feed == null)
+            {
+                return true;
+            }
+            drain();
+            if (!out.hasRemaining())
+            {
+                out.clear();
+                if (snapshotNext != -1)
+                {
+                    fillSnapshot();
+                } else
+                {
+                    fillDelta();
+                }
+                out.flip();
+            }
+            try
+            {
+                channel.write(out);
+            } catch (IOException e)
+            {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        private void fillSnapshot()
+        {
+            int rows = feed.grid.getRows();
+            int cols = feed.cols;
+            if (snapshotNext == -2)
+            {
+                out.put((byte) 'S').putInt(rows).putInt(cols);
+                snapshotNext = 0;
+            }
+            int cells = rows * cols;
+            while (snapshotNext < cells && out.hasRemaining())
+            {
+                out.put((byte) feed.grid.cellAt(snapshotNext / cols, snapshotNext % cols));
+                snapshotNext++;
+            }
+            if (snapshotNext == cells)
+            {
+                snapshotNext = -1;
+            }
+        }
+
+        private void fillDelta()
+        {
+            int cell = nextDirty(next);
+            if (cell < 0)
+            {
+                return;
+            }
+            out.put((byte) 'D').putInt(0);
+            int n = 0;
+            int room = (out.remaining()) / DELTA_ENTRY;
+            for (; cell >= 0 && n < room; cell = nextDirty(cell + 1))
+            {
+                dirty.clear(cell);
+                out.putInt(cell).put((byte) feed.grid.cellAt(cell / feed.cols, cell % feed.cols));
+                n++;
+            }
+            next = Math.max(cell, 0);
+            out.putInt(1, n);
+        }
+
+        // The first dirty cell from cell on, wrapping round, or -1
+        private int nextDirty(int cell)
+        {
+            int found = dirty.nextSetBit(cell);
+            return found >= 0 ? found : dirty.nextSetBit(0);
+        }
+
+        private void close()
+        {
+            key.cancel();
+            try
+            {
+                channel.close();
+            } catch (IOException e)
+            {
+            }
+        }
+    }
+
+} // end class GridStreamServer
@@ -0,0 +1,29 @@
+package testgridandgraphicgrid;
+
+/**
+ * A view of a Grid object that is sent a shared GridFrame after each change
+ * instead of its own copy of the Grid. Any number of views can be added to one
+ * Grid with Grid.addView; one frame is built per change and shared by every
+ * view that is ready for it.
+ */
+public interface GridView
+{
+
+    /**
+     * Called by the Grid before each change is published. A view that is
+     * still busy with its last frame returns false and is skipped; when no
+     * view is ready, no frame is built at all.
+     *
+     * @return true if the view wants the next frame
+     */
+    boolean isReady();
+
+    /**
+     * Called by the Grid with the new state. The frame has already been
+     * retained for this view; call frame.release() once it is no longer
+     * needed.
+     *
+     * @param frame The state of the Grid after the change
+     */
+    void frameChanged(GridFrame frame);
+}
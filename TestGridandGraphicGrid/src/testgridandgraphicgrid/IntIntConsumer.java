@@ -0,0 +1,10 @@
+package testgridandgraphicgrid;
+
+/**
+ * Given the row and column of an intersection, as by Grid.forEachThing.
+ */
+public interface IntIntConsumer
+{
+
+    void accept(int row, int col);
+}
@@ -0,0 +1,153 @@
+package testgridandgraphicgrid;
+
+/**
+ * LongMap maps primitive long keys to objects with open addressing and linear
+ * probing, so looking a key up allocates nothing and never boxes the key.
+ * Removal shifts the rest of a probe run back instead of leaving tombstones,
+ * as CycleDetector does. Null values are not allowed; get returns null for a
+ * missing key.
+ */
+class LongMap<V>
+{
+//--instance variables
+    private long[] keys;
+    private Object[] values;    // null when the slot is empty
+    private int mask;
+    private int size;
+
+    LongMap()
+    {
+        keys = new long[16];
+        values = new Object[16];
+        mask = 15;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key)
+    {
+        int i = home(key);
+        Object v;
+        while ((v = values[i]) != null)
+        {
+            if (keys[i] == key)
+            {
+                return (V) v;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    void put(long key, V value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("LongMap does not hold null values");
+        }
+        int i = home(key);
+        while (values[i] != null)
+        {
+            if (keys[i] == key)
+            {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length)     // keep it at most half full
+        {
+            grow();
+        }
+    }
+
+    void remove(long key)
+    {
+        int i = home(key);
+        while (values[i] == null || keys[i] != key)
+        {
+            if (values[i] == null)
+            {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        values[i] = null;
+        size--;
+        int j = i;
+        while (true)
+        {
+            j = (j + 1) & mask;
+            if (values[j] == null)
+            {
+                return;
+            }
+            int k = home(keys[j]);
+            boolean stays = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!stays)
+            {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Call action for every entry, in no particular order. The map must not be
+     * changed meanwhile.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Entry<V> action)
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    interface Entry<V>
+    {
+        void accept(long key, V value);
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = values.length - 1;
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int j = home(oldKeys[i]);
+                while (values[j] != null)
+                {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    // Keys such as packed coordinates are not well mixed, so mix them first
+    private int home(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+} // end class LongMap
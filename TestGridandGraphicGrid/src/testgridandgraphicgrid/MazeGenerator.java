@@ -0,0 +1,366 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * MazeGenerator builds Grid worlds: perfect mazes made three different ways,
+ * caves grown by a cellular automaton, and things scattered at random.
+ *
+ * Each world is worked out in a byte array first and then stored into a new
+ * Grid in one pass, with one notification, instead of one block() (and one
+ * updateState) per wall. The same seed always gives the same world.
+ *
+ * In a maze the intersections with an odd row and an odd column are rooms,
+ * the ones between two rooms are walls or doors, and the rest are blocked, so
+ * a rows by cols maze has (rows - 1) / 2 by (cols - 1) / 2 rooms; odd sizes
+ * use the whole Grid. Every room can be reached from every other in exactly
+ * one way. The mover starts in the top left room facing EAST.
+ */
+public final class MazeGenerator
+{
+    // what a byte of a world means, as in Grid.load
+    private final static byte OPEN = 0;
+    private final static byte BLOCKED = 1;
+
+    private MazeGenerator()
+    {
+    }
+
+    /**
+     * A maze carved by a depth-first walk that goes to a random unvisited
+     * neighbour and backs up when there is none. It makes long winding
+     * corridors with few dead ends. The walk keeps its own stack, so even a
+     * very large maze can't overflow the thread's stack.
+     */
+    public static Grid recursiveBacktracker(int rows, int cols, long seed)
+    {
+        Maze m = new Maze(rows, cols);
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] stack = new int[m.rooms];
+        int top = 0;
+        int[] choices = new int[4];
+        stack[top++] = 0;
+        m.open(0);
+        while (top > 0)
+        {
+            int room = stack[top - 1];
+            int n = m.closedNeighbours(room, choices);
+            if (n == 0)
+            {
+                top--;
+                continue;
+            }
+            int next = choices[random.nextInt(n)];
+            m.openDoor(room, next);
+            stack[top++] = next;
+        }
+        return m.toGrid();
+    }
+
+    /**
+     * A maze made by Kruskal's algorithm: every wall between two rooms is
+     * considered once, in random order, and knocked down if the rooms on
+     * either side are not yet connected, which a union-find structure answers
+     * in nearly constant time. It makes many short dead ends.
+     */
+    public static Grid kruskal(int rows, int cols, long seed)
+    {
+        Maze m = new Maze(rows, cols);
+        SplittableRandom random = new SplittableRandom(seed);
+        // wall 2 * room leads EAST of room, 2 * room + 1 SOUTH
+        int[] walls = new int[2 * m.rooms];
+        int n = 0;
+        for (int room = 0; room < m.rooms; room++)
+        {
+            if (room % m.roomCols < m.roomCols - 1)
+            {
+                walls[n++] = 2 * room;
+            }
+            if (room < m.rooms - m.roomCols)
+            {
+                walls[n++] = 2 * room + 1;
+            }
+        }
+        int[] parent = new int[m.rooms];    // -size for the room at the root of a set
+        for (int i = 0; i < parent.length; i++)
+        {
+            parent[i] = -1;
+            m.open(i);
+        }
+        int joins = m.rooms - 1;
+        for (int i = 0; i < n && joins > 0; i++)
+        {   // shuffling as we go, so only the walls that are needed get shuffled
+            int j = i + random.nextInt(n - i);
+            int wall = walls[j];
+            walls[j] = walls[i];
+            int room = wall >> 1;
+            int other = (wall & 1) == 0 ? room + 1 : room + m.roomCols;
+            int a = find(parent, room);
+            int b = find(parent, other);
+            if (a != b)
+            {   // the smaller set goes under the larger, keeping paths short
+                if (parent[a] > parent[b])
+                {
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                parent[a] += parent[b];
+                parent[b] = a;
+                m.openDoor(room, other);
+                joins--;
+            }
+        }
+        return m.toGrid();
+    }
+
+    /**
+     * A maze grown outwards from the top left room by Prim's algorithm: each
+     * step opens a random wall on the edge of the maze so far, if the room
+     * behind it is new. It makes a more even, branching maze.
+     */
+    public static Grid prim(int rows, int cols, long seed)
+    {
+        Maze m = new Maze(rows, cols);
+        SplittableRandom random = new SplittableRandom(seed);
+        // each entry is a pair: a room in the maze, and a neighbour that may not be
+        int[] frontier = new int[8 * m.rooms];
+        int[] next = new int[4];
+        int n = 0;
+        m.open(0);
+        n = addWalls(m, 0, next, frontier, n);
+        while (n > 0)
+        {
+            int pick = random.nextInt(n >> 1) << 1;
+            int room = frontier[pick];
+            int other = frontier[pick + 1];
+            n -= 2;
+            frontier[pick] = frontier[n];
+            frontier[pick + 1] = frontier[n + 1];
+            if (!m.isOpen(other))
+            {
+                m.openDoor(room, other);
+                n = addWalls(m, other, next, frontier, n);
+            }
+        }
+        return m.toGrid();
+    }
+
+    /**
+     * Caves grown by a cellular automaton: each intersection starts blocked
+     * with probability fill, then in each generation an intersection becomes
+     * blocked when at least five of the nine in its 3 by 3 square (itself
+     * included) are, counting outside the edges as blocked. About 0.45 and 4
+     * generations give open caves. The mover starts on a random open
+     * intersection facing NORTH.
+     *
+     * @param fill The fraction of intersections blocked at the start
+     * @param generations How many times to apply the rule
+     */
+    public static Grid caves(int rows, int cols, double fill, int generations, long seed)
+    {
+        checkSize(rows, cols, 1);
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] world = new byte[rows * cols];
+        for (int i = 0; i < world.length; i++)
+        {
+            world[i] = random.nextDouble() < fill ? BLOCKED : OPEN;
+        }
+        byte[] next = new byte[world.length];
+        int[] columns = new int[cols + 2];  // blocked in each column of the 3 rows around r
+        for (int g = 0; g < generations; g++)
+        {
+            columns[0] = 3;
+            columns[cols + 1] = 3;
+            for (int r = 0; r < rows; r++)
+            {
+                int above = (r - 1) * cols;
+                int below = (r + 1) * cols;
+                for (int c = 0; c < cols; c++)
+                {
+                    columns[c + 1] = world[r * cols + c]
+                            + (r > 0 ? world[above + c] : BLOCKED)
+                            + (r < rows - 1 ? world[below + c] : BLOCKED);
+                }
+                for (int c = 0; c < cols; c++)
+                {
+                    int blocked = columns[c] + columns[c + 1] + columns[c + 2];
+                    next[r * cols + c] = blocked >= 5 ? BLOCKED : OPEN;
+                }
+            }
+            byte[] swap = world;
+            world = next;
+            next = swap;
+        }
+        int start = random.nextInt(world.length);
+        for (int i = 0; i < world.length && world[start] == BLOCKED; i++)
+        {
+            start = (start + 1) % world.length;
+        }
+        world[start] = OPEN;    // there is always somewhere to stand
+        Grid g = new Grid(rows, cols, start / cols, start % cols, Grid.NORTH);
+        g.load(world);
+        return g;
+    }
+
+    /**
+     * Put down count things on random intersections of g that are neither
+     * blocked, nor have a thing already, nor have the mover on them. Listeners
+     * are notified once.
+     *
+     * @return how many things were put down: fewer than count if g ran out of
+     * free intersections
+     */
+    public static int scatterThings(Grid g, int count, long seed)
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+        int rows = g.getRows();
+        int cols = g.getColumns();
+        int[] free = new int[rows * cols];
+        int n = 0;
+        for (int r = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++)
+            {
+                char ch = g.cellAt(r, c);
+                if (ch == Grid.intersectionChar || ch == Grid.beenThereChar)
+                {
+                    free[n++] = r * cols + c;
+                }
+            }
+        }
+        count = Math.min(count, n);
+        for (int i = 0; i < count; i++)
+        {   // the first count entries become a random sample of them all
+            int j = i + random.nextInt(n - i);
+            int swap = free[i];
+            free[i] = free[j];
+            free[j] = swap;
+        }
+        g.setCells(free, count, Grid.thingHereChar);
+        return count;
+    }
+
+    // Add the walls between room and its neighbours outside the maze
+    private static int addWalls(Maze m, int room, int[] next, int[] frontier, int n)
+    {
+        int k = m.closedNeighbours(room, next);
+        for (int i = 0; i < k; i++)
+        {
+            frontier[n++] = room;
+            frontier[n++] = next[i];
+        }
+        return n;
+    }
+
+    // The root of room's set, halving the path on the way
+    private static int find(int[] parent, int room)
+    {
+        while (parent[room] >= 0)
+        {
+            int up = parent[room];
+            if (parent[up] >= 0)
+            {
+                parent[room] = parent[up];
+            }
+            room = up;
+        }
+        return room;
+    }
+
+    private static void checkSize(int rows, int cols, int least)
+    {
+        if (rows < least || cols < least || (long) rows * cols > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Can't make a " + rows + " by " + cols + " world");
+        }
+    }
+
+    /**
+     * A world being carved into a maze, starting with every intersection
+     * blocked. Rooms are numbered row by row.
+     */
+    private static final class Maze
+    {
+
+        int rows;
+        int cols;
+        int roomRows;
+        int roomCols;
+        int rooms;
+        boolean[] inMaze;   // one per room, so the carving stays in cache longer
+        byte[] world;
+
+        Maze(int rows, int cols)
+        {
+            checkSize(rows, cols, 3);
+            this.rows = rows;
+            this.cols = cols;
+            roomRows = (rows - 1) / 2;
+            roomCols = (cols - 1) / 2;
+            rooms = roomRows * roomCols;
+            inMaze = new boolean[rooms];
+            world = new byte[rows * cols];
+            Arrays.fill(world, BLOCKED);
+        }
+
+        // The intersection of room
+        int at(int room)
+        {
+            return (2 * (room / roomCols) + 1) * cols + 2 * (room % roomCols) + 1;
+        }
+
+        boolean isOpen(int room)
+        {
+            return inMaze[room];
+        }
+
+        void open(int room)
+        {
+            inMaze[room] = true;
+            world[at(room)] = OPEN;
+        }
+
+        // Open other and the wall between it and its neighbour room
+        void openDoor(int room, int other)
+        {
+            int a = at(other);
+            inMaze[other] = true;
+            world[a] = OPEN;
+            world[(at(room) + a) >> 1] = OPEN;
+        }
+
+        // Put the neighbours of room that are not open yet in into
+        int closedNeighbours(int room, int[] into)
+        {
+            int n = 0;
+            int c = room % roomCols;
+            if (room >= roomCols && !inMaze[room - roomCols])
+            {
+                into[n++] = room - roomCols;
+            }
+            if (c < roomCols - 1 && !inMaze[room + 1])
+            {
+                into[n++] = room + 1;
+            }
+            if (room < rooms - roomCols && !inMaze[room + roomCols])
+            {
+                into[n++] = room + roomCols;
+            }
+            if (c > 0 && !inMaze[room - 1])
+            {
+                into[n++] = room - 1;
+            }
+            return n;
+        }
+
+        Grid toGrid()
+        {
+            Grid g = new Grid(rows, cols, 1, 1, Grid.EAST);
+            g.load(world);
+            return g;
+        }
+    }
+
+} // end class MazeGenerator
@@ -0,0 +1,636 @@
+package testgridandgraphicgrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the source of a mover program into the instructions a MoverProgram
+ * runs. Compiling is done in three steps: the source is parsed into a tree of
+ * statements, the tree is optimized, and the tree is laid out as a flat int
+ * array of instructions.
+ *
+ * The optimizations are:
+ *
+ * Consecutive moves become one move of several spaces, and three turnLefts in
+ * a row become one turnRight, so the Grid is sent one command instead of
+ * several. "while frontIsClear { move }" becomes a single move of
+ * Grid.distanceAhead() spaces. A move of several spaces is sent as single
+ * moves when the path is hidden (see MoverProgram).
+ *
+ * A loop whose body neither moves nor turns the mover nor puts down a block
+ * (nor calls a procedure that might) cannot change what frontIsClear and
+ * rightIsClear answer, so each of them is asked once before the loop and the
+ * answer kept in a slot that the loop reads instead.
+ */
+final class MoverCompiler
+{
+    // Instructions are three ints: the opcode and two operands
+    final static int HALT = 0;
+    final static int MOVE = 1;              // spaces
+    final static int TURN_LEFT = 2;
+    final static int TURN_RIGHT = 3;
+    final static int PUT_DOWN = 4;
+    final static int PICK_UP = 5;
+    final static int JUMP = 6;              // target
+    final static int BRANCH_IF_FALSE = 7;   // condition, target
+    final static int SAVE = 8;              // sensor, slot
+    final static int REPEAT = 9;            // times: push a loop counter
+    final static int LOOP = 10;             // target: count down, jump back while not 0
+    final static int CALL = 11;             // target
+    final static int RETURN = 12;
+    final static int MOVE_TO_WALL = 13;
+    final static int BLOCK = 14;            // row, column
+    final static int PUT_DOWN_AT = 15;      // row, column
+
+    // A condition is (source << 1) | negated, where the source is a sensor
+    // or, from SLOTS on, a slot holding a hoisted answer
+    final static int FRONT = 0;
+    final static int RIGHT = 1;
+    final static int SLOTS = 2;
+
+    final static String[] NAMES =
+    {
+        "halt", "move", "turnLeft", "turnRight", "putDown", "pickUp", "jump",
+        "branchIfFalse", "save", "repeat", "loop", "call", "return", "moveToWall",
+        "block", "putDownAt"
+    };
+
+    // statements that are not single instructions
+    private final static int WHILE = 100;
+    private final static int IF = 101;
+    private final static int REPEAT_BLOCK = 102;
+    private final static int CALL_PROCEDURE = 103;
+
+//--instance variables
+    private String source;
+    private int pos;
+    private int line = 1;
+    private String token;           // the current token, null at the end
+    private int tokenLine;
+    private Map<String, List<Node>> procedures = new LinkedHashMap<String, List<Node>>();
+    private Map<String, Boolean> procedureTurns = new HashMap<String, Boolean>();
+    private int[] code = new int[48];
+    private int size;
+    private int slots;
+
+    private MoverCompiler(String source)
+    {
+        this.source = source;
+        next();
+    }
+
+    /**
+     * Compile source into a MoverProgram.
+     *
+     * @throws IllegalArgumentException if source is not a valid program; the
+     * message gives the line
+     */
+    static MoverProgram compile(String source)
+    {
+        MoverCompiler compiler = new MoverCompiler(source);
+        List<Node> main = compiler.parse();
+        return compiler.generate(main);
+    }
+
+    /**
+     * One statement of the tree.
+     */
+    private static final class Node
+    {
+
+        int kind;           // an instruction opcode or one of WHILE, IF, ...
+        int n;              // spaces of a MOVE, times of a REPEAT_BLOCK, row of a BLOCK
+        int m;              // column of a BLOCK or PUT_DOWN_AT
+        int condition;
+        String name;        // of the procedure a CALL_PROCEDURE calls
+        int line;
+        List<Node> body;
+        List<Node> orElse;
+
+        Node(int kind, int line)
+        {
+            this.kind = kind;
+            this.line = line;
+            n = 1;
+        }
+    }
+
+// Parsing
+    private List<Node> parse()
+    {
+        List<Node> main = new ArrayList<Node>();
+        while (token != null)
+        {
+            if (token.equals("define"))
+            {
+                next();
+                String name = name();
+                if (isKeyword(name))
+                {
+                    throw error(name + " can't be the name of a procedure");
+                }
+                if (procedures.containsKey(name))
+                {
+                    throw error("procedure " + name + " is defined twice");
+                }
+                procedures.put(name, block());
+            } else
+            {
+                main.add(statement());
+            }
+        }
+        return main;
+    }
+
+    private List<Node> block()
+    {
+        expect("{");
+        List<Node> statements = new ArrayList<Node>();
+        while (!"}".equals(token))
+        {
+            if (token == null)
+            {
+                throw error("missing }");
+            }
+            statements.add(statement());
+        }
+        next();
+        return statements;
+    }
+
+    private Node statement()
+    {
+        int at = tokenLine;
+        String word = name();
+        Node node;
+        if (word.equals("move"))
+        {
+            node = new Node(MOVE, at);
+            if (isNumber())
+            {
+                node.n = number("move");
+                if (node.n == 0)
+                {
+                    throw error("move needs at least 1 space");
+                }
+            }
+        } else if (word.equals("turnLeft"))
+        {
+            node = new Node(TURN_LEFT, at);
+        } else if (word.equals("putDown"))
+        {
+            node = new Node(PUT_DOWN, at);
+            if (isNumber())
+            {
+                node.kind = PUT_DOWN_AT;
+                node.n = number("putDown");
+                node.m = number("putDown");
+            }
+        } else if (word.equals("block"))
+        {
+            node = new Node(BLOCK, at);
+            node.n = number("block");
+            node.m = number("block");
+        } else if (word.equals("pickUp"))
+        {
+            node = new Node(PICK_UP, at);
+        } else if (word.equals("while"))
+        {
+            node = new Node(WHILE, at);
+            node.condition = condition();
+            node.body = block();
+        } else if (word.equals("if"))
+        {
+            node = new Node(IF, at);
+            node.condition = condition();
+            node.body = block();
+            node.orElse = new ArrayList<Node>();
+            if ("else".equals(token))
+            {
+                next();
+                node.orElse = block();
+            }
+        } else if (word.equals("repeat"))
+        {
+            node = new Node(REPEAT_BLOCK, at);
+            node.n = number("repeat");
+            node.body = block();
+        } else if (isKeyword(word))
+        {
+            throw error(word + " can't start a statement");
+        } else
+        {
+            node = new Node(CALL_PROCEDURE, at);
+            node.name = word;
+        }
+        return node;
+    }
+
+    private int condition()
+    {
+        boolean negated = false;
+        if ("not".equals(token))
+        {
+            next();
+            negated = true;
+        }
+        String sensor = name();
+        int source;
+        if (sensor.equals("frontIsClear"))
+        {
+            source = FRONT;
+        } else if (sensor.equals("rightIsClear"))
+        {
+            source = RIGHT;
+        } else
+        {
+            throw error("expected frontIsClear or rightIsClear, not " + sensor);
+        }
+        return (source << 1) | (negated ? 1 : 0);
+    }
+
+    private String name()
+    {
+        if (token == null || !Character.isJavaIdentifierStart(token.charAt(0)))
+        {
+            throw error(token == null ? "unexpected end of program" : "unexpected " + token);
+        }
+        String result = token;
+        next();
+        return result;
+    }
+
+    private boolean isNumber()
+    {
+        return token != null && Character.isDigit(token.charAt(0));
+    }
+
+    // A number for the statement that starts with word
+    private int number(String word)
+    {
+        if (!isNumber())
+        {
+            throw error(word + " needs a number");
+        }
+        int result;
+        try
+        {
+            result = Integer.parseInt(token);
+        } catch (NumberFormatException e)
+        {
+            throw error(token + " is not a number " + word + " can use");
+        }
+        next();
+        return result;
+    }
+
+    private void expect(String what)
+    {
+        if (!what.equals(token))
+        {
+            throw error("expected " + what);
+        }
+        next();
+    }
+
+    private static boolean isKeyword(String word)
+    {
+        return word.equals("define") || word.equals("else") || word.equals("not")
+                || word.equals("frontIsClear") || word.equals("rightIsClear")
+                || word.equals("move") || word.equals("turnLeft") || word.equals("putDown")
+                || word.equals("pickUp") || word.equals("while") || word.equals("if")
+                || word.equals("repeat") || word.equals("block");
+    }
+
+    // Read the next token: a word, a number, { or }. Semicolons, blank space
+    // and // comments separate tokens and are otherwise ignored.
+    private void next()
+    {
+        while (pos < source.length())
+        {
+            char ch = source.charAt(pos);
+            if (ch == '\n')
+            {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(ch) || ch == ';')
+            {
+                pos++;
+            } else if (source.startsWith("//", pos))
+            {
+                while (pos < source.length() && source.charAt(pos) != '\n')
+                {
+                    pos++;
+                }
+            } else
+            {
+                break;
+            }
+        }
+        tokenLine = line;
+        if (pos == source.length())
+        {
+            token = null;
+            return;
+        }
+        int start = pos;
+        char ch = source.charAt(pos);
+        if (ch == '{' || ch == '}')
+        {
+            pos++;
+        } else if (Character.isJavaIdentifierPart(ch))
+        {
+            while (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos)))
+            {
+                pos++;
+            }
+        } else
+        {
+            throw error("unexpected " + ch);
+        }
+        token = source.substring(start, pos);
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException("line " + tokenLine + ": " + message);
+    }
+
+// Optimizing
+    // Merge runs of moves and of turnLefts, in every block
+    private static List<Node> peephole(List<Node> block)
+    {
+        List<Node> result = new ArrayList<Node>();
+        int lefts = 0;
+        for (Node node : block)
+        {
+            if (node.body != null)
+            {
+                node.body = peephole(node.body);
+            }
+            if (node.orElse != null)
+            {
+                node.orElse = peephole(node.orElse);
+            }
+            if (node.kind == WHILE && node.condition == FRONT << 1
+                    && node.body.size() == 1 && node.body.get(0).kind == MOVE && node.body.get(0).n == 1)
+            {
+                node = new Node(MOVE_TO_WALL, node.line);
+            }
+            if (node.kind == TURN_LEFT)
+            {
+                lefts++;
+                if (lefts == 3)
+                {
+                    result.remove(result.size() - 1);
+                    result.remove(result.size() - 1);
+                    result.add(new Node(TURN_RIGHT, node.line));
+                    lefts = 0;
+                    continue;
+                }
+            } else
+            {
+                lefts = 0;
+            }
+            Node last = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (node.kind == MOVE && last != null && last.kind == MOVE && last.n < Integer.MAX_VALUE - node.n)
+            {
+                last.n += node.n;
+            } else
+            {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    // Whether running block could move or turn the mover, or put a block
+    // where it might look
+    private boolean turns(List<Node> block)
+    {
+        for (Node node : block)
+        {
+            if (node.kind == MOVE || node.kind == MOVE_TO_WALL || node.kind == TURN_LEFT || node.kind == TURN_RIGHT
+                    || node.kind == BLOCK)
+            {
+                return true;
+            }
+            if (node.kind == CALL_PROCEDURE && procedureTurns.get(node.name))
+            {
+                return true;
+            }
+            if ((node.body != null && turns(node.body)) || (node.orElse != null && turns(node.orElse)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Which procedures could move or turn the mover, allowing for procedures
+    // that call each other: start from "none does" and repeat until nothing
+    // changes
+    private void findTurningProcedures()
+    {
+        for (String name : procedures.keySet())
+        {
+            procedureTurns.put(name, false);
+        }
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (Map.Entry<String, List<Node>> e : procedures.entrySet())
+            {
+                if (!procedureTurns.get(e.getKey()) && turns(e.getValue()))
+                {
+                    procedureTurns.put(e.getKey(), true);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // The sensors asked anywhere in block, as a bit set of sources
+    private static int sensorsUsed(List<Node> block)
+    {
+        int used = 0;
+        for (Node node : block)
+        {
+            if (node.kind == WHILE || node.kind == IF)
+            {
+                used |= 1 << (node.condition >> 1);
+            }
+            if (node.body != null)
+            {
+                used |= sensorsUsed(node.body);
+            }
+            if (node.orElse != null)
+            {
+                used |= sensorsUsed(node.orElse);
+            }
+        }
+        return used;
+    }
+
+// Generating
+    private MoverProgram generate(List<Node> main)
+    {
+        checkCalls(main);
+        for (List<Node> body : procedures.values())
+        {
+            checkCalls(body);
+        }
+        main = peephole(main);
+        for (Map.Entry<String, List<Node>> e : procedures.entrySet())
+        {
+            e.setValue(peephole(e.getValue()));
+        }
+        findTurningProcedures();
+
+        List<Integer> calls = new ArrayList<Integer>();   // each CALL, to patch with its target
+        List<String> callNames = new ArrayList<String>();
+        emitBlock(main, null, calls, callNames);
+        emit(HALT, 0, 0);
+        Map<String, Integer> entry = new HashMap<String, Integer>();
+        for (Map.Entry<String, List<Node>> e : procedures.entrySet())
+        {
+            entry.put(e.getKey(), size);
+            emitBlock(e.getValue(), null, calls, callNames);
+            emit(RETURN, 0, 0);
+        }
+        for (int i = 0; i < calls.size(); i++)
+        {
+            code[calls.get(i) + 1] = entry.get(callNames.get(i));
+        }
+        return new MoverProgram(Arrays.copyOf(code, size), slots);
+    }
+
+    private void checkCalls(List<Node> block)
+    {
+        for (Node node : block)
+        {
+            if (node.kind == CALL_PROCEDURE && !procedures.containsKey(node.name))
+            {
+                throw new IllegalArgumentException("line " + node.line + ": no procedure called " + node.name);
+            }
+            if (node.body != null)
+            {
+                checkCalls(node.body);
+            }
+            if (node.orElse != null)
+            {
+                checkCalls(node.orElse);
+            }
+        }
+    }
+
+    // hoisted maps a sensor to the slot holding its answer, inside a loop
+    // that can't change the answers; null elsewhere
+    private void emitBlock(List<Node> block, int[] hoisted, List<Integer> calls, List<String> callNames)
+    {
+        for (Node node : block)
+        {
+            switch (node.kind)
+            {
+                case WHILE:
+                {
+                    int[] inner = hoist(node, hoisted);
+                    int top = size;
+                    int branch = emit(BRANCH_IF_FALSE, condition(node.condition, inner), 0);
+                    emitBlock(node.body, inner, calls, callNames);
+                    emit(JUMP, top, 0);
+                    code[branch + 2] = size;
+                    break;
+                }
+                case IF:
+                {
+                    int branch = emit(BRANCH_IF_FALSE, condition(node.condition, hoisted), 0);
+                    emitBlock(node.body, hoisted, calls, callNames);
+                    if (node.orElse.isEmpty())
+                    {
+                        code[branch + 2] = size;
+                    } else
+                    {
+                        int jump = emit(JUMP, 0, 0);
+                        code[branch + 2] = size;
+                        emitBlock(node.orElse, hoisted, calls, callNames);
+                        code[jump + 1] = size;
+                    }
+                    break;
+                }
+                case REPEAT_BLOCK:
+                {
+                    if (node.n <= 0 || node.body.isEmpty())
+                    {
+                        break;
+                    }
+                    int[] inner = hoist(node, hoisted);
+                    emit(REPEAT, node.n, 0);
+                    int top = size;
+                    emitBlock(node.body, inner, calls, callNames);
+                    emit(LOOP, top, 0);
+                    break;
+                }
+                case CALL_PROCEDURE:
+                    calls.add(emit(CALL, 0, 0));
+                    callNames.add(node.name);
+                    break;
+                default:
+                    emit(node.kind, node.n, node.m);
+            }
+        }
+    }
+
+    // Save the answers a loop needs before it starts, if its body can't
+    // change them
+    private int[] hoist(Node loop, int[] hoisted)
+    {
+        if (hoisted != null || turns(loop.body))
+        {
+            return hoisted;
+        }
+        int used = sensorsUsed(loop.body) | (loop.kind == WHILE ? 1 << (loop.condition >> 1) : 0);
+        if (used == 0)
+        {
+            return null;
+        }
+        int[] slotOf = new int[2];
+        for (int sensor = FRONT; sensor <= RIGHT; sensor++)
+        {
+            if ((used & (1 << sensor)) != 0)
+            {
+                slotOf[sensor] = slots++;
+                emit(SAVE, sensor, slotOf[sensor]);
+            }
+        }
+        return slotOf;
+    }
+
+    private static int condition(int condition, int[] hoisted)
+    {
+        if (hoisted == null)
+        {
+            return condition;
+        }
+        return ((SLOTS + hoisted[condition >> 1]) << 1) | (condition & 1);
+    }
+
+    // Append one instruction and return where it is
+    private int emit(int op, int a, int b)
+    {
+        if (size + 3 > code.length)
+        {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[size] = op;
+        code[size + 1] = a;
+        code[size + 2] = b;
+        size += 3;
+        return size - 3;
+    }
+}
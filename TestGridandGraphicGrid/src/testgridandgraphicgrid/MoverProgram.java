@@ -0,0 +1,267 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+
+/**
+ * A program in the mover language, compiled and ready to run against any
+ * number of Grid objects. The language has the Grid commands and a few ways
+ * to combine them:
+ *
+ * move turnLeft putDown pickUp
+ * move 5              (5 spaces)
+ * putDown 2 3         (at row 2, column 3)
+ * block 2 3
+ * while [not] frontIsClear { ... }
+ * if [not] rightIsClear { ... } else { ... }
+ * repeat 4 { ... }
+ * define turnRight { turnLeft turnLeft turnLeft }
+ *
+ * A procedure is called by its name and may be defined before or after it is
+ * used. Statements are separated by blank space or semicolons, and // starts a
+ * comment. For example, with turnRight defined as above, this follows the wall
+ * on the right:
+ *
+ * while frontIsClear { if rightIsClear { turnRight move } else { move } }
+ *
+ * A program can only drive the Grid it is run against, so programs from
+ * anywhere can be run safely. It runs until it ends, the Grid reports an
+ * error, or it has executed setInstructionLimit instructions, which also
+ * stops programs that loop without sending the Grid any command. The
+ * compiler merges and hoists some commands (see MoverCompiler), so a program
+ * may send fewer commands than its source suggests; the Grid ends in the same
+ * state. Merged moves are sent as one move only while the path is shown,
+ * since with it hidden Grid.move(n) doesn't put back the intersections it
+ * passes as single moves do.
+ *
+ * A MoverProgram is also a ProgramExecutor.Program, so many can be run at once
+ * with budgets and pacing.
+ */
+public class MoverProgram implements ProgramExecutor.Program
+{
+    public final static long DEFAULT_INSTRUCTION_LIMIT = 100000000;
+    public final static int MAX_DEPTH = 1 << 16;   // nested procedure calls and repeats
+
+    private final static int CHECK_EVERY = 4096;    // instructions between looks at the interrupt flag
+
+//--instance variables
+    private int[] code;
+    private int slots;
+    private long instructionLimit = DEFAULT_INSTRUCTION_LIMIT;
+
+    MoverProgram(int[] code, int slots)
+    {
+        this.code = code;
+        this.slots = slots;
+    }
+
+    /**
+     * Compile a program.
+     *
+     * @param source The program, in the language described above
+     * @throws IllegalArgumentException if source is not a valid program; the
+     * message says which line is wrong
+     */
+    public static MoverProgram compile(String source)
+    {
+        return MoverCompiler.compile(source);
+    }
+
+    /**
+     * @param limit The most instructions one run may execute
+     */
+    public void setInstructionLimit(long limit)
+    {
+        instructionLimit = limit;
+    }
+
+    /**
+     * Run this program against g. It can be run on several threads at once,
+     * each against its own Grid.
+     *
+     * @throws GridException if the program runs too long or calls too deep,
+     * or if g reports an error (when g is run by a ProgramExecutor)
+     */
+    public void run(Grid g)
+    {
+        int[] code = this.code;
+        boolean[] saved = new boolean[slots];
+        int[] counters = new int[16];   // counts of the repeats being run
+        int counterTop = 0;
+        int[] returns = new int[16];
+        int returnTop = 0;
+        long left = instructionLimit;
+        int pc = 0;
+        while (true)
+        {
+            if (--left < 0)
+            {
+                throw new GridException("Program ran more than " + instructionLimit + " instructions");
+            }
+            if ((left & (CHECK_EVERY - 1)) == 0 && Thread.currentThread().isInterrupted())
+            {
+                throw new GridException("Program was interrupted");
+            }
+            int op = code[pc];
+            int a = code[pc + 1];
+            int b = code[pc + 2];
+            pc += 3;
+            switch (op)
+            {
+                case MoverCompiler.HALT:
+                    return;
+                case MoverCompiler.MOVE:
+                    move(g, a);
+                    break;
+                case MoverCompiler.MOVE_TO_WALL:
+                    a = g.distanceAhead();
+                    if (a > 0)
+                    {
+                        move(g, a);
+                    }
+                    break;
+                case MoverCompiler.TURN_LEFT:
+                    g.turnLeft();
+                    break;
+                case MoverCompiler.TURN_RIGHT:
+                    g.turnRight();
+                    break;
+                case MoverCompiler.PUT_DOWN:
+                    g.putDown();
+                    break;
+                case MoverCompiler.PICK_UP:
+                    g.pickUp();
+                    break;
+                case MoverCompiler.BLOCK:
+                    g.block(a, b);
+                    break;
+                case MoverCompiler.PUT_DOWN_AT:
+                    g.putDown(a, b);
+                    break;
+                case MoverCompiler.JUMP:
+                    pc = a;
+                    break;
+                case MoverCompiler.BRANCH_IF_FALSE:
+                    if (!test(g, a, saved))
+                    {
+                        pc = b;
+                    }
+                    break;
+                case MoverCompiler.SAVE:
+                    saved[b] = a == MoverCompiler.FRONT ? g.frontIsClear() : g.rightIsClear();
+                    break;
+                case MoverCompiler.REPEAT:
+                    if (counterTop == counters.length)
+                    {
+                        counters = deeper(counters);
+                    }
+                    counters[counterTop++] = a;
+                    break;
+                case MoverCompiler.LOOP:
+                    if (--counters[counterTop - 1] > 0)
+                    {
+                        pc = a;
+                    } else
+                    {
+                        counterTop--;
+                    }
+                    break;
+                case MoverCompiler.CALL:
+                    if (returnTop == returns.length)
+                    {
+                        returns = deeper(returns);
+                    }
+                    returns[returnTop++] = pc;
+                    pc = a;
+                    break;
+                case MoverCompiler.RETURN:
+                    pc = returns[--returnTop];
+                    break;
+                default:
+                    throw new IllegalStateException("bad instruction " + op + " at " + (pc - 3));
+            }
+        }
+    }
+
+    // A merged move is sent as one Grid command only while the path is shown.
+    // With it hidden, Grid.move(n) leaves the intersections it passes as they
+    // were, where each single move puts back the intersection it leaves.
+    private static void move(Grid g, int spaces)
+    {
+        if (spaces > 1 && g.isShowingPath())
+        {
+            g.move(spaces);
+        } else
+        {
+            for (int i = 0; i < spaces; i++)
+            {
+                g.move();
+            }
+        }
+    }
+
+    private static boolean test(Grid g, int condition, boolean[] saved)
+    {
+        int source = condition >> 1;
+        boolean result;
+        if (source == MoverCompiler.FRONT)
+        {
+            result = g.frontIsClear();
+        } else if (source == MoverCompiler.RIGHT)
+        {
+            result = g.rightIsClear();
+        } else
+        {
+            result = saved[source - MoverCompiler.SLOTS];
+        }
+        return result != ((condition & 1) != 0);
+    }
+
+    private static int[] deeper(int[] stack)
+    {
+        if (stack.length >= MAX_DEPTH)
+        {
+            throw new GridException("Program nested more than " + MAX_DEPTH + " calls or repeats");
+        }
+        return Arrays.copyOf(stack, stack.length * 2);
+    }
+
+    /**
+     * List the compiled instructions, one per line.
+     */
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 3)
+        {
+            result.append(pc / 3).append(": ").append(MoverCompiler.NAMES[code[pc]]);
+            int op = code[pc];
+            if (op == MoverCompiler.MOVE || op == MoverCompiler.REPEAT)
+            {
+                result.append(' ').append(code[pc + 1]);
+            } else if (op == MoverCompiler.JUMP || op == MoverCompiler.LOOP || op == MoverCompiler.CALL)
+            {
+                result.append(' ').append(code[pc + 1] / 3);
+            } else if (op == MoverCompiler.BRANCH_IF_FALSE)
+            {
+                result.append(' ').append(conditionName(code[pc + 1])).append(' ').append(code[pc + 2] / 3);
+            } else if (op == MoverCompiler.BLOCK || op == MoverCompiler.PUT_DOWN_AT)
+            {
+                result.append(' ').append(code[pc + 1]).append(' ').append(code[pc + 2]);
+            } else if (op == MoverCompiler.SAVE)
+            {
+                result.append(' ').append(conditionName(code[pc + 1] << 1)).append(" slot ").append(code[pc + 2]);
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    private static String conditionName(int condition)
+    {
+        int source = condition >> 1;
+        String name = source == MoverCompiler.FRONT ? "frontIsClear"
+                : source == MoverCompiler.RIGHT ? "rightIsClear"
+                : "slot " + (source - MoverCompiler.SLOTS);
+        return (condition & 1) != 0 ? "not " + name : name;
+    }
+}
@@ -0,0 +1,331 @@
+package testgridandgraphicgrid;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Intersections kept outside the Java heap, one byte each, for worlds too big
+ * to keep as a char[][] (or to copy with cloneArray). A Grid built on an
+ * OffHeapStore sends the same commands as any other Grid:
+ *
+ * try (OffHeapStore store = OffHeapStore.allocate(20000, 20000))
+ * {
+ * Grid g = new Grid(store, 0, 0, Grid.EAST);
+ * ...
+ * }
+ *
+ * allocate uses direct memory. create and open map a file instead, so the
+ * world can be bigger than the heap (the operating system pages it in and out)
+ * and is still there the next time: new Grid(OffHeapStore.open(file)) carries
+ * on where the last Grid on that file stopped, mover included.
+ *
+ * '.' is stored as 0, so a new store is already all '.' and a new file is
+ * written only where something is put. close() frees the memory or unmaps the
+ * file straight away rather than whenever the garbage collector gets to it;
+ * the store, and any Grid on it, must not be used after that.
+ */
+public final class OffHeapStore extends CellStore implements AutoCloseable
+{
+    private final static int MAGIC = 0x47524431;   // "GRD1"
+    private final static int HEADER = 64;          // magic rows cols moverRow moverCol facing hash counts
+    private final static int COUNTS = 32;          // where the counts start in the header
+    private final static int SEGMENT_BITS = 30;    // one ByteBuffer per GiB
+    private final static long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    // Unsafe.invokeCleaner, to free a buffer before the garbage collector would
+    private final static Object UNSAFE;
+    private final static Method CLEANER;
+
+    static
+    {
+        Object unsafe = null;
+        Method cleaner = null;
+        try
+        {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            cleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e)
+        {
+            unsafe = null;
+            cleaner = null;
+        }
+        UNSAFE = unsafe;
+        CLEANER = cleaner;
+    }
+
+//--instance variables
+    private int rows;
+    private int cols;
+    private ByteBuffer header;      // only in a mapped store
+    private ByteBuffer[] segments;
+    private FileChannel channel;    // only in a mapped store
+    private boolean fresh;          // nothing has been stored yet
+    private boolean closed;
+    private int savedRow;
+    private int savedCol;
+    private int savedFacing;
+    private long savedHash;
+    private long[] savedCounts = new long[4];
+
+    private OffHeapStore(int rows, int cols)
+    {
+        if (rows < 1 || cols < 1)
+        {
+            throw new IllegalArgumentException(rows + " by " + cols + " must be at least 1 by 1");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        segments = new ByteBuffer[(int) ((size() + SEGMENT_MASK) >>> SEGMENT_BITS)];
+    }
+
+    /**
+     * A rows by cols store in direct memory, all '.'.
+     */
+    public static OffHeapStore allocate(int rows, int cols)
+    {
+        OffHeapStore store = new OffHeapStore(rows, cols);
+        for (int i = 0; i < store.segments.length; i++)
+        {
+            store.segments[i] = ByteBuffer.allocateDirect(store.segmentSize(i));
+        }
+        store.fresh = true;
+        return store;
+    }
+
+    /**
+     * A rows by cols store, all '.', in a new file (replacing any file
+     * already there).
+     */
+    public static OffHeapStore create(Path file, int rows, int cols) throws IOException
+    {
+        OffHeapStore store = new OffHeapStore(rows, cols);
+        store.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        store.map();
+        store.header.putInt(0, MAGIC).putInt(4, rows).putInt(8, cols);
+        store.fresh = true;
+        return store;
+    }
+
+    /**
+     * The store in a file made by create, as the last Grid on it left it.
+     */
+    public static OffHeapStore open(Path file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0)
+        {
+        }
+        if (head.hasRemaining() || head.getInt(0) != MAGIC)
+        {
+            channel.close();
+            throw new IOException(file + " was not made by OffHeapStore.create");
+        }
+        OffHeapStore store = new OffHeapStore(head.getInt(4), head.getInt(8));
+        store.channel = channel;
+        store.map();
+        store.savedRow = head.getInt(12);
+        store.savedCol = head.getInt(16);
+        store.savedFacing = head.getInt(20);
+        store.savedHash = head.getLong(24);
+        for (int i = 0; i < store.savedCounts.length; i++)
+        {
+            store.savedCounts[i] = head.getLong(COUNTS + 8 * i);
+        }
+        return store;
+    }
+
+    private void map() throws IOException
+    {
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+        for (int i = 0; i < segments.length; i++)
+        {
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER + ((long) i << SEGMENT_BITS), segmentSize(i));
+        }
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getColumns()
+    {
+        return cols;
+    }
+
+    /**
+     * @return true until a Grid has been built on this store
+     */
+    boolean isFresh()
+    {
+        return fresh;
+    }
+
+    // The mover and hash saved by the last Grid on this store
+    int savedRow()
+    {
+        return savedRow;
+    }
+
+    int savedColumn()
+    {
+        return savedCol;
+    }
+
+    int savedFacing()
+    {
+        return savedFacing;
+    }
+
+    long savedHash()
+    {
+        return savedHash;
+    }
+
+    void savedCounts(long[] counts)
+    {
+        System.arraycopy(savedCounts, 0, counts, 0, counts.length);
+    }
+
+    char get(int r, int c)
+    {
+        long i = index(r, c);
+        byte b = segments[(int) (i >>> SEGMENT_BITS)].get((int) (i & SEGMENT_MASK));
+        return b == 0 ? Grid.intersectionChar : (char) b;
+    }
+
+    void put(int r, int c, char ch)
+    {
+        long i = index(r, c);
+        segments[(int) (i >>> SEGMENT_BITS)].put((int) (i & SEGMENT_MASK), ch == Grid.intersectionChar ? 0 : (byte) ch);
+        fresh = false;
+    }
+
+    void copyRow(int r, char[] dest, int cols)
+    {
+        for (int c = 0; c < cols; c++)
+        {
+            dest[c] = get(r, c);
+        }
+    }
+
+    void saveState(int moverRow, int moverCol, int facing, long cellHash, long[] counts)
+    {
+        savedRow = moverRow;
+        savedCol = moverCol;
+        savedFacing = facing;
+        savedHash = cellHash;
+        System.arraycopy(counts, 0, savedCounts, 0, savedCounts.length);
+        if (header != null)
+        {
+            header.putInt(12, moverRow).putInt(16, moverCol).putInt(20, facing).putLong(24, cellHash);
+            for (int i = 0; i < savedCounts.length; i++)
+            {
+                header.putLong(COUNTS + 8 * i, counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Write a mapped store out to its file, so it survives even if the
+     * operating system does not.
+     */
+    public void force()
+    {
+        checkOpen();
+        if (header != null)
+        {
+            ((MappedByteBuffer) header).force();
+            for (ByteBuffer segment : segments)
+            {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    /**
+     * Free the memory, or write out and unmap the file. Closing twice does
+     * nothing.
+     */
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        if (header != null)
+        {
+            force();
+        }
+        closed = true;     // a later get or put fails instead of touching freed memory
+        for (ByteBuffer segment : segments)
+        {
+            free(segment);
+        }
+        if (header != null)
+        {
+            free(header);
+            header = null;
+        }
+        if (channel != null)
+        {
+            channel.close();
+        }
+    }
+
+    private long size()
+    {
+        return (long) rows * cols;
+    }
+
+    private int segmentSize(int i)
+    {
+        return (int) Math.min(1L << SEGMENT_BITS, size() - ((long) i << SEGMENT_BITS));
+    }
+
+    private long index(int r, int c)
+    {
+        checkOpen();
+        if (r < 0 || r >= rows || c < 0 || c >= cols)
+        {
+            throw new ArrayIndexOutOfBoundsException("(" + r + ", " + c + ") is outside " + rows + " by " + cols);
+        }
+        return (long) r * cols + c;
+    }
+
+    private void checkOpen()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("OffHeapStore is closed");
+        }
+    }
+
+    // Release a direct or mapped buffer now. Java 13 has no public way to, so
+    // where Unsafe.invokeCleaner is missing this leaves it to the collector.
+    private static void free(ByteBuffer buffer)
+    {
+        if (CLEANER == null)
+        {
+            return;
+        }
+        try
+        {
+            CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e)
+        {
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package testgridandgraphicgrid;
+
+/**
+ * Called by a Grid after every command in place of sleeping. A Pacer may wait
+ * to slow the program down, or throw to stop it.
+ */
+interface Pacer
+{
+
+    void step(Grid g);
+}
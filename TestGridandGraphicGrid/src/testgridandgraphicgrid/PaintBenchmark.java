@@ -0,0 +1,307 @@
+package testgridandgraphicgrid;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * PaintBenchmark measures how long GraphicGridPanel takes to paint a Grid,
+ * and how much it allocates doing so, without opening a window: it runs
+ * with java.awt.headless set and paints into an offscreen BufferedImage.
+ * Each case is one Grid size, one cell size (the panel's spotWidth and
+ * spotHeight) and one mix of intersections:
+ *
+ * blocks   every intersection blocked
+ * things   a thing on every intersection
+ * sparse   one mover in a hundred, on unvisited intersections
+ *
+ * Run with no arguments to measure the panel, with the name of a Renderer
+ * (panel, glyphs or sprites) to measure that instead, or with compare to
+ * measure every Renderer on every case. Comparing also reports how many
+ * pixels each Renderer draws differently from the panel, so a faster way of
+ * drawing can be judged on both counts. A second argument sets the seconds
+ * spent measuring each case (0.5 if not given).
+ */
+public class PaintBenchmark
+{
+    private final static int MAX_PIXELS = 1 << 23;  // larger cases are skipped
+    private final static String[] MIXES = { "blocks", "things", "sparse" };
+    private final static int[][] SIZES = { { Grid.MAX_ROWS, Grid.MAX_COLUMNS }, { 100, 100 }, { 500, 500 } };
+    private final static int[][] CELLS = { { 5, 5 }, { 20, 20 }, { 40, 20 } };
+    private final static String[] RENDERERS = { "panel", "glyphs", "sprites" };
+
+    /**
+     * One way of drawing every intersection of a Grid. To compare a new
+     * way, add a class and its name to renderer and RENDERERS.
+     */
+    interface Renderer
+    {
+        /**
+         * Draw cells, each w by h pixels, onto the whole of g, which is
+         * cells[0].length * w by cells.length * h.
+         */
+        void paint(Graphics2D g, char[][] cells, int w, int h);
+    }
+
+    static Renderer renderer(String name)
+    {
+        if (name.equals("panel"))
+        {
+            return new PanelRenderer();
+        } else if (name.equals("glyphs"))
+        {
+            return new GlyphRenderer();
+        } else if (name.equals("sprites"))
+        {
+            return new SpriteRenderer();
+        }
+        throw new IllegalArgumentException("No renderer called " + name);
+    }
+
+    /**
+     * What the window does: GraphicGridPanel.paintComponent, which fills the
+     * background and then draws each intersection with Glyphs.draw.
+     */
+    private static final class PanelRenderer implements Renderer
+    {
+        private GraphicGridPanel panel;
+        private char[][] shown;
+
+        public void paint(Graphics2D g, char[][] cells, int w, int h)
+        {
+            if (cells != shown)
+            {
+                int rows = cells.length;
+                int cols = cells[0].length;
+                panel = new GraphicGridPanel(new Grid(rows, cols, 0, 0, Grid.NORTH), w, h);
+                panel.setSize(cols * w, rows * h);
+                panel.stateChanged(cells);
+                shown = cells;
+            }
+            g.setColor(panel.getForeground());  // as JComponent.paint does first
+            g.setFont(panel.getFont());
+            panel.paintComponent(g);
+        }
+    }
+
+    /**
+     * The same drawing as the panel without Swing: a background fill and
+     * Glyphs.draw for each intersection.
+     */
+    private static final class GlyphRenderer implements Renderer
+    {
+
+        public void paint(Graphics2D g, char[][] cells, int w, int h)
+        {
+            g.setColor(Glyphs.BACKGROUND);
+            g.fillRect(0, 0, cells[0].length * w, cells.length * h);
+            g.setColor(Glyphs.FOREGROUND);
+            for (int r = 0; r < cells.length; r++)
+            {
+                for (int c = 0; c < cells[r].length; c++)
+                {
+                    Glyphs.draw(g, c * w, r * h, w, h, cells[r][c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Each glyph drawn once, on its background, into a w by h image, and the
+     * Grid drawn as copies of those images.
+     */
+    private static final class SpriteRenderer implements Renderer
+    {
+        private BufferedImage[] sprites = new BufferedImage[128];
+        private int spriteWidth;
+        private int spriteHeight;
+
+        public void paint(Graphics2D g, char[][] cells, int w, int h)
+        {
+            if (w != spriteWidth || h != spriteHeight)
+            {
+                for (char ch : Glyphs.CHARS)
+                {
+                    BufferedImage sprite = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                    Graphics2D sg = sprite.createGraphics();
+                    sg.setColor(Glyphs.BACKGROUND);
+                    sg.fillRect(0, 0, w, h);
+                    sg.setColor(Glyphs.FOREGROUND);
+                    Glyphs.draw(sg, 0, 0, w, h, ch);
+                    sg.dispose();
+                    sprites[ch] = sprite;
+                }
+                spriteWidth = w;
+                spriteHeight = h;
+            }
+            for (int r = 0; r < cells.length; r++)
+            {
+                for (int c = 0; c < cells[r].length; c++)
+                {
+                    g.drawImage(sprites[cells[r][c]], c * w, r * h, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * A rows by cols Grid's chars, all of one mix; the same each time for
+     * the same arguments.
+     */
+    static char[][] cells(int rows, int cols, String mix)
+    {
+        char[][] cells = new char[rows][cols];
+        Random random = new Random(rows * 31L + cols);
+        for (int r = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++)
+            {
+                if (mix.equals("blocks"))
+                {
+                    cells[r][c] = Grid.blockChar;
+                } else if (mix.equals("things"))
+                {
+                    cells[r][c] = Grid.thingHereChar;
+                } else if (random.nextInt(100) == 0)
+                {
+                    cells[r][c] = Grid.iconFor(random.nextInt(4));
+                } else
+                {
+                    cells[r][c] = Grid.intersectionChar;
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Paint cells with renderer for about seconds, after as long again to
+     * warm up.
+     *
+     * @return the mean nanoseconds and bytes allocated per frame
+     */
+    static double[] measure(Renderer renderer, BufferedImage image, char[][] cells, int w, int h, double seconds)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = currentThreadId();
+        Graphics2D g = image.createGraphics();
+        long budget = (long) (seconds * 1e9);
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < budget)
+        {
+            renderer.paint(g, cells, w, h);
+        }
+        int frames = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+        long elapsed;
+        do
+        {
+            renderer.paint(g, cells, w, h);
+            frames++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget || frames < 3);
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        g.dispose();
+        return new double[] { (double) elapsed / frames, (double) allocated / frames };
+    }
+
+    // The id of this thread: from threadId on Java 19 and later, where getId
+    // is deprecated, and from getId before threadId existed
+    @SuppressWarnings("deprecation")
+    private static long currentThreadId()
+    {
+        try
+        {
+            return (Long) Thread.class.getMethod("threadId").invoke(Thread.currentThread());
+        } catch (ReflectiveOperationException e)
+        {
+            return Thread.currentThread().getId();
+        }
+    }
+
+    /**
+     * Paint cells with renderer once into image, cleared first.
+     */
+    static void paintOnce(Renderer renderer, BufferedImage image, char[][] cells, int w, int h)
+    {
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.gray);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        renderer.paint(g, cells, w, h);
+        g.dispose();
+    }
+
+    /**
+     * @return the fraction of pixels that differ between two images of the
+     * same size
+     */
+    static double difference(BufferedImage a, BufferedImage b)
+    {
+        int[] pa = ((DataBufferInt) a.getRaster().getDataBuffer()).getData();
+        int[] pb = ((DataBufferInt) b.getRaster().getDataBuffer()).getData();
+        long differ = 0;
+        for (int i = 0; i < pa.length; i++)
+        {
+            if (pa[i] != pb[i])
+            {
+                differ++;
+            }
+        }
+        return (double) differ / pa.length;
+    }
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+        String which = args.length > 0 ? args[0] : "panel";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+        boolean compare = which.equals("compare");
+        String[] names = compare ? RENDERERS : new String[] { which };
+        renderer(names[0]);     // an unknown name fails before anything is measured
+        for (int[] size : SIZES)
+        {
+            for (int[] cell : CELLS)
+            {
+                int w = cell[0];
+                int h = cell[1];
+                int width = size[1] * w;
+                int height = size[0] * h;
+                if ((long) width * height > MAX_PIXELS)
+                {
+                    continue;
+                }
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                BufferedImage reference = compare ? new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB) : null;
+                for (String mix : MIXES)
+                {
+                    char[][] cells = cells(size[0], size[1], mix);
+                    double panelNanos = 0;
+                    for (String name : names)
+                    {
+                        Renderer renderer = renderer(name);
+                        double[] result = measure(renderer, image, cells, w, h, seconds);
+                        System.out.printf("%-7s %3d x %-3d cell %2d x %-2d %-6s %9.3f ms/frame %,12.0f B/frame",
+                                name, size[0], size[1], w, h, mix, result[0] / 1e6, result[1]);
+                        if (compare)
+                        {
+                            paintOnce(renderer, image, cells, w, h);
+                            if (name.equals("panel"))
+                            {
+                                panelNanos = result[0];
+                                paintOnce(renderer, reference, cells, w, h);
+                            }
+                            System.out.printf("  %5.2fx panel, %.2f%% pixels differ",
+                                    panelNanos / result[0], 100 * difference(reference, image));
+                        }
+                        System.out.println();
+                    }
+                }
+            }
+        }
+    }
+
+} // end class PaintBenchmark
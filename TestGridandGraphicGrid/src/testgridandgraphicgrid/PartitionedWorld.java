@@ -0,0 +1,464 @@
+package testgridandgraphicgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PartitionedWorld runs one world of Swarm movers that is too big for one
+ * JVM by splitting its rows into horizontal bands, each stepped by its own
+ * BandWorker process. This object is the coordinator: it starts the workers,
+ * tells them how many ticks to run, and adds up what they report.
+ *
+ * The movers follow Swarm.FORWARD_OR_TURN under exactly the Swarm rules, so a
+ * partitioned run ends in the same world as one Swarm stepping the whole
+ * thing. Before each tick every worker sends the two rows at each edge of its
+ * band to the neighbour on that side. Those halo rows are all a band needs to
+ * resolve, the same way its neighbour does, every move across the edge
+ * between them: a mover leaving a band is dropped by it and adopted by the
+ * band it enters, with no further message.
+ *
+ * The world is made from a seed, row by row (see generateRow), so each worker
+ * builds only its own band and nothing the size of the world is ever sent.
+ * Every intersection is a block, with probability blocks, or else holds a
+ * thing with probability things and a mover with probability movers. The id
+ * of a mover is r * cols + c of the intersection it started on, so ids
+ * increase in the order Swarm.addMover would be called row by row.
+ *
+ * Workers listen on the loopback address and are started with the same java
+ * and class path as the coordinator.
+ */
+public class PartitionedWorld
+{
+    // commands the coordinator sends a worker
+    final static int RUN = 'T';
+    final static int GATHER = 'G';
+    final static int QUIT = 'Q';
+
+    private final static int CONNECT_MILLIS = 30000;
+
+//--instance variables
+    private int rows;
+    private int cols;
+    private double movers;
+    private double things;
+    private double blocks;
+    private long seed;
+    private int workers;
+    private ServerSocket server;
+    private Process[] processes;
+    private Socket[] sockets;
+    private DataInputStream[] in;
+    private DataOutputStream[] out;
+    private int[] bandMovers;         // the movers each band had after the last run
+    private long[] computeNanos;      // per worker, stepping its band
+    private long[] exchangeNanos;     // per worker, sending and waiting for halo rows
+    private long ticks;
+    private long moved;
+    private byte[] cells;             // the last gather, one char per intersection
+    private int[] occupant;           // id + 1 of the mover at r * cols + c, 0 when empty
+
+    /**
+     * Describe a world; nothing runs until start is called.
+     *
+     * @param rows The number of rows, at least two for each worker
+     * @param cols The number of columns
+     * @param movers The chance an intersection starts with a mover on it
+     * @param things The chance an intersection starts with a thing on it
+     * @param blocks The chance an intersection is blocked
+     * @param seed Makes the world; the same seed makes the same world
+     */
+    public PartitionedWorld(int rows, int cols, double movers, double things, double blocks, long seed)
+    {
+        if (rows < 2 || cols < 1 || (long) rows * cols > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Can't partition a world of " + rows + " by " + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.movers = movers;
+        this.things = things;
+        this.blocks = blocks;
+        this.seed = seed;
+    }
+
+    /**
+     * Start the worker processes and wait until each has built its band and
+     * is connected to its neighbours.
+     *
+     * @param workers The number of bands, and of processes
+     */
+    public void start(int workers) throws IOException
+    {
+        if (server != null)
+        {
+            throw new IllegalStateException("This world has already been started");
+        }
+        if (workers < 1 || workers > rows / 2)
+        {
+            throw new IllegalArgumentException("Can't split " + rows + " rows into " + workers + " bands of at least 2");
+        }
+        this.workers = workers;
+        processes = new Process[workers];
+        sockets = new Socket[workers];
+        in = new DataInputStream[workers];
+        out = new DataOutputStream[workers];
+        bandMovers = new int[workers];
+        computeNanos = new long[workers];
+        exchangeNanos = new long[workers];
+        server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(CONNECT_MILLIS);
+        try
+        {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int i = 0; i < workers; i++)
+            {
+                processes[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        BandWorker.class.getName(), Integer.toString(server.getLocalPort()))
+                        .inheritIO().start();
+            }
+            // workers connect in whatever order they come up, and say which port they listen on
+            int[] ports = new int[workers];
+            for (int i = 0; i < workers; i++)
+            {
+                sockets[i] = server.accept();
+                sockets[i].setTcpNoDelay(true);
+                in[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+                out[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+                ports[i] = in[i].readInt();
+            }
+            for (int i = 0; i < workers; i++)
+            {
+                out[i].writeInt(i);
+                out[i].writeInt(workers);
+                out[i].writeInt(cols);
+                out[i].writeInt(firstRow(i));
+                out[i].writeInt(firstRow(i + 1));
+                out[i].writeDouble(movers);
+                out[i].writeDouble(things);
+                out[i].writeDouble(blocks);
+                out[i].writeLong(seed);
+                out[i].writeInt(i > 0 ? ports[i - 1] : -1);
+                out[i].flush();
+            }
+            for (int i = 0; i < workers; i++)
+            {
+                bandMovers[i] = in[i].readInt();
+            }
+        } catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Step every band through ticks ticks and collect the workers' counts.
+     *
+     * @return the number of moves made, by all movers over all the ticks
+     */
+    public long run(int ticks) throws IOException
+    {
+        checkStarted();
+        for (int i = 0; i < workers; i++)
+        {
+            out[i].writeByte(RUN);
+            out[i].writeInt(ticks);
+            out[i].flush();
+        }
+        long count = 0;
+        for (int i = 0; i < workers; i++)
+        {
+            count += in[i].readLong();
+            bandMovers[i] = in[i].readInt();
+            computeNanos[i] += in[i].readLong();
+            exchangeNanos[i] += in[i].readLong();
+        }
+        this.ticks += ticks;
+        moved += count;
+        cells = null;
+        occupant = null;
+        return count;
+    }
+
+    /**
+     * Copy the whole world from the workers, for cellAt and moverAt. This
+     * needs memory for the whole world in the coordinator, so it is meant
+     * for checking and showing small worlds.
+     */
+    public void gather() throws IOException
+    {
+        checkStarted();
+        byte[] gathered = new byte[rows * cols];
+        int[] gatheredOccupant = new int[rows * cols];
+        for (int i = 0; i < workers; i++)
+        {
+            out[i].writeByte(GATHER);
+            out[i].flush();
+        }
+        for (int i = 0; i < workers; i++)
+        {
+            int from = firstRow(i) * cols;
+            int to = firstRow(i + 1) * cols;
+            in[i].readFully(gathered, from, to - from);
+            for (int k = from; k < to; k++)
+            {
+                gatheredOccupant[k] = in[i].readInt();
+            }
+        }
+        cells = gathered;
+        occupant = gatheredOccupant;
+    }
+
+    /**
+     * Stop the workers and wait for them to exit.
+     */
+    public void close() throws IOException
+    {
+        if (server == null)
+        {
+            return;
+        }
+        for (int i = 0; i < workers; i++)
+        {
+            if (out[i] != null)
+            {
+                try
+                {
+                    out[i].writeByte(QUIT);
+                    out[i].flush();
+                } catch (IOException e)
+                {
+                    // the worker has already gone
+                }
+                sockets[i].close();
+            }
+        }
+        server.close();
+        for (int i = 0; i < workers; i++)
+        {
+            if (processes[i] == null)
+            {
+                continue;
+            }
+            if (sockets[i] == null)
+            {   // it never connected, so it can't be told to quit
+                processes[i].destroyForcibly();
+                continue;
+            }
+            try
+            {
+                if (!processes[i].waitFor(CONNECT_MILLIS, TimeUnit.MILLISECONDS))
+                {
+                    processes[i].destroyForcibly();
+                }
+            } catch (InterruptedException e)
+            {
+                processes[i].destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+// -accessors
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getColumns()
+    {
+        return cols;
+    }
+
+    /**
+     * @return the number of bands the world was started with
+     */
+    public int getWorkers()
+    {
+        return workers;
+    }
+
+    /**
+     * @return the number of movers in the whole world after the last run
+     */
+    public long size()
+    {
+        long n = 0;
+        for (int i = 0; i < workers; i++)
+        {
+            n += bandMovers[i];
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of movers in band worker after the last run
+     */
+    public int size(int worker)
+    {
+        return bandMovers[worker];
+    }
+
+    /**
+     * @return the number of ticks run since start
+     */
+    public long getTicks()
+    {
+        return ticks;
+    }
+
+    /**
+     * @return the number of moves made since start
+     */
+    public long getMoved()
+    {
+        return moved;
+    }
+
+    /**
+     * @return the time worker has spent stepping its band since start
+     */
+    public long getComputeNanos(int worker)
+    {
+        return computeNanos[worker];
+    }
+
+    /**
+     * @return the time worker has spent sending its halo rows and waiting for
+     * its neighbours' since start
+     */
+    public long getExchangeNanos(int worker)
+    {
+        return exchangeNanos[worker];
+    }
+
+    /**
+     * @return the char of (r, c) as Grid.toString would show it, from the
+     * last gather
+     */
+    public char cellAt(int r, int c)
+    {
+        checkGathered();
+        return (char) cells[r * cols + c];
+    }
+
+    /**
+     * @return the id of the mover at (r, c) from the last gather, or -1 if
+     * there is none
+     */
+    public int moverAt(int r, int c)
+    {
+        checkGathered();
+        return occupant[r * cols + c] - 1;
+    }
+
+    /**
+     * The first row of band i of workers bands; band workers starts after the
+     * last row.
+     */
+    private int firstRow(int i)
+    {
+        return (int) ((long) rows * i / workers);
+    }
+
+    private void checkStarted()
+    {
+        if (server == null || server.isClosed())
+        {
+            throw new IllegalStateException("This world is not running");
+        }
+    }
+
+    private void checkGathered()
+    {
+        if (cells == null)
+        {
+            throw new IllegalStateException("Call gather first");
+        }
+    }
+
+    /**
+     * Make row r of the world made from seed, putting each intersection's
+     * char into cell, the id + 1 of its mover (or 0) into occupant, and the
+     * direction of its mover into facing, all from index at on. Each row has
+     * its own Random, so any band can be made without the rows before it.
+     */
+    static void generateRow(int r, int cols, double movers, double things, double blocks, long seed,
+            byte[] cell, int[] occupant, byte[] facing, int at)
+    {
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + r);
+        for (int c = 0; c < cols; c++, at++)
+        {
+            occupant[at] = 0;
+            facing[at] = 0;
+            if (random.nextDouble() < blocks)
+            {
+                cell[at] = Grid.blockChar;
+                continue;
+            }
+            boolean thing = random.nextDouble() < things;
+            if (random.nextDouble() < movers)
+            {
+                int direction = random.nextInt(4);
+                occupant[at] = r * cols + c + 1;
+                facing[at] = (byte) direction;
+                cell[at] = (byte) (thing ? Grid.moverOnThingChar : Grid.iconFor(direction));
+            } else
+            {
+                cell[at] = (byte) (thing ? Grid.thingHereChar : Grid.intersectionChar);
+            }
+        }
+    }
+
+    /**
+     * Measure agent-steps per second on a 4096 by 4096 world, with one mover
+     * on every 16 intersections, run by 1, 2, 4, ... worker processes up to
+     * the number of processors (or args[0]).
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        double one = 0;
+        for (int workers = 1; workers <= max; workers *= 2)
+        {
+            PartitionedWorld world = new PartitionedWorld(size, size, 1.0 / 16, 0.05, 0.05, 42);
+            try
+            {
+                world.start(workers);
+                world.run(10);  // warm up
+                long start = System.nanoTime();
+                world.run(ticks);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double rate = (double) world.size() * ticks / seconds;
+                if (workers == 1)
+                {
+                    one = rate;
+                }
+                long compute = 0;
+                long exchange = 0;
+                for (int i = 0; i < workers; i++)
+                {
+                    compute += world.getComputeNanos(i);
+                    exchange += world.getExchangeNanos(i);
+                }
+                System.out.printf("%2d workers: %,.0f agent-steps/s (%.2fx), %.0f%% of worker time exchanging%n",
+                        workers, rate, rate / one, 100.0 * exchange / (compute + exchange));
+            } finally
+            {
+                world.close();
+            }
+        }
+    }
+
+} // end class PartitionedWorld
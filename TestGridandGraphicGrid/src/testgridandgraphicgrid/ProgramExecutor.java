@@ -0,0 +1,376 @@
+package testgridandgraphicgrid;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ProgramExecutor runs many programs written against Grid at the same time,
+ * each with its own Grid. A program is ordinary code such as
+ *
+ * while (g.frontIsClear()) g.move();
+ *
+ * Each run has a step budget (the most commands it may send; it is stopped
+ * as soon as it has sent that many) and a wall-clock budget, and is paced:
+ * instead of the Grid's Thread.sleep, every command waits until the next
+ * step is due. A program that errors, runs out
+ * of budget, or is cancelled only ends its own run. With setLoopDetection a
+ * run is also stopped as soon as it comes back to a state it has already
+ * been in (see CycleDetector), so a stuck program ends in a few steps instead
+ * of using up its whole budget.
+ *
+ * On a JVM that has virtual threads (Java 21 and later) every program runs on
+ * its own virtual thread, so a paced program that is waiting holds no OS
+ * thread and one JVM can host a very large number of them. On older JVMs the
+ * programs share a pool of platform threads instead.
+ */
+public class ProgramExecutor
+{
+    /**
+     * A program that drives one Grid.
+     */
+    public interface Program
+    {
+        void run(Grid g);
+    }
+
+    /**
+     * How a run ended.
+     */
+    public enum Outcome
+    {
+        FINISHED, FAILED, STEP_LIMIT, TIME_LIMIT, LOOP, CANCELLED
+    }
+
+    /**
+     * What a run did: how it ended, how many commands it sent, and how long it
+     * took. The Grid is left as the program left it.
+     */
+    public static final class Result
+    {
+
+        private Outcome outcome;
+        private String message;
+        private long steps;
+        private long nanos;
+        private Grid grid;
+
+        Result(Outcome outcome, String message, long steps, long nanos, Grid grid)
+        {
+            this.outcome = outcome;
+            this.message = message;
+            this.steps = steps;
+            this.nanos = nanos;
+            this.grid = grid;
+        }
+
+        public Outcome getOutcome()
+        {
+            return outcome;
+        }
+
+        /**
+         * @return the error message of a FAILED run, otherwise null
+         */
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public long getSteps()
+        {
+            return steps;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        public Grid getGrid()
+        {
+            return grid;
+        }
+
+        public String toString()
+        {
+            return outcome + " after " + steps + " steps"
+                    + (message == null ? "" : ": " + message);
+        }
+    }
+
+//--instance variables
+    private ExecutorService workers;
+    private ScheduledExecutorService watchdog;
+    private boolean virtual;
+    private long maxSteps;
+    private long maxNanos;
+    private long stepNanos;
+    private int loopWindow;     // 0 when loops are not detected
+    private int loopVisits;
+
+    /**
+     * Construct an executor whose runs share the same limits.
+     *
+     * @param maxSteps The most commands one run may send, at least 1
+     * @param maxMillis The most wall-clock time one run may take
+     * @param stepMillis How long each command takes, like Grid.setSleepTime
+     * (0 runs as fast as possible)
+     */
+    public ProgramExecutor(long maxSteps, long maxMillis, long stepMillis)
+    {
+        if (maxSteps < 1)
+        {
+            throw new IllegalArgumentException("A run must be allowed at least one step, not " + maxSteps);
+        }
+        this.maxSteps = maxSteps;
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        this.stepNanos = TimeUnit.MILLISECONDS.toNanos(stepMillis);
+        workers = newVirtualThreadExecutor();
+        virtual = workers != null;
+        if (!virtual)
+        {
+            workers = Executors.newCachedThreadPool(daemonThreads("grid-program"));
+        }
+        ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1, daemonThreads("grid-program-watchdog"));
+        timers.setRemoveOnCancelPolicy(true);  // most runs finish before their timer fires
+        watchdog = timers;
+    }
+
+    /**
+     * Stop runs that keep returning to the same state, with Outcome.LOOP.
+     * Applies to programs submitted after this call.
+     *
+     * @param window How many recent states each run remembers (0 turns loop
+     * detection off)
+     * @param maxVisits How many times a run may be in one state
+     */
+    public void setLoopDetection(int window, int maxVisits)
+    {
+        loopWindow = window;
+        loopVisits = maxVisits;
+    }
+
+    /**
+     * @return true if programs run on virtual threads
+     */
+    public boolean usesVirtualThreads()
+    {
+        return virtual;
+    }
+
+    /**
+     * Start running program against g. The Grid must not be used by anything
+     * else until the run is over.
+     *
+     * @return a Future for the Result. Cancelling it (with
+     * mayInterruptIfRunning) stops the program the next time it sends a
+     * command.
+     */
+    public Future<Result> submit(final Grid g, final Program program)
+    {
+        if (g.getPacer() != null)
+        {
+            throw new IllegalStateException("This Grid is already running a program");
+        }
+        final Run run = new Run(loopWindow > 0 ? new CycleDetector(loopWindow, loopVisits) : null);
+        g.setPacer(run);
+        run.timer = watchdog.schedule(new Runnable()
+        {
+            public void run()
+            {
+                run.timeOut();
+            }
+        }, maxNanos, TimeUnit.NANOSECONDS);
+        return workers.submit(new Callable<Result>()
+        {
+            public Result call()
+            {
+                return run.execute(g, program);
+            }
+        });
+    }
+
+    /**
+     * How far the run on g has got, for showing progress while it runs.
+     *
+     * @return how many commands the program running on g has sent so far, or
+     * -1 if g is not running a program submitted to this executor
+     */
+    public long stepsSoFar(Grid g)
+    {
+        Pacer p = g.getPacer();
+        if (p instanceof Run && ((Run) p).owner() == this)
+        {
+            return ((Run) p).steps;
+        }
+        return -1;
+    }
+
+    /**
+     * Stop accepting programs and cancel those still running.
+     */
+    public void shutdown()
+    {
+        workers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() where the JVM has it
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name)
+    {
+        return new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    // Unwinds a program when its run has to stop. An Error, so that a program
+    // that catches Exception cannot swallow it.
+    private static final class Stop extends Error
+    {
+        private final static long serialVersionUID = 1L;
+
+        private Outcome outcome;
+
+        Stop(Outcome outcome)
+        {
+            super(outcome.toString(), null, false, false);
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * The pacing and budgets of one run; the Grid calls step after every
+     * command.
+     */
+    private class Run implements Pacer
+    {
+
+        private volatile long steps;    // only the program's thread writes it
+        private long started;
+        private long nextStep;
+        private volatile boolean timedOut;
+        private Thread thread;          // the thread running the program, while it runs
+        private CycleDetector cycles;   // null when loops are not detected
+        ScheduledFuture<?> timer;
+
+        Run(CycleDetector cycles)
+        {
+            this.cycles = cycles;
+        }
+
+        ProgramExecutor owner()
+        {
+            return ProgramExecutor.this;
+        }
+
+        // Called by the watchdog: wake the program if it is waiting
+        synchronized void timeOut()
+        {
+            timedOut = true;
+            if (thread != null)
+            {
+                thread.interrupt();
+            }
+        }
+
+        Result execute(Grid g, Program program)
+        {
+            synchronized (this)
+            {
+                thread = Thread.currentThread();
+            }
+            started = System.nanoTime();
+            nextStep = started;
+            if (cycles != null)
+            {
+                cycles.visit(g.stateHash());
+            }
+            Outcome outcome = Outcome.FINISHED;
+            String message = null;
+            try
+            {
+                program.run(g);
+            } catch (Stop stop)
+            {
+                outcome = stop.outcome;
+            } catch (GridException e)
+            {
+                outcome = Outcome.FAILED;
+                message = e.getMessage();
+            } catch (RuntimeException e)
+            {
+                outcome = Outcome.FAILED;
+                message = e.toString();
+            } finally
+            {
+                g.setPacer(null);
+                timer.cancel(false);
+                synchronized (this)
+                {
+                    thread = null;
+                }
+                if (!virtual)
+                {
+                    Thread.interrupted();   // don't leave a late interrupt on a pooled thread
+                }
+            }
+            return new Result(outcome, message, steps, System.nanoTime() - started, g);
+        }
+
+        public void step(Grid g)
+        {
+            steps++;
+            if (steps >= maxSteps)
+            {   // step runs after each command, so this is the last one allowed
+                throw new Stop(Outcome.STEP_LIMIT);
+            }
+            long now = System.nanoTime();
+            if (now - started > maxNanos || timedOut)
+            {
+                throw new Stop(Outcome.TIME_LIMIT);
+            }
+            if (cycles != null && cycles.visit(g.stateHash()))
+            {
+                throw new Stop(Outcome.LOOP);
+            }
+            // Wait until the next step is due; keeping a schedule rather than
+            // sleeping a fixed time stops the pace drifting
+            nextStep += stepNanos;
+            while (now < nextStep && !Thread.currentThread().isInterrupted())
+            {
+                LockSupport.parkNanos(nextStep - now);
+                now = System.nanoTime();
+            }
+            if (Thread.interrupted())
+            {
+                throw new Stop(timedOut ? Outcome.TIME_LIMIT : Outcome.CANCELLED);
+            }
+        }
+    }
+
+} // end class ProgramExecutor
@@ -0,0 +1,350 @@
+package testgridandgraphicgrid;
+
+/**
+ * A SparseGrid is a Grid without edges: rows and columns may be any int,
+ * negative ones included, and the mover only falls off when it passes
+ * Integer.MIN_VALUE or Integer.MAX_VALUE. It sends the same commands as Grid
+ * (move, turnLeft, block, putDown, pickUp, frontIsClear, rightIsClear) and
+ * shows intersections with the same chars.
+ *
+ * Only intersections that are not '.' are stored, in 64 by 64 chunks that are
+ * allocated the first time something is written into them and dropped again
+ * once they are all '.' again, so memory grows with the intersections that
+ * have been touched rather than with the area. The chunks are found in a
+ * LongMap keyed by chunk row and column; a lookup in a chunk that was never
+ * allocated is one probe of that map, and the chunk the mover is in is
+ * cached, so frontIsClear is usually answered without a map lookup at all.
+ *
+ * A SparseGrid never sleeps, has no listeners and cannot be shown in a
+ * GraphicGrid, which needs a bounded Grid. Errors throw a GridException.
+ */
+public class SparseGrid
+{
+    public final static int CHUNK_BITS = 6;
+    public final static int CHUNK_SIZE = 1 << CHUNK_BITS;     // 64 rows and columns
+    private final static int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // What a chunk stores; the mover itself is kept in currentRow, currentCol
+    private final static byte EMPTY = 0;
+    private final static byte BLOCK = 1;
+    private final static byte THING = 2;
+    private final static byte BEEN_THERE = 3;
+
+//--instance variables
+    private LongMap<Chunk> chunks = new LongMap<Chunk>();
+    private long cachedKey;         // the key of cachedChunk, which may be null
+    private Chunk cachedChunk;
+    private int currentRow;
+    private int currentCol;
+    private int facing;
+    private boolean showPath = true;   // as in Grid
+
+    /**
+     * Construct an empty SparseGrid.
+     *
+     * @param startRow The row in which the mover begins
+     * @param startCol The column in which the mover begins
+     * @param startDirection Grid.NORTH, Grid.EAST, Grid.SOUTH, or Grid.WEST
+     */
+    public SparseGrid(int startRow, int startCol, int startDirection)
+    {
+        if (startDirection < Grid.NORTH || startDirection > Grid.WEST)
+        {
+            throw new IllegalArgumentException("No such direction: " + startDirection);
+        }
+        currentRow = startRow;
+        currentCol = startCol;
+        facing = startDirection;
+        cachedKey = key(startRow, startCol);
+    }
+
+// -accessors
+    public int moverRow()
+    {
+        return currentRow;
+    }
+
+    public int moverColumn()
+    {
+        return currentCol;
+    }
+
+    /**
+     * @return Grid.NORTH, Grid.EAST, Grid.SOUTH, or Grid.WEST
+     */
+    public int facing()
+    {
+        return facing;
+    }
+
+    /**
+     * @return how many 64 by 64 chunks are allocated
+     */
+    public int chunkCount()
+    {
+        return chunks.size();
+    }
+
+    /**
+     * The char Grid would show at (r, c), the mover included.
+     */
+    public char charAt(int r, int c)
+    {
+        int cell = cell(r, c);
+        if (r == currentRow && c == currentCol)
+        {
+            return cell == THING ? Grid.moverOnThingChar : Grid.iconFor(facing);
+        }
+        if (cell == BLOCK)
+        {
+            return Grid.blockChar;
+        } else if (cell == THING)
+        {
+            return Grid.thingHereChar;
+        } else if (cell == BEEN_THERE)
+        {
+            return Grid.beenThereChar;
+        }
+        return Grid.intersectionChar;
+    }
+
+    /**
+     * Find out if the mover could move one space forward
+     */
+    public boolean frontIsClear()
+    {
+        return isClear(facing);
+    }
+
+    /**
+     * Find out if the mover could move one space to its right
+     */
+    public boolean rightIsClear()
+    {
+        return isClear((facing + 1) % 4);
+    }
+
+    /**
+     * Show rows by cols intersections with (top, left) in the upper left
+     * corner, in the same form as Grid.toString.
+     */
+    public String toString(int top, int left, int rows, int cols)
+    {
+        StringBuilder result = new StringBuilder("The Grid:\n");
+        for (int r = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++)
+            {
+                result.append(charAt(top + r, left + c)).append(' ');
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Show the Grid.MAX_ROWS by Grid.MAX_COLUMNS intersections around the
+     * mover.
+     */
+    public String toString()
+    {
+        return toString(currentRow - Grid.MAX_ROWS / 2, currentCol - Grid.MAX_COLUMNS / 2,
+                Grid.MAX_ROWS, Grid.MAX_COLUMNS);
+    }
+
+// -modifiers
+    /**
+     * Turn 90 degrees to the left. A thing under the mover is lost, as it is
+     * in Grid.
+     */
+    public void turnLeft()
+    {
+        facing = (facing + 3) % 4;
+        if (cell(currentRow, currentCol) == THING)
+        {
+            store(currentRow, currentCol, EMPTY);
+        }
+    }
+
+    /**
+     * Move one space forward. Moving into a block or past the last int row or
+     * column throws a GridException and leaves the mover where it was.
+     */
+    public void move()
+    {
+        if (atEdge(facing))
+        {
+            throw new GridException("Fell off the " + directionName(facing) + " edge");
+        }
+        int r = currentRow + Swarm.rowStep(facing);
+        int c = currentCol + Swarm.colStep(facing);
+        if (cell(r, c) == BLOCK)
+        {
+            throw new GridException("Attempt to move through the block at Grid(" + r + ", " + c + ")");
+        }
+        byte left = showPath ? BEEN_THERE : EMPTY;    // as Grid, which also wipes the path when it is off
+        byte here = cell(currentRow, currentCol);
+        if (here != THING && here != left)
+        {
+            store(currentRow, currentCol, left);
+        }
+        currentRow = r;
+        currentCol = c;
+    }
+
+    /**
+     * Place a block on intersection (blockRow, blockCol), which must be empty
+     * and not where the mover is.
+     */
+    public void block(int blockRow, int blockCol)
+    {
+        byte cell = cell(blockRow, blockCol);
+        if (cell == BLOCK)
+        {
+            throw new GridException("Can't block intersection that is already blocked at (" + blockRow + ", " + blockCol + ")");
+        }
+        if (cell == THING)
+        {
+            throw new GridException("Can't block intersection with a thing put down at(" + blockRow + ", " + blockCol + ")");
+        }
+        if (blockRow == currentRow && blockCol == currentCol)
+        {
+            throw new GridException("Can't block where the mover is at Grid(" + blockRow + ", " + blockCol + ")");
+        }
+        store(blockRow, blockCol, BLOCK);
+    }
+
+    public void putDown()
+    {
+        putDown(currentRow, currentCol);
+    }
+
+    /**
+     * Place a thing on intersection (putDownRow, putDownCol), which must not
+     * have a thing or a block already.
+     */
+    public void putDown(int putDownRow, int putDownCol)
+    {
+        byte cell = cell(putDownRow, putDownCol);
+        if (cell == THING || cell == BLOCK)
+        {
+            throw new GridException("This intersection has a thing or it has been blocked already(" + putDownRow + ", " + putDownCol + ")");
+        }
+        store(putDownRow, putDownCol, THING);
+    }
+
+    /**
+     * Pick up a thing from where the mover is.
+     */
+    public void pickUp()
+    {
+        if (cell(currentRow, currentCol) != THING)
+        {
+            throw new GridException("Attempt to pick up when nothing is at Grid(" + currentRow + ", " + currentCol + ")");
+        }
+        store(currentRow, currentCol, EMPTY);
+    }
+
+    public void toggleShowPath()
+    {
+        showPath = !showPath;
+    }
+
+    private boolean isClear(int direction)
+    {
+        return !atEdge(direction)
+                && cell(currentRow + Swarm.rowStep(direction), currentCol + Swarm.colStep(direction)) != BLOCK;
+    }
+
+    // Whether one more step in direction would pass the last int row or column
+    private boolean atEdge(int direction)
+    {
+        if (direction == Grid.NORTH)
+        {
+            return currentRow == Integer.MIN_VALUE;
+        } else if (direction == Grid.EAST)
+        {
+            return currentCol == Integer.MAX_VALUE;
+        } else if (direction == Grid.SOUTH)
+        {
+            return currentRow == Integer.MAX_VALUE;
+        }
+        return currentCol == Integer.MIN_VALUE;
+    }
+
+    private static String directionName(int direction)
+    {
+        return direction == Grid.NORTH ? "NORTH" : direction == Grid.EAST ? "EAST"
+                : direction == Grid.SOUTH ? "SOUTH" : "WEST";
+    }
+
+// The chunks
+    // Chunk row in the high half, chunk column in the low half
+    private static long key(int r, int c)
+    {
+        return ((long) (r >> CHUNK_BITS) << 32) | ((c >> CHUNK_BITS) & 0xFFFFFFFFL);
+    }
+
+    private static int index(int r, int c)
+    {
+        return ((r & CHUNK_MASK) << CHUNK_BITS) | (c & CHUNK_MASK);
+    }
+
+    private Chunk chunk(long key)
+    {
+        if (key != cachedKey)
+        {
+            cachedChunk = chunks.get(key);
+            cachedKey = key;
+        }
+        return cachedChunk;
+    }
+
+    private byte cell(int r, int c)
+    {
+        Chunk chunk = chunk(key(r, c));
+        return chunk == null ? EMPTY : chunk.cells[index(r, c)];
+    }
+
+    private void store(int r, int c, byte value)
+    {
+        long key = key(r, c);
+        Chunk chunk = chunk(key);
+        if (chunk == null)
+        {
+            if (value == EMPTY)
+            {
+                return;
+            }
+            chunk = new Chunk();
+            chunks.put(key, chunk);
+            cachedChunk = chunk;
+        }
+        int i = index(r, c);
+        if (chunk.cells[i] == EMPTY)
+        {
+            chunk.used++;
+        }
+        if (value == EMPTY)
+        {
+            chunk.used--;
+        }
+        chunk.cells[i] = value;
+        if (chunk.used == 0)
+        {
+            chunks.remove(key);
+            cachedChunk = null;
+        }
+    }
+
+    /**
+     * 64 by 64 intersections, row by row, and how many of them are not EMPTY.
+     */
+    private static final class Chunk
+    {
+
+        byte[] cells = new byte[CHUNK_SIZE * CHUNK_SIZE];
+        int used;
+    }
+
+} // end class SparseGrid
@@ -0,0 +1,330 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A Swarm places many movers on one Grid object so thousands of agents can
+ * share a single world. Each mover has an id (0, 1, 2, ... in the order the
+ * movers were added), a position, and a direction. The movers are kept in
+ * parallel primitive arrays rather than one object per mover, and an occupancy
+ * index records which mover (if any) is on each intersection so a collision
+ * check is a single array lookup.
+ *
+ * All movers advance together in a tick. A Controller picks an action for
+ * every mover from the state at the start of the tick, then moves that would
+ * collide are resolved (the lowest id wins a contested intersection, and no
+ * mover may enter an intersection that was occupied when the tick started),
+ * and finally the surviving actions are applied. Because no decision depends
+ * on the order movers are visited, the sequential and the parallel
+ * (row-partitioned) tick give exactly the same result.
+ *
+ * Unlike Grid, an action that is not possible is not an error: a mover that
+ * cannot move forward, put down a thing where one already is, or pick up a
+ * thing where there is none simply stays as it is for that tick. Blocks stop
+ * movers exactly as they stop the Grid's own mover.
+ */
+public class Swarm
+{
+    // actions a Controller may choose for a mover
+
+    public final static int STAY = 0;
+    public final static int MOVE = 1;
+    public final static int TURN_LEFT = 2;
+    public final static int PUT_DOWN = 3;
+    public final static int PICK_UP = 4;
+
+    /**
+     * Decides the next action of one mover. In parallel mode decide is called
+     * from several threads at once, so it should only read the Swarm.
+     */
+    public interface Controller
+    {
+        /**
+         * @param swarm The Swarm that owns the mover
+         * @param mover The id of the mover to decide for
+         * @return Swarm.STAY, Swarm.MOVE, Swarm.TURN_LEFT, Swarm.PUT_DOWN, or
+         * Swarm.PICK_UP
+         */
+        int decide(Swarm swarm, int mover);
+    }
+
+    /**
+     * Move forward when the intersection ahead is free, otherwise turn left.
+     */
+    public final static Controller FORWARD_OR_TURN = new Controller()
+    {
+        public int decide(Swarm swarm, int mover)
+        {
+            if (swarm.frontIsFree(mover))
+            {
+                return MOVE;
+            }
+            return TURN_LEFT;
+        }
+    };
+
+//--instance variables (package access so WorldStepper can step them)
+    Grid grid;
+    int rows;
+    int cols;
+    int count;            // the number of movers
+    int[] moverRow;       // moverRow[id] is the row of mover id
+    int[] moverCol;       // moverCol[id] is the column of mover id
+    byte[] moverFacing;   // moverFacing[id] is Grid.NORTH, EAST, SOUTH, or WEST
+    int[] occupant;       // id + 1 of the mover at r * cols + c, 0 when empty
+    // The back buffers: a tick reads only the arrays above and writes only
+    // these, then publishes them once every mover has been resolved
+    int[] nextRow;
+    int[] nextCol;
+    byte[] nextFacing;
+    int[] nextOccupant;
+    byte[] action;        // what each mover chose this tick
+    byte[] outcome;       // what each mover actually does this tick
+    private boolean parallel;
+    private WorldStepper stepper;
+
+    /**
+     * Construct an empty Swarm whose movers live on g. Movers are drawn into g
+     * so any GraphicGrid showing g shows the whole swarm.
+     *
+     * @param g The Grid the movers share
+     */
+    public Swarm(Grid g)
+    {
+        grid = g;
+        rows = g.getRows();
+        cols = g.getColumns();
+        occupant = new int[rows * cols];
+        nextOccupant = new int[rows * cols];
+        moverRow = new int[16];
+        moverCol = new int[16];
+        moverFacing = new byte[16];
+        nextRow = new int[16];
+        nextCol = new int[16];
+        nextFacing = new byte[16];
+        action = new byte[16];
+        outcome = new byte[16];
+    }
+
+// -accessors
+    /**
+     * @return the number of movers in this Swarm
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    public int moverRow(int mover)
+    {
+        return moverRow[mover];
+    }
+
+    public int moverColumn(int mover)
+    {
+        return moverCol[mover];
+    }
+
+    /**
+     * @return Grid.NORTH, Grid.EAST, Grid.SOUTH, or Grid.WEST
+     */
+    public int facing(int mover)
+    {
+        return moverFacing[mover];
+    }
+
+    /**
+     * @return the Grid this Swarm's movers live on
+     */
+    public Grid getGrid()
+    {
+        return grid;
+    }
+
+    /**
+     * Find out if any mover (including the Grid's own mover) is at (r, c).
+     */
+    public boolean isOccupied(int r, int c)
+    {
+        return occupant[r * cols + c] != 0
+                || (r == grid.moverRow() && c == grid.moverColumn());
+    }
+
+    /**
+     * @return the id of the Swarm mover at (r, c), or -1 if there is none
+     */
+    public int moverAt(int r, int c)
+    {
+        return occupant[r * cols + c] - 1;
+    }
+
+    /**
+     * Find out if the mover could move forward if no other mover were in the
+     * way: the intersection ahead is inside the Grid and not blocked.
+     */
+    public boolean frontIsClear(int mover)
+    {
+        int r = moverRow[mover] + rowStep(moverFacing[mover]);
+        int c = moverCol[mover] + colStep(moverFacing[mover]);
+        return r >= 0 && r < rows && c >= 0 && c < cols
+                && grid.cellAt(r, c) != Grid.blockChar;
+    }
+
+    /**
+     * Find out if the intersection ahead of the mover is clear and nobody is
+     * on it.
+     */
+    public boolean frontIsFree(int mover)
+    {
+        return frontIsClear(mover)
+                && !isOccupied(moverRow[mover] + rowStep(moverFacing[mover]),
+                        moverCol[mover] + colStep(moverFacing[mover]));
+    }
+
+    /**
+     * Find out if there is a thing under the mover, so it could pickUp.
+     */
+    public boolean isOnThing(int mover)
+    {
+        return grid.cellAt(moverRow[mover], moverCol[mover]) == Grid.moverOnThingChar;
+    }
+
+// -modifiers
+    /**
+     * Add a mover to the Swarm.
+     *
+     * @param row The row in which the mover begins
+     * @param col The column in which the mover begins
+     * @param direction Grid.NORTH, Grid.EAST, Grid.SOUTH, or Grid.WEST
+     * @return the id of the new mover
+     * @throws IllegalArgumentException if (row, col) is outside the Grid,
+     * blocked, or already has a mover on it
+     */
+    public int addMover(int row, int col, int direction)
+    {
+        if (row < 0 || row >= rows || col < 0 || col >= cols)
+        {
+            throw new IllegalArgumentException("Can't place a mover outside the Grid at (" + row + ", " + col + ")");
+        }
+        if (grid.cellAt(row, col) == Grid.blockChar)
+        {
+            throw new IllegalArgumentException("Can't place a mover on a block at (" + row + ", " + col + ")");
+        }
+        if (isOccupied(row, col))
+        {
+            throw new IllegalArgumentException("Can't place a mover on another mover at (" + row + ", " + col + ")");
+        }
+        if (direction < Grid.NORTH || direction > Grid.WEST)
+        {
+            throw new IllegalArgumentException("Unknown direction " + direction);
+        }
+        ensureCapacity(count + 1);
+        int id = count++;
+        moverRow[id] = nextRow[id] = row;
+        moverCol[id] = nextCol[id] = col;
+        moverFacing[id] = nextFacing[id] = (byte) direction;
+        occupant[row * cols + col] = nextOccupant[row * cols + col] = id + 1;
+        char old = grid.cellAt(row, col);
+        grid.xorHash(enter(row, col, direction));
+        grid.countChange(old, grid.cellAt(row, col));
+        if (grid.hasCellListeners())
+        {
+            grid.cellsChanged(new int[] { row * cols + col }, 1);
+        }
+        return id;
+    }
+
+    /**
+     * Choose whether tick() splits the rows of the Grid into tiles that are
+     * stepped on the common ForkJoinPool. The result is the same either way.
+     */
+    public void setParallel(boolean on)
+    {
+        if (on != parallel)
+        {
+            stepper = null;
+        }
+        parallel = on;
+    }
+
+    /**
+     * Advance every mover by one action chosen by controller, then notify the
+     * Grid's listener once. Call this from one thread at a time, and do not
+     * change the Grid (block, putDown, ...) while a tick is running.
+     *
+     * @return the number of movers that moved
+     */
+    public int tick(Controller controller)
+    {
+        if (stepper == null)
+        {
+            if (parallel)
+            {
+                stepper = new WorldStepper(this, ForkJoinPool.commonPool(), WorldStepper.DEFAULT_TILE_ROWS);
+            } else
+            {
+                stepper = new WorldStepper(this, null, Math.max(3, rows));
+            }
+        }
+        int moved = stepper.step(controller);
+        grid.stateChanged();
+        return moved;
+    }
+
+    // Make room in every per-mover array for at least n movers
+    void ensureCapacity(int n)
+    {
+        if (n > moverRow.length)
+        {
+            int size = Math.max(n, moverRow.length * 2);
+            moverRow = Arrays.copyOf(moverRow, size);
+            moverCol = Arrays.copyOf(moverCol, size);
+            moverFacing = Arrays.copyOf(moverFacing, size);
+            nextRow = Arrays.copyOf(nextRow, size);
+            nextCol = Arrays.copyOf(nextCol, size);
+            nextFacing = Arrays.copyOf(nextFacing, size);
+            action = Arrays.copyOf(action, size);
+            outcome = Arrays.copyOf(outcome, size);
+        }
+    }
+
+    // Same path rules as Grid.move for the intersection being left. Like
+    // Grid.storeCell, this and enter return the change to the Grid's hash.
+    long leave(int r, int c)
+    {
+        if (grid.cellAt(r, c) == Grid.moverOnThingChar)
+        {
+            return grid.storeCell(r, c, Grid.thingHereChar);
+        } else if (grid.isShowingPath())
+        {
+            return grid.storeCell(r, c, Grid.beenThereChar);
+        } else
+        {
+            return grid.storeCell(r, c, Grid.intersectionChar);
+        }
+    }
+
+    long enter(int r, int c, int direction)
+    {
+        char here = grid.cellAt(r, c);
+        if (here == Grid.thingHereChar || here == Grid.moverOnThingChar)
+        {
+            return grid.storeCell(r, c, Grid.moverOnThingChar);
+        } else
+        {
+            return grid.storeCell(r, c, Grid.iconFor(direction));
+        }
+    }
+
+    static int rowStep(int direction)
+    {
+        return direction == Grid.NORTH ? -1 : direction == Grid.SOUTH ? 1 : 0;
+    }
+
+    static int colStep(int direction)
+    {
+        return direction == Grid.WEST ? -1 : direction == Grid.EAST ? 1 : 0;
+    }
+
+} // end class Swarm
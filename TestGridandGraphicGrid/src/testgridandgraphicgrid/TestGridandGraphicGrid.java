@@ -1,11 +1,157 @@
 package testgridandgraphicgrid;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Opens the interactive GraphicGrid window, or with arguments works without
+ * any window:
+ *
+ * check file       compile the mover program in file and list its instructions
+ * run file [r c]   run it on an r by c Grid (10 by 10 if not given) with a
+ *                  border and one exit, then print the Grid; r and c are
+ *                  from 3 up to Grid.MAX_ROWS and Grid.MAX_COLUMNS
+ * profile file [r c]  run it the same way, then list the ten intersections
+ *                  where it made the most moves and turns
+ * export file out [r c]  run it the same way, recording every step, then
+ *                  write out: the end as a .png, or the whole run as an
+ *                  animated .gif or .apng (see GridExporter)
+ * fuzz [s [t [seed]]]  compare Grid with its faster engines on random
+ *                  commands for s seconds on t threads (see GridFuzzer)
+ *
+ * A file of - reads the program from standard input. A program that makes
+ * the Grid fail, by moving into a block for example, ends with the error and
+ * status 1. Without a window Swing is never loaded, so these start quickly,
+ * and quicker still with the class data archive made by "ant cds" (see
+ * build.xml).
+ */
 public class TestGridandGraphicGrid
 {
+    private final static int CELL_SIZE = 20;        // as in the window
+    private final static int FRAME_MILLIS = 100;
+
+    // Lets a Grid error throw a GridException, ending the run with status 1,
+    // instead of exiting with status 0
+    private final static Pacer QUIET = new Pacer()
+    {
+        public void step(Grid g)
+        {
+        }
+    };
 
     public static void main(String[] args)
-    {        
+    {
+        if (args.length == 0)
+        {
+            openWindow();
+            return;
+        }
+        try
+        {
+            if (args[0].equals("fuzz"))
+            {
+                GridFuzzer.main(Arrays.copyOfRange(args, 1, args.length));
+            } else if (args[0].equals("check") && args.length == 2)
+            {
+                System.out.print(MoverProgram.compile(read(args[1])));
+            } else if ((args[0].equals("run") || args[0].equals("profile")) && (args.length == 2 || args.length == 4))
+            {
+                MoverProgram program = MoverProgram.compile(read(args[1]));
+                int rows = args.length == 4 ? size(args[2], "rows", Grid.MAX_ROWS) : 10;
+                int cols = args.length == 4 ? size(args[3], "columns", Grid.MAX_COLUMNS) : 10;
+                Grid g = new Grid(rows, cols);
+                g.setPacer(QUIET);
+                g.setProfiling(args[0].equals("profile"));
+                program.run(g);
+                System.out.println(g);
+                if (g.isProfiling())
+                {
+                    System.out.print(g.hotspots(10));
+                }
+            } else if (args[0].equals("export") && (args.length == 3 || args.length == 5))
+            {
+                MoverProgram program = MoverProgram.compile(read(args[1]));
+                int rows = args.length == 5 ? size(args[3], "rows", Grid.MAX_ROWS) : 10;
+                int cols = args.length == 5 ? size(args[4], "columns", Grid.MAX_COLUMNS) : 10;
+                export(program, new Grid(rows, cols), args[2]);
+            } else
+            {
+                System.err.println("usage: check file | run file [rows cols] | profile file [rows cols] | export file out [rows cols] | fuzz [seconds [threads [seed]]]");
+                System.exit(2);
+            }
+        } catch (IllegalArgumentException | IOException | GridException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // A Grid with a border needs a row and a column inside it, so the size
+    // is checked here rather than left to the Grid, which ends the program
+    private static int size(String arg, String name, int most)
+    {
+        int n;
+        try
+        {
+            n = Integer.parseInt(arg);
+        } catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(name + " must be a number, not " + arg);
+        }
+        if (n < 3 || n > most)
+        {
+            throw new IllegalArgumentException(name + " must be from 3 to " + most + ", not " + n);
+        }
+        return n;
+    }
+
+    // Kept apart from main so that Swing is only loaded when the window is wanted
+    private static void openWindow()
+    {
         GraphicGrid gg1 = new GraphicGrid();
     }
 
+    private static void export(MoverProgram program, Grid g, String file) throws IOException
+    {
+        String name = file.toLowerCase();
+        if (!name.endsWith(".png") && !name.endsWith(".gif") && !name.endsWith(".apng"))
+        {
+            throw new IllegalArgumentException("Can't tell from its name what kind of image " + file + " is");
+        }
+        g.setSleepTime(0);
+        g.setPacer(QUIET);
+        GridRecorder recorder = new GridRecorder(g);
+        try
+        {
+            program.run(g);
+        } finally
+        {
+            recorder.stop();
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(file)), 1 << 16))
+        {
+            if (name.endsWith(".png"))
+            {
+                GridExporter.writePng(g, CELL_SIZE, out);
+            } else if (name.endsWith(".gif"))
+            {
+                GridExporter.writeGif(recorder, CELL_SIZE, 1, FRAME_MILLIS, out);
+            } else
+            {
+                GridExporter.writeApng(recorder, CELL_SIZE, 1, FRAME_MILLIS, out);
+            }
+        }
+    }
+
+    private static String read(String file) throws IOException
+    {
+        byte[] bytes = file.equals("-") ? System.in.readAllBytes() : Files.readAllBytes(Paths.get(file));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
 }
@@ -0,0 +1,408 @@
+package testgridandgraphicgrid;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * WorldStepper advances every mover of a Swarm by one synchronous tick. The
+ * rows of the Grid are split into tiles of tileRows rows each, and the tiles
+ * are stepped as ForkJoin tasks.
+ *
+ * A tick has three passes:
+ *
+ * 1. Each tile lets its movers decide, and settles every action that cannot
+ * conflict with a mover of another tile. A move is settled here when the
+ * target and every intersection a rival could enter it from lie inside the
+ * tile.
+ *
+ * 2. The moves left over near tile borders are settled one tile after another
+ * in a fixed order, so the outcome never depends on thread timing.
+ *
+ * 3. Each tile publishes the new state and draws it into the Grid.
+ *
+ * Mover state and the occupancy index are double-buffered: passes 1 and 2 read
+ * only the state as it was when the tick started and write only the back
+ * buffers, so a Controller sees the same world no matter which tiles have
+ * already run.
+ */
+public class WorldStepper
+{
+    public final static int DEFAULT_TILE_ROWS = 64;
+
+    // passes of a tick
+    private final static int DECIDE = 0;
+    private final static int PUBLISH = 1;
+
+//--instance variables
+    private Swarm swarm;
+    private ForkJoinPool pool;    // null steps every tile on the calling thread
+    private int tileRows;
+    private int tiles;
+    private int[] order;          // mover ids grouped by tile
+    private int[] tileStart;      // order[tileStart[t]] is the first mover in tile t
+    private int[] border;         // unsettled movers of tile t start at border[tileStart[t]]
+    private int[] borderEnd;
+    private int[] moved;          // moved[t] is how many movers of tile t moved
+    private long[] hashDelta;     // hashDelta[t] is how tile t changed the Grid's hash
+    private long[][] counts;      // counts[t] is how tile t changed the Grid's counts
+    private int[][] changed;      // intersections tile t changed, when the Grid has cell listeners
+    private int[] changedCount;
+    private Swarm.Controller controller;
+
+    /**
+     * Construct a stepper for swarm.
+     *
+     * @param swarm The movers to step
+     * @param pool The pool that steps the tiles, or null to step them all on
+     * the calling thread
+     * @param tileRows How many rows of the Grid go in one tile (at least 3)
+     */
+    public WorldStepper(Swarm swarm, ForkJoinPool pool, int tileRows)
+    {
+        if (tileRows < 3)
+        {
+            throw new IllegalArgumentException("tiles must have at least 3 rows, not " + tileRows);
+        }
+        this.swarm = swarm;
+        this.pool = pool;
+        this.tileRows = tileRows;
+        tiles = (swarm.rows + tileRows - 1) / tileRows;
+        tileStart = new int[tiles + 1];
+        borderEnd = new int[tiles];
+        moved = new int[tiles];
+        hashDelta = new long[tiles];
+        counts = new long[tiles][4];
+        changed = new int[tiles][16];
+        changedCount = new int[tiles];
+    }
+
+    /**
+     * Advance every mover by one action. This does not notify the Grid's
+     * listener; Swarm.tick does that.
+     *
+     * @return the number of movers that moved
+     */
+    public int step(Swarm.Controller controller)
+    {
+        this.controller = controller;
+        groupByTile();
+
+        run(DECIDE);
+        for (int t = 0; t < tiles; t++)
+        {
+            for (int i = tileStart[t]; i < borderEnd[t]; i++)
+            {
+                settleMove(border[i]);
+            }
+        }
+        boolean listened = swarm.grid.hasCellListeners();
+        run(PUBLISH);
+
+        this.controller = null;
+        int total = 0;
+        for (int t = 0; t < tiles; t++)
+        {
+            total += moved[t];
+            swarm.grid.xorHash(hashDelta[t]);
+            swarm.grid.addCounts(counts[t]);
+            if (listened)
+            {
+                swarm.grid.cellsChanged(changed[t], changedCount[t]);
+            }
+        }
+        return total;
+    }
+
+    private void run(int pass)
+    {
+        if (pool == null || tiles == 1)
+        {
+            for (int t = 0; t < tiles; t++)
+            {
+                stepTile(pass, t);
+            }
+        } else
+        {
+            pool.invoke(new TileTask(pass, 0, tiles));
+        }
+    }
+
+    // Splits a range of tiles in half until one tile is left
+    private class TileTask extends RecursiveAction
+    {
+        private final static long serialVersionUID = 1L;
+
+        private int pass;
+        private int from;
+        private int to;
+
+        TileTask(int pass, int from, int to)
+        {
+            this.pass = pass;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                stepTile(pass, from);
+            } else
+            {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(pass, from, mid), new TileTask(pass, mid, to));
+            }
+        }
+    }
+
+    // Counting sort of the mover ids by tile, so each tile is a slice of order
+    private void groupByTile()
+    {
+        int n = swarm.count;
+        if (order == null || order.length < n)
+        {
+            order = new int[swarm.moverRow.length];
+            border = new int[swarm.moverRow.length];
+        }
+        Arrays.fill(tileStart, 0);
+        for (int id = 0; id < n; id++)
+        {
+            tileStart[swarm.moverRow[id] / tileRows + 1]++;
+        }
+        for (int t = 0; t < tiles; t++)
+        {
+            tileStart[t + 1] += tileStart[t];
+        }
+        for (int t = 0; t < tiles; t++)
+        {
+            borderEnd[t] = tileStart[t];    // used as the fill position for now
+        }
+        for (int id = 0; id < n; id++)
+        {
+            order[borderEnd[swarm.moverRow[id] / tileRows]++] = id;
+        }
+    }
+
+    private void stepTile(int pass, int t)
+    {
+        int from = tileStart[t];
+        int to = tileStart[t + 1];
+        if (pass == DECIDE)
+        {
+            for (int i = from; i < to; i++)
+            {
+                decide(order[i]);
+            }
+            int firstRow = t * tileRows;
+            int lastRow = Math.min(firstRow + tileRows, swarm.rows) - 1;
+            borderEnd[t] = from;
+            for (int i = from; i < to; i++)
+            {
+                int id = order[i];
+                if (swarm.action[id] != Swarm.MOVE)
+                {
+                    settle(id, swarm.action[id]);
+                    continue;
+                }
+                // rivals for the target are at most one row above or below it
+                int tr = swarm.moverRow[id] + Swarm.rowStep(swarm.moverFacing[id]);
+                if (tr - 1 >= firstRow && tr + 1 <= lastRow)
+                {
+                    settleMove(id);
+                } else
+                {
+                    border[borderEnd[t]++] = id;
+                }
+            }
+        } else
+        {
+            int count = 0;
+            long delta = 0;
+            boolean listened = swarm.grid.hasCellListeners();
+            long[] tileCounts = counts[t];
+            Arrays.fill(tileCounts, 0);
+            changedCount[t] = 0;
+            for (int i = from; i < to; i++)
+            {
+                int id = order[i];
+                int what = swarm.outcome[id];
+                if (what == Swarm.STAY)
+                {
+                    delta ^= publish(id);
+                    continue;
+                }
+                int r = swarm.moverRow[id];
+                int c = swarm.moverCol[id];
+                int nr = swarm.nextRow[id];
+                int nc = swarm.nextCol[id];
+                if (listened)
+                {
+                    record(t, r * swarm.cols + c);
+                    if (what == Swarm.MOVE)
+                    {
+                        record(t, nr * swarm.cols + nc);
+                    }
+                }
+                // no other mover touches these intersections this tick
+                char here = swarm.grid.cellAt(r, c);
+                char there = swarm.grid.cellAt(nr, nc);
+                delta ^= publish(id);
+                Grid.countChange(tileCounts, here, swarm.grid.cellAt(r, c));
+                if (what == Swarm.MOVE)
+                {
+                    count++;
+                    Grid.countChange(tileCounts, there, swarm.grid.cellAt(nr, nc));
+                }
+            }
+            moved[t] = count;
+            hashDelta[t] = delta;
+        }
+    }
+
+    private void record(int t, int cell)
+    {
+        if (changedCount[t] == changed[t].length)
+        {
+            changed[t] = Arrays.copyOf(changed[t], changedCount[t] * 2);
+        }
+        changed[t][changedCount[t]++] = cell;
+    }
+
+    // Ask the controller, and turn an impossible action into STAY
+    private void decide(int id)
+    {
+        int choice = controller.decide(swarm, id);
+        if (choice < Swarm.STAY || choice > Swarm.PICK_UP)
+        {
+            choice = Swarm.STAY;
+        } else if (choice == Swarm.MOVE && !swarm.frontIsFree(id))
+        {
+            choice = Swarm.STAY;
+        } else if (choice == Swarm.PUT_DOWN && swarm.isOnThing(id))
+        {
+            choice = Swarm.STAY;
+        } else if (choice == Swarm.PICK_UP && !swarm.isOnThing(id))
+        {
+            choice = Swarm.STAY;
+        }
+        swarm.action[id] = (byte) choice;
+    }
+
+    // Of the movers heading into one intersection only the lowest id goes
+    private void settleMove(int id)
+    {
+        int tr = swarm.moverRow[id] + Swarm.rowStep(swarm.moverFacing[id]);
+        int tc = swarm.moverCol[id] + Swarm.colStep(swarm.moverFacing[id]);
+        for (int d = Grid.NORTH; d <= Grid.WEST; d++)
+        {
+            // a rival stands one step from the target and faces into it
+            int rr = tr - Swarm.rowStep(d);
+            int rc = tc - Swarm.colStep(d);
+            if (rr < 0 || rr >= swarm.rows || rc < 0 || rc >= swarm.cols)
+            {
+                continue;
+            }
+            int rival = swarm.occupant[rr * swarm.cols + rc] - 1;
+            if (rival >= 0 && rival < id && swarm.action[rival] == Swarm.MOVE && swarm.moverFacing[rival] == d)
+            {
+                settle(id, Swarm.STAY);
+                return;
+            }
+        }
+        settle(id, Swarm.MOVE);
+    }
+
+    // Write the mover's state after this tick into the back buffers
+    private void settle(int id, int what)
+    {
+        int r = swarm.moverRow[id];
+        int c = swarm.moverCol[id];
+        int f = swarm.moverFacing[id];
+        swarm.outcome[id] = (byte) what;
+        if (what == Swarm.MOVE)
+        {
+            swarm.nextOccupant[r * swarm.cols + c] = 0;
+            r += Swarm.rowStep(f);
+            c += Swarm.colStep(f);
+            swarm.nextOccupant[r * swarm.cols + c] = id + 1;
+        } else if (what == Swarm.TURN_LEFT)
+        {
+            f = (f + 3) % 4;
+        }
+        swarm.nextRow[id] = r;
+        swarm.nextCol[id] = c;
+        swarm.nextFacing[id] = (byte) f;
+    }
+
+    // Copy the back buffers forward and draw the change; returns the change to
+    // the Grid's hash
+    private long publish(int id)
+    {
+        int r = swarm.moverRow[id];
+        int c = swarm.moverCol[id];
+        int nr = swarm.nextRow[id];
+        int nc = swarm.nextCol[id];
+        int nf = swarm.nextFacing[id];
+        int what = swarm.outcome[id];
+        swarm.moverRow[id] = nr;
+        swarm.moverCol[id] = nc;
+        swarm.moverFacing[id] = (byte) nf;
+        if (what == Swarm.MOVE)
+        {
+            swarm.occupant[r * swarm.cols + c] = 0;
+            swarm.occupant[nr * swarm.cols + nc] = id + 1;
+            return swarm.leave(r, c) ^ swarm.enter(nr, nc, nf);
+        } else if (what == Swarm.TURN_LEFT)
+        {
+            return swarm.enter(r, c, nf);
+        } else if (what == Swarm.PUT_DOWN)
+        {
+            return swarm.grid.storeCell(r, c, Grid.moverOnThingChar);
+        } else if (what == Swarm.PICK_UP)
+        {
+            return swarm.grid.storeCell(r, c, Grid.iconFor(nf));
+        }
+        return 0;
+    }
+
+    /**
+     * Measure agent-steps per second on a 4096 by 4096 world with 1, 2, 4, ...
+     * worker threads up to the number of processors.
+     */
+    public static void main(String[] args)
+    {
+        int size = 4096;
+        int movers = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cpus; threads *= 2)
+        {
+            Swarm swarm = new Swarm(new Grid(size, size, 0, 0, Grid.EAST));
+            Random random = new Random(42);
+            while (swarm.size() < movers)
+            {
+                int r = random.nextInt(size);
+                int c = random.nextInt(size);
+                if (!swarm.isOccupied(r, c))
+                {
+                    swarm.addMover(r, c, random.nextInt(4));
+                }
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            WorldStepper stepper = new WorldStepper(swarm, pool, DEFAULT_TILE_ROWS);
+            stepper.step(Swarm.FORWARD_OR_TURN);  // warm up
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++)
+            {
+                stepper.step(Swarm.FORWARD_OR_TURN);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%2d threads: %,.0f agent-steps/s%n", threads, (double) movers * ticks / seconds);
+            pool.shutdown();
+        }
+    }
+
+} // end class WorldStepper